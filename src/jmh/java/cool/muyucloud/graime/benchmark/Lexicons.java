@@ -0,0 +1,65 @@
+package cool.muyucloud.graime.benchmark;
+
+import cool.muyucloud.graime.model.TimeWeightedDictionModel;
+import cool.muyucloud.graime.util.Clock;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic lexicons of the benchmarks, generated from a fixed seed.<br/>
+ * Every pinyin holds {@code CANDIDATES_PER_PINYIN} candidates selected within the last 30 days.
+ */
+final class Lexicons {
+    static final int CANDIDATES_PER_PINYIN = 16;
+    private static final long SEED = 42;
+
+    private Lexicons() {
+    }
+
+    static int pinyinCount(int candidates) {
+        return Math.max(1, candidates / CANDIDATES_PER_PINYIN);
+    }
+
+    static @NotNull String pinyin(int i) {
+        return "py" + i;
+    }
+
+    static @NotNull String candidate(int pinyin, int i) {
+        return "w" + pinyin + "_" + i;
+    }
+
+    /**
+     * @param candidates Total amount of candidates.
+     */
+    static @NotNull TimeWeightedDictionModel build(int candidates) {
+        return build(candidates, SEED);
+    }
+
+    static @NotNull TimeWeightedDictionModel build(int candidates, long seed) {
+        TimeWeightedDictionModel model = new TimeWeightedDictionModel();
+        Random random = new Random(seed);
+        long now = Clock.getTime();
+        int pinyins = pinyinCount(candidates);
+        for (int p = 0; p < pinyins; ++p) {
+            String pinyin = pinyin(p);
+            for (int c = 0; c < CANDIDATES_PER_PINYIN; ++c) {
+                model.update(pinyin, candidate(p, c), now - random.nextInt(30 * 86400) * 1000L);
+            }
+        }
+        return model;
+    }
+
+    static void delete(@NotNull Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cool.muyucloud.graime.benchmark;
+
+import cool.muyucloud.graime.model.ScoreProducer;
+import cool.muyucloud.graime.model.TimeWeightedDictionModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of {@code TimeWeightedDictionModel} on synthetic lexicons of {@code size} candidates.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ModelBenchmark {
+    @Param({"10000", "100000", "1000000", "5000000"})
+    public int size;
+
+    private TimeWeightedDictionModel model;
+    private TimeWeightedDictionModel other;
+    private TimeWeightedDictionModel another;
+    private int pinyins;
+    private Path dir;
+    private Path dumpDir;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SplittableRandom random = new SplittableRandom(7);
+
+        int next(int bound) {
+            return this.random.nextInt(bound);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.model = Lexicons.build(this.size);
+        this.other = Lexicons.build(this.size, 43);
+        this.another = Lexicons.build(this.size, 44);
+        this.pinyins = Lexicons.pinyinCount(this.size);
+        this.dir = Files.createTempDirectory("graime-jmh");
+        this.dumpDir = Files.createDirectory(this.dir.resolve("dump"));
+        this.model.dump(this.dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Lexicons.delete(this.dir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Map<String, Float> getScores(Cursor cursor) {
+        return this.model.getScores(Lexicons.pinyin(cursor.next(this.pinyins)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void update(Cursor cursor) {
+        int p = cursor.next(this.pinyins);
+        this.model.update(Lexicons.pinyin(p), Lexicons.candidate(p, cursor.next(Lexicons.CANDIDATES_PER_PINYIN)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ScoreProducer load() {
+        return new TimeWeightedDictionModel(this.dir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void dump() {
+        this.model.dump(this.dumpDir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ScoreProducer copy() {
+        return this.model.copy();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ScoreProducer mergeWith() {
+        return this.model.mergeWith(this.other);
+    }
+
+    /**
+     * Merge of three models, see {@code ModelMerger}.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ScoreProducer mergeWithMany() {
+        return this.model.mergeWith(List.of(this.other, this.another));
+    }
+}
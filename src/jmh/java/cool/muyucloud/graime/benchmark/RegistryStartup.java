@@ -0,0 +1,104 @@
+package cool.muyucloud.graime.benchmark;
+
+import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.model.ScoreProducer;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.scanners.TypeAnnotationsScanner;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compare the cold startup of the producer registry, built from the index generated at build time,
+ * against the former {@code Reflections} scan over the classpath.<br/>
+ * Every sample runs in a fresh JVM, since a registry is only built once per class loader.<br/>
+ * Run by {@code gradle registryStartup -PstartupRuns=<runs>}, the scanner is only on the classpath of the jmh source set.
+ */
+public class RegistryStartup {
+    private static final String INDEX = "index";
+    private static final String SCAN = "scan";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--child")) {
+            child(args[1]);
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<Long> index = new ArrayList<>(), scan = new ArrayList<>();
+        for (int i = 0; i < runs; ++i) {
+            index.add(spawn(INDEX));
+            scan.add(spawn(SCAN));
+        }
+        report("generated index", index);
+        report("reflections scan", scan);
+    }
+
+    private static void child(String mode) throws Exception {
+        long start = System.nanoTime();
+        int count;
+        if (mode.equals(SCAN)) {
+            count = scan();
+        } else {
+            Class.forName(ScoreProducer.class.getName());
+            count = ScoreProducer.get("default") == null ? 0 : 1;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (count == 0) {
+            throw new IllegalStateException("No producer found by %s".formatted(mode));
+        }
+        System.out.println(elapsed);
+    }
+
+    /**
+     * The registry initializer before the index, kept as the baseline.
+     */
+    private static int scan() {
+        Reflections reflections = new Reflections(
+            new ConfigurationBuilder().addScanners(
+                    new SubTypesScanner(false),
+                    new TypeAnnotationsScanner()
+                )
+                .addUrls(ClasspathHelper.forJavaClassPath())
+                .addUrls(ClasspathHelper.forClassLoader())
+        );
+        Set<Class<? extends ScoreProducer>> classes = reflections.getSubTypesOf(ScoreProducer.class);
+        int count = 0;
+        for (Class<? extends ScoreProducer> cl : classes) {
+            if (cl.getAnnotation(ImplementedProducer.class) != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static long spawn(String mode) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            RegistryStartup.class.getName(), "--child", mode)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        String line;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            line = reader.readLine();
+        }
+        if (process.waitFor() != 0 || line == null) {
+            throw new IllegalStateException("Sample of %s failed".formatted(mode));
+        }
+        return Long.parseLong(line.trim());
+    }
+
+    private static void report(String name, List<Long> samples) {
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        System.out.printf("%-17s min %8.2f ms, median %8.2f ms, max %8.2f ms%n", name,
+            sorted.get(0) / 1e6, sorted.get(sorted.size() / 2) / 1e6, sorted.get(sorted.size() - 1) / 1e6);
+    }
+}
@@ -0,0 +1,67 @@
+package cool.muyucloud.graime.benchmark;
+
+import cool.muyucloud.graime.util.SceneTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scene switching and queries of {@code SceneTree} over a root model of {@code size} candidates.<br/>
+ * The tree switches between {@code SCENES} scenes, so queries blend the current scene with the former one.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SceneTreeBenchmark {
+    private static final int SCENES = 8;
+
+    @Param({"10000", "100000", "1000000", "5000000"})
+    public int size;
+
+    private Path dir;
+    private SceneTree tree;
+    private Path[] scenes;
+    private int pinyins;
+    private final SplittableRandom random = new SplittableRandom(7);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("graime-jmh");
+        Path name = Files.createDirectory(this.dir.resolve("scenes"));
+        Lexicons.build(this.size).dump(name);
+        this.tree = new SceneTree(name);
+        this.pinyins = Lexicons.pinyinCount(this.size);
+        this.scenes = new Path[SCENES];
+        for (int i = 0; i < SCENES; ++i) {
+            this.scenes[i] = this.tree.getName().resolve("app" + i).resolve("box");
+            this.tree.stepInto(this.scenes[i]);
+            this.tree.updateProducer(Lexicons.pinyin(i), Lexicons.candidate(i, 0));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.tree.close();
+        Lexicons.delete(this.dir);
+    }
+
+    @Benchmark
+    public Path stepInto() {
+        Path scene = this.scenes[this.random.nextInt(SCENES)];
+        this.tree.stepInto(scene);
+        return scene;
+    }
+
+    @Benchmark
+    public Map<String, Float> getScores() {
+        return this.tree.getScores(Lexicons.pinyin(this.random.nextInt(this.pinyins)));
+    }
+}
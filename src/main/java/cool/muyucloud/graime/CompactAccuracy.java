@@ -0,0 +1,195 @@
+package cool.muyucloud.graime;
+
+import cool.muyucloud.graime.model.ModelConverter;
+import cool.muyucloud.graime.model.ScoreProducer;
+import cool.muyucloud.graime.model.TimeWeightedDictionModel;
+import cool.muyucloud.graime.util.BiType;
+import cool.muyucloud.graime.util.Clock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Measure how compact records rank against full precision ones, see {@code TimeWeightedDictionModel::setCompact}.<br/>
+ * A noted corpus is replayed on two copies of the same model, one of them compact, with the clock moving
+ * the same as {@code Replay}. Every record past the warmup is queried on both before being fed back,
+ * and the rankings are compared with each other and with the word the user selected.
+ * Heap usage and file sizes of both are reported at the end.<br/>
+ * Usage: {@code CompactAccuracy --corpus <json> [--model <file>] [--seed <n>] [--warmup <n>] [--depth <n>]
+ * [--jitter <ms>] [--start <timestamp>] [--out <csv>]}
+ */
+@TestOnly
+public class CompactAccuracy {
+    private final @NotNull List<BiType<String, String>> corpus;
+    private final long seed;
+    private final int warmup;
+    private final int depth;
+    private final int jitter;
+    private final long start;
+
+    private int queries = 0;
+    private int sameTop1 = 0;
+    private int sameRanking = 0;
+    private double overlaps = 0;
+    private double maxError = 0;
+    private double fullReciprocalRanks = 0;
+    private double compactReciprocalRanks = 0;
+
+    public CompactAccuracy(@NotNull List<BiType<String, String>> corpus, long seed, int warmup, int depth,
+                           int jitter, long start) {
+        this.corpus = corpus;
+        this.seed = seed;
+        this.warmup = warmup;
+        this.depth = depth;
+        this.jitter = jitter;
+        this.start = start;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = Replay.parse(args);
+        String corpusPath = options.get("corpus");
+        if (corpusPath == null) {
+            System.err.println("Usage: CompactAccuracy --corpus <json> [--model <file>] [--seed <n>] [--warmup <n>] " +
+                "[--depth <n>] [--jitter <ms>] [--start <timestamp>] [--out <csv>]");
+            System.exit(1);
+        }
+        CompactAccuracy accuracy = new CompactAccuracy(Replay.loadCorpus(Path.of(corpusPath)),
+            Long.parseLong(options.getOrDefault("seed", "0")),
+            Integer.parseInt(options.getOrDefault("warmup", "0")),
+            Integer.parseInt(options.getOrDefault("depth", "5")),
+            Integer.parseInt(options.getOrDefault("jitter", "10000")),
+            Long.parseLong(options.getOrDefault("start", String.valueOf(Replay.DEFAULT_START))));
+
+        TimeWeightedDictionModel full = load(options.get("model"));
+        TimeWeightedDictionModel compact = (TimeWeightedDictionModel) full.copy();
+        compact.setCompact(true);
+        accuracy.run(full, compact);
+
+        Map<String, Number> results = accuracy.results();
+        results.put("heap_full", full.estimateBytes());
+        results.put("heap_compact", compact.estimateBytes());
+        results.put("heap_saving", 1 - (double) compact.estimateBytes() / full.estimateBytes());
+        Path temp = Files.createTempDirectory("graime-compact");
+        try {
+            File source = temp.resolve("default.model").toFile();
+            full.dump(source);
+            for (String identifier : List.of("default", "mapped", "compact")) {
+                File target = temp.resolve("converted").resolve(identifier + ScoreProducer.POST_FIX).toFile();
+                Files.createDirectories(target.toPath().getParent());
+                ModelConverter.convert(source, target);
+                results.put("file_" + identifier, target.length());
+            }
+        } finally {
+            Replay.delete(temp);
+        }
+
+        for (Map.Entry<String, Number> entry : results.entrySet()) {
+            System.out.printf("%-18s %s%n", entry.getKey(), entry.getValue());
+        }
+        String out = options.get("out");
+        if (out != null) {
+            Replay.dumpResult(out, results);
+        }
+    }
+
+    private static @NotNull TimeWeightedDictionModel load(@Nullable String path) {
+        if (path == null) {
+            return new TimeWeightedDictionModel();
+        }
+        ScoreProducer producer = ScoreProducer.genericLoad(new File(path));
+        if (producer instanceof TimeWeightedDictionModel model && !model.isCompact()) {
+            return model;
+        }
+        if (producer == null) {
+            throw new IllegalArgumentException("%s is not a model file".formatted(path));
+        }
+        return (TimeWeightedDictionModel) new TimeWeightedDictionModel().mergeWith(producer, 1F);
+    }
+
+    /**
+     * Replay the corpus on both models, which should hold the same records beforehand.
+     */
+    public void run(@NotNull TimeWeightedDictionModel full, @NotNull TimeWeightedDictionModel compact) {
+        Clock.reset();
+        Clock.freeze(this.start);
+        Random random = new Random(this.seed);
+        for (int i = 0; i < this.corpus.size(); ++i) {
+            BiType<String, String> record = this.corpus.get(i);
+            String word = record.getA(), pinyin = record.getB();
+            if (i >= this.warmup) {
+                this.compare(full.topK(pinyin, this.depth), compact.topK(pinyin, this.depth), word);
+            }
+            full.update(pinyin, word);
+            compact.update(pinyin, word);
+            if (this.jitter > 0) {
+                Clock.forward(random.nextInt(this.jitter));
+            }
+        }
+    }
+
+    private void compare(@NotNull List<BiType<String, Float>> full, @NotNull List<BiType<String, Float>> compact,
+                         @NotNull String word) {
+        ++this.queries;
+        Set<String> fullWords = new HashSet<>();
+        Map<String, Float> compactScores = new HashMap<>();
+        for (BiType<String, Float> entry : full) {
+            fullWords.add(entry.getA());
+        }
+        for (BiType<String, Float> entry : compact) {
+            compactScores.put(entry.getA(), entry.getB());
+        }
+        boolean same = full.size() == compact.size();
+        int shared = 0;
+        for (int p = 0; p < full.size(); ++p) {
+            BiType<String, Float> entry = full.get(p);
+            same &= p < compact.size() && compact.get(p).getA().equals(entry.getA());
+            Float score = compactScores.get(entry.getA());
+            if (score != null) {
+                ++shared;
+                this.maxError = Math.max(this.maxError, Math.abs(score - entry.getB()) / entry.getB());
+            }
+        }
+        if (same) {
+            ++this.sameRanking;
+        }
+        if (full.isEmpty() ? compact.isEmpty() : !compact.isEmpty() && full.get(0).getA().equals(compact.get(0).getA())) {
+            ++this.sameTop1;
+        }
+        int union = fullWords.size() + compactScores.size() - shared;
+        this.overlaps += union == 0 ? 1 : (double) shared / union;
+        this.fullReciprocalRanks += reciprocalRank(full, word);
+        this.compactReciprocalRanks += reciprocalRank(compact, word);
+    }
+
+    private static double reciprocalRank(@NotNull List<BiType<String, Float>> ranked, @NotNull String word) {
+        for (int p = 0; p < ranked.size(); ++p) {
+            if (ranked.get(p).getA().equals(word)) {
+                return 1D / (p + 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Agreement of the rankings over the queried records, and the accuracy of both against the selections.
+     */
+    public @NotNull Map<String, Number> results() {
+        Map<String, Number> results = new LinkedHashMap<>();
+        int count = this.queries;
+        results.put("records", this.corpus.size());
+        results.put("queries", count);
+        results.put("same_top1", count == 0 ? 0 : (double) this.sameTop1 / count);
+        results.put("same_ranking", count == 0 ? 0 : (double) this.sameRanking / count);
+        results.put("jaccard", count == 0 ? 0 : this.overlaps / count);
+        results.put("max_score_error", this.maxError);
+        results.put("mrr_full", count == 0 ? 0 : this.fullReciprocalRanks / count);
+        results.put("mrr_compact", count == 0 ? 0 : this.compactReciprocalRanks / count);
+        return results;
+    }
+}
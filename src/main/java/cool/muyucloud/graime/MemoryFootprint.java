@@ -0,0 +1,91 @@
+package cool.muyucloud.graime;
+
+import cool.muyucloud.graime.model.TimeWeightedDictionModel;
+import cool.muyucloud.graime.util.BiType;
+import cool.muyucloud.graime.util.Clock;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.*;
+
+/**
+ * Compare heap footprint of the boxed {@code Map<String, Map<String, BiType<Float, Long>>>} layout
+ * against the primitive record tables of {@code TimeWeightedDictionModel}.<br/>
+ * Both layouts share the same pinyin and candidate strings, so only the structure is measured.<br/>
+ * Usage: {@code MemoryFootprint [pinyinCount] [candidatesPerPinyin]}
+ */
+@TestOnly
+public class MemoryFootprint {
+    public static void main(String[] args) {
+        int pinyinCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int perPinyin = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        String[] pinyins = new String[pinyinCount];
+        for (int i = 0; i < pinyinCount; ++i) {
+            pinyins[i] = "py" + i;
+        }
+        String[] words = new String[pinyinCount * perPinyin / 2 + 1];
+        for (int i = 0; i < words.length; ++i) {
+            words[i] = "w" + i;
+        }
+        System.out.printf("pinyin: %s, candidates per pinyin: %s, records: %s%n",
+            pinyinCount, perPinyin, (long) pinyinCount * perPinyin);
+
+        long base = usedHeap();
+        Map<String, Map<String, BiType<Float, Long>>> legacy = buildLegacy(pinyins, words, perPinyin);
+        long legacyBytes = usedHeap() - base;
+        System.out.printf("legacy layout:    %,d bytes (%.1f bytes/record)%n",
+            legacyBytes, (double) legacyBytes / pinyinCount / perPinyin);
+        legacy.clear();
+        legacy = null;
+
+        base = usedHeap();
+        TimeWeightedDictionModel model = buildModel(pinyins, words, perPinyin);
+        long modelBytes = usedHeap() - base;
+        System.out.printf("primitive layout: %,d bytes (%.1f bytes/record), estimated %,d bytes%n",
+            modelBytes, (double) modelBytes / pinyinCount / perPinyin, model.estimateBytes());
+        System.out.printf("ratio: %.2f%n", (double) legacyBytes / modelBytes);
+    }
+
+    private static Map<String, Map<String, BiType<Float, Long>>> buildLegacy(String[] pinyins, String[] words, int perPinyin) {
+        Random random = new Random(0);
+        Map<String, Map<String, BiType<Float, Long>>> map = new HashMap<>();
+        for (String pinyin : pinyins) {
+            Map<String, BiType<Float, Long>> candidates = new HashMap<>();
+            while (candidates.size() < perPinyin) {
+                String word = words[random.nextInt(words.length)];
+                candidates.put(word, new BiType<>(random.nextFloat(), Clock.getTime() - random.nextInt()));
+            }
+            map.put(pinyin, candidates);
+        }
+        return map;
+    }
+
+    private static TimeWeightedDictionModel buildModel(String[] pinyins, String[] words, int perPinyin) {
+        Random random = new Random(0);
+        TimeWeightedDictionModel model = new TimeWeightedDictionModel();
+        for (String pinyin : pinyins) {
+            Set<String> selected = new HashSet<>();
+            while (selected.size() < perPinyin) {
+                String word = words[random.nextInt(words.length)];
+                random.nextFloat();
+                random.nextInt();
+                if (selected.add(word)) {
+                    model.update(pinyin, word);
+                }
+            }
+        }
+        return model;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
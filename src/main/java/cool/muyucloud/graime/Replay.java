@@ -0,0 +1,298 @@
+package cool.muyucloud.graime;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import cool.muyucloud.graime.util.BiType;
+import cool.muyucloud.graime.util.Clock;
+import cool.muyucloud.graime.util.SceneTree;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic replay of a noted corpus against a SceneTree.<br/>
+ * Every record is queried, ranked against the word the user selected, then fed back as the selection,
+ * while the clock, frozen at {@code start}, moves forward by a jitter drawn from the seed,
+ * so runs with the same arguments rank the same.
+ * The first {@code warmup} records are only fed back, neither ranked nor timed.
+ * The model directory is copied before replaying, so it is never changed.
+ * <p>
+ * A scene script switches scenes and moves the clock at given records, one command per line:
+ * <pre>
+ * # comment
+ * &lt;record index&gt; scene &lt;path relative to the root scene&gt;
+ * &lt;record index&gt; wait &lt;milliseconds&gt;
+ * </pre>
+ * Usage: {@code Replay --corpus <json> [--model <dir>] [--script <file>] [--seed <n>] [--warmup <n>]
+ * [--depth <n>] [--jitter <ms>] [--start <timestamp>] [--out <csv>]}
+ */
+@TestOnly
+public class Replay {
+    /* 2024-06-01T00:00:00Z */
+    public static final long DEFAULT_START = 1717200000000L;
+
+    private final @NotNull List<BiType<String, String>> corpus;
+    private final @NotNull Map<Integer, List<String[]>> script;
+    private final long seed;
+    private final int warmup;
+    private final int depth;
+    private final int jitter;
+    private final long start;
+
+    private int queries = 0;
+    private double reciprocalRanks = 0;
+    private int top1 = 0;
+    private int top5 = 0;
+    private final long[] queryLatencies;
+    private final long[] updateLatencies;
+    private int updates = 0;
+
+    public Replay(@NotNull List<BiType<String, String>> corpus, @NotNull Map<Integer, List<String[]>> script,
+                  long seed, int warmup, int depth, int jitter, long start) {
+        this.corpus = corpus;
+        this.script = script;
+        this.seed = seed;
+        this.warmup = warmup;
+        this.depth = depth;
+        this.jitter = jitter;
+        this.start = start;
+        int measured = Math.max(0, corpus.size() - warmup);
+        this.queryLatencies = new long[measured];
+        this.updateLatencies = new long[measured];
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parse(args);
+        String corpusPath = options.get("corpus");
+        if (corpusPath == null) {
+            System.err.println("Usage: Replay --corpus <json> [--model <dir>] [--script <file>] [--seed <n>] " +
+                "[--warmup <n>] [--depth <n>] [--jitter <ms>] [--start <timestamp>] [--out <csv>]");
+            System.exit(1);
+        }
+        List<BiType<String, String>> corpus = loadCorpus(Path.of(corpusPath));
+        Map<Integer, List<String[]>> script = options.containsKey("script") ?
+            loadScript(Path.of(options.get("script"))) : new HashMap<>();
+        Replay replay = new Replay(corpus, script,
+            Long.parseLong(options.getOrDefault("seed", "0")),
+            Integer.parseInt(options.getOrDefault("warmup", "0")),
+            Integer.parseInt(options.getOrDefault("depth", String.valueOf(Integer.MAX_VALUE))),
+            Integer.parseInt(options.getOrDefault("jitter", "10000")),
+            Long.parseLong(options.getOrDefault("start", String.valueOf(DEFAULT_START))));
+
+        Path temp = Files.createTempDirectory("graime-replay");
+        try {
+            String model = options.get("model");
+            Path name = temp.resolve(model == null ? "root" : Path.of(model).toAbsolutePath().getFileName().toString());
+            if (model == null) {
+                Files.createDirectories(name);
+            } else {
+                copy(Path.of(model), name);
+            }
+            try (SceneTree tree = new SceneTree(name)) {
+                replay.run(tree);
+            }
+        } finally {
+            delete(temp);
+        }
+
+        Map<String, Number> results = replay.results();
+        for (Map.Entry<String, Number> entry : results.entrySet()) {
+            System.out.printf("%-18s %s%n", entry.getKey(), entry.getValue());
+        }
+        String out = options.get("out");
+        if (out != null) {
+            dumpResult(out, results);
+        }
+    }
+
+    /**
+     * Replay the corpus on a tree from the root scene.
+     */
+    public void run(@NotNull SceneTree tree) {
+        Clock.reset();
+        Clock.freeze(this.start);
+        Random random = new Random(this.seed);
+        for (int i = 0; i < this.corpus.size(); ++i) {
+            for (String[] command : this.script.getOrDefault(i, List.of())) {
+                if (command[0].equals("scene")) {
+                    tree.stepInto(command[1].isEmpty() ? tree.getName() : tree.getName().resolve(command[1]));
+                } else {
+                    Clock.forward(Long.parseLong(command[1]));
+                }
+            }
+            BiType<String, String> record = this.corpus.get(i);
+            String word = record.getA(), pinyin = record.getB();
+            if (i < this.warmup) {
+                tree.updateProducer(pinyin, word);
+            } else {
+                long start = System.nanoTime();
+                List<BiType<String, Float>> ranked = tree.topK(pinyin, this.depth);
+                long queried = System.nanoTime();
+                tree.updateProducer(pinyin, word);
+                long updated = System.nanoTime();
+                this.queryLatencies[this.queries] = queried - start;
+                this.updateLatencies[this.updates++] = updated - queried;
+                this.rank(ranked, word);
+            }
+            if (this.jitter > 0) {
+                Clock.forward(random.nextInt(this.jitter));
+            }
+        }
+    }
+
+    private void rank(@NotNull List<BiType<String, Float>> ranked, @NotNull String word) {
+        ++this.queries;
+        for (int p = 0; p < ranked.size(); ++p) {
+            if (ranked.get(p).getA().equals(word)) {
+                this.reciprocalRanks += 1D / (p + 1);
+                if (p < 1) {
+                    ++this.top1;
+                }
+                if (p < 5) {
+                    ++this.top5;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Accuracy over the ranked records, throughput in operations per second, latencies in nanoseconds.
+     */
+    public @NotNull Map<String, Number> results() {
+        Map<String, Number> results = new LinkedHashMap<>();
+        int count = this.queries;
+        results.put("records", this.corpus.size());
+        results.put("queries", count);
+        results.put("mrr", count == 0 ? 0 : this.reciprocalRanks / count);
+        results.put("top1", count == 0 ? 0 : (double) this.top1 / count);
+        results.put("top5", count == 0 ? 0 : (double) this.top5 / count);
+        report(results, "query", Arrays.copyOf(this.queryLatencies, count));
+        report(results, "update", Arrays.copyOf(this.updateLatencies, this.updates));
+        return results;
+    }
+
+    private static void report(Map<String, Number> results, String name, long[] latencies) {
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        results.put(name + "_throughput", total == 0 ? 0 : latencies.length / (total / 1e9));
+        results.put(name + "_p50", percentile(latencies, 0.5));
+        results.put(name + "_p99", percentile(latencies, 0.99));
+        results.put(name + "_p999", percentile(latencies, 0.999));
+    }
+
+    /**
+     * Nearest-rank percentile of sorted samples.
+     */
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.min(sorted.length, Math.max(rank, 1)) - 1];
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Unexpected argument %s".formatted(args[i]));
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * Load a noted corpus, a JSON array of {@code [word, pinyin]}.
+     */
+    public static @NotNull List<BiType<String, String>> loadCorpus(@NotNull Path path) {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            JsonArray array = new Gson().fromJson(reader, JsonArray.class);
+            List<BiType<String, String>> corpus = new ArrayList<>(array.size());
+            for (JsonElement element : array) {
+                JsonArray raw = element.getAsJsonArray();
+                corpus.add(new BiType<>(raw.get(0).getAsString(), raw.get(1).getAsString()));
+            }
+            return corpus;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Load a scene script, see {@code Replay}.
+     *
+     * @return Commands of every record index, in the order of the script.
+     */
+    public static @NotNull Map<Integer, List<String[]>> loadScript(@NotNull Path path) {
+        Map<Integer, List<String[]>> script = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                ++number;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+", 3);
+                if (parts.length < 2 || !(parts[1].equals("scene") || parts[1].equals("wait"))) {
+                    throw new IllegalArgumentException("Malformed command at line %s: %s".formatted(number, line));
+                }
+                String argument = parts.length > 2 ? parts[2] : "";
+                if (parts[1].equals("wait") && argument.isEmpty()) {
+                    throw new IllegalArgumentException("Missing milliseconds at line %s".formatted(number));
+                }
+                script.computeIfAbsent(Integer.parseInt(parts[0]), k -> new ArrayList<>())
+                    .add(new String[]{parts[1], argument});
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return script;
+    }
+
+    static void dumpResult(String path, Map<String, Number> results) {
+        try (OutputStream stream = new FileOutputStream(path)) {
+            StringBuilder builder = new StringBuilder("metric, value");
+            for (Map.Entry<String, Number> entry : results.entrySet()) {
+                builder.append('\n').append(entry.getKey()).append(", ").append(entry.getValue());
+            }
+            stream.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void copy(@NotNull Path from, @NotNull Path to) throws IOException {
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path source : files.toList()) {
+                Files.copy(source, to.resolve(from.relativize(source).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+    }
+
+    static void delete(@Nullable Path dir) throws IOException {
+        if (dir == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cool.muyucloud.graime;
+
+import cool.muyucloud.graime.model.ScoreProducer;
+import cool.muyucloud.graime.model.TimeWeightedDictionModel;
+import cool.muyucloud.graime.util.Clock;
+import cool.muyucloud.graime.util.SceneTree;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Measure how the query throughput of a shared SceneTree scales with concurrent input sessions.<br/>
+ * Every thread opens its own session in its own scene and issues {@code topK} queries,
+ * with one selection every {@code updateEvery} queries, which also updates the shared root model.<br/>
+ * Usage: {@code SessionThroughput [seconds] [updateEvery] [maxThreads]}
+ */
+@TestOnly
+public class SessionThroughput {
+    private static final int PINYIN_COUNT = 5000;
+    private static final int CANDIDATES_PER_PINYIN = 16;
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int updateEvery = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Path dir = Files.createTempDirectory("graime-throughput");
+        try {
+            Path name = dir.resolve("scenes");
+            Files.createDirectories(name);
+            buildRoot().dump(name);
+            System.out.printf("cores: %s, pinyin: %s, candidates per pinyin: %s, one update every %s queries%n",
+                Runtime.getRuntime().availableProcessors(), PINYIN_COUNT, CANDIDATES_PER_PINYIN, updateEvery);
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                try (SceneTree tree = new SceneTree(name)) {
+                    tree.setModelCacheLimit(Math.max(SceneTree.DEFAULT_MAX_LOADED_MODELS, maxThreads * 2), Long.MAX_VALUE);
+                    run(tree, threads, updateEvery, seconds / 4);
+                    double throughput = run(tree, threads, updateEvery, seconds);
+                    if (threads == 1) {
+                        single = throughput;
+                    }
+                    System.out.printf("threads %3d: %,12.0f ops/s, speedup %5.2f%n", threads, throughput, throughput / single);
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(SessionThroughput::delete);
+            }
+        }
+    }
+
+    private static ScoreProducer buildRoot() {
+        TimeWeightedDictionModel model = new TimeWeightedDictionModel();
+        Random random = new Random(42);
+        long now = Clock.getTime();
+        for (int p = 0; p < PINYIN_COUNT; ++p) {
+            for (int c = 0; c < CANDIDATES_PER_PINYIN; ++c) {
+                model.update(pinyin(p), "w" + p + "_" + c, now - random.nextInt(30 * 86400) * 1000L);
+            }
+        }
+        return model;
+    }
+
+    private static String pinyin(int i) {
+        return "py" + i;
+    }
+
+    /**
+     * @return Operations per second of all threads.
+     */
+    private static double run(SceneTree tree, int threads, int updateEvery, double seconds) throws InterruptedException {
+        AtomicLong operations = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] deadline = new long[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(id);
+                try (SceneTree.Session session = tree.openSession()) {
+                    try {
+                        // the scene is created and merged from the root before the clock starts
+                        session.stepInto(tree.getName().resolve("app" + id).resolve("box"));
+                        session.topK(pinyin(0), 5);
+                    } finally {
+                        // a worker failing to set up must not hold the others up
+                        ready.countDown();
+                    }
+                    start.await();
+                    long count = 0;
+                    while (System.nanoTime() < deadline[0]) {
+                        String pinyin = pinyin(random.nextInt(PINYIN_COUNT));
+                        if (++count % updateEvery == 0) {
+                            session.updateProducer(pinyin, "w" + pinyin.substring(2) + "_" + random.nextInt(CANDIDATES_PER_PINYIN));
+                        } else {
+                            session.topK(pinyin, 5);
+                        }
+                    }
+                    operations.addAndGet(count);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        deadline[0] = begin + (long) (seconds * 1e9);
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.get() / (elapsed / 1e9);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -68,12 +68,10 @@ public class Test {
         int success = 0;
         for (int i = this.index; i < this.index + count && i < CORPUS.size(); ++i) {
             BiType<String, String> record = CORPUS.get(i);
-            Map<String, Float> scores = sceneTree.getScores(record.getB());
-            List<Map.Entry<String, Float>> sorted = new ArrayList<>(scores.entrySet());
-            sorted.sort(Map.Entry.comparingByValue());
+            List<BiType<String, Float>> ranked = sceneTree.topK(record.getB(), Integer.MAX_VALUE);
             int p = 0;
-            for (Map.Entry<String, Float> entry : sorted) {
-                boolean result = entry.getKey().equals(record.getA());
+            for (BiType<String, Float> entry : ranked) {
+                boolean result = entry.getA().equals(record.getA());
                 if (result) {
                     score += Math.max(1F / (p + 1), 0);
                     success++;
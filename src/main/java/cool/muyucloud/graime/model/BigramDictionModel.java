@@ -0,0 +1,378 @@
+package cool.muyucloud.graime.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.util.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Overlay model that conditions on the previous selection, a word bigram backed off to the unigram dictionary.<br/>
+ * Besides the records of {@code OverlayDictionModel}, every selection is learned under the word selected before it,
+ * and the score of a candidate after that word is its unigram score plus its bigram score,
+ * so without bigram evidence the model scores exactly as the unigram dictionary.
+ * <p>
+ * Bigram records are found by an open-addressing {@code LongIntHashMap} keyed by the packed
+ * (previous word id, pinyin id), so a query costs one more symbol lookup and one probe over the unigram one.
+ * The previous word is passed in by every query and selection, see {@code ContextAware},
+ * so that each input session keeps its own context over the same model.
+ * Context-free queries and selections follow the context kept by the model, the last selection learned without
+ * a context given or set with {@code BigramDictionModel::setContext}, which is persisted along with the records.
+ * <p>
+ * File format: JSON (UTF-8), {@code {"unigram": records, "bigram": {previous word: records}, "context": word}},
+ * where records are in the format of {@code TimeWeightedDictionModel}.
+ * Merging flattens the layers and keeps the unigram records only.
+ */
+@ImplementedProducer("bigram")
+public class BigramDictionModel extends OverlayDictionModel implements ContextAware {
+    private static final Gson GSON = new Gson();
+
+    /* fields are set in create() and load(), which run before field initializers would */
+    private SymbolTable pinyinIds;
+    /* index of the records of every packed (previous word id, pinyin id) */
+    private LongIntHashMap contexts;
+    private RecordTable[] tables;
+    /* packed key of every table, to persist them */
+    private long[] keys;
+    private int tableCount;
+    /* candidate id of the context kept by the model, -1 for none */
+    private int previous;
+
+    public BigramDictionModel() {
+        super();
+    }
+
+    public BigramDictionModel(Path path) {
+        super(path);
+    }
+
+    public BigramDictionModel(File file) {
+        super(file);
+    }
+
+    @Override
+    public @NotNull String getIdentifier() {
+        return "bigram";
+    }
+
+    @Override
+    protected void create() {
+        super.create();
+        this.clearBigrams();
+    }
+
+    private void clearBigrams() {
+        this.pinyinIds = new SymbolTable();
+        this.contexts = new LongIntHashMap();
+        this.tables = new RecordTable[16];
+        this.keys = new long[16];
+        this.tableCount = 0;
+        this.previous = -1;
+    }
+
+    @Override
+    public void load(@NotNull File file) {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            this.map = new HashMap<>();
+            this.candidates = new SymbolTable();
+            this.clearBigrams();
+            JsonObject raw = GSON.fromJson(reader, JsonObject.class);
+            this.readRecords(raw.getAsJsonObject("unigram"), this.map);
+            for (Map.Entry<String, JsonElement> entry : raw.getAsJsonObject("bigram").entrySet()) {
+                int previous = this.candidates.intern(entry.getKey());
+                Map<String, RecordTable> records = new LinkedHashMap<>();
+                this.readRecords(entry.getValue().getAsJsonObject(), records);
+                for (Map.Entry<String, RecordTable> context : records.entrySet()) {
+                    this.addTable(LongIntHashMap.pack(previous, this.pinyinIds.intern(context.getKey())),
+                        context.getValue());
+                }
+            }
+            JsonElement context = raw.get("context");
+            if (context != null && !context.isJsonNull()) {
+                this.previous = this.candidates.intern(context.getAsString());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        this.dirty = false;
+    }
+
+    @Override
+    public void dump(@NotNull Path path) {
+        this.dump(path.resolve(this.getIdentifier() + POST_FIX).toFile());
+    }
+
+    @Override
+    public void dump(@NotNull File file) {
+        Map<Integer, Map<String, RecordTable>> grouped = new LinkedHashMap<>();
+        for (int t = 0; t < this.tableCount; ++t) {
+            long key = this.keys[t];
+            grouped.computeIfAbsent((int) (key >>> 32), k -> new LinkedHashMap<>())
+                .put(this.pinyinIds.get((int) key), this.tables[t]);
+        }
+        try {
+            AtomicFile.write(file, out -> {
+                JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                writer.beginObject();
+                writer.name("unigram");
+                this.writeRecords(writer, this.map);
+                writer.name("bigram").beginObject();
+                for (Map.Entry<Integer, Map<String, RecordTable>> entry : grouped.entrySet()) {
+                    writer.name(this.candidates.get(entry.getKey()));
+                    this.writeRecords(writer, entry.getValue());
+                }
+                writer.endObject();
+                writer.name("context").value(this.previous < 0 ? null : this.candidates.get(this.previous));
+                writer.endObject();
+                writer.flush();
+            });
+            this.dirty = false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Set the word the next context-free query and selection follow.
+     *
+     * @param word Previous word, {@code null} to query without context, such as at the start of a sentence.
+     */
+    @Override
+    public void setContext(@Nullable String word) {
+        this.previous = word == null ? -1 : this.candidates.intern(word);
+    }
+
+    /**
+     * @return The word the next context-free query and selection follow, {@code null} if none.
+     */
+    @Override
+    public @Nullable String getContext() {
+        return this.previous < 0 ? null : this.candidates.get(this.previous);
+    }
+
+    @Override
+    public @NotNull Map<String, Float> getScores(@NotNull String pinyin) {
+        return this.getScores(pinyin, this.previous);
+    }
+
+    @Override
+    public @NotNull Map<String, Float> getScores(@NotNull String pinyin, @Nullable String previous) {
+        return this.getScores(pinyin, this.find(previous));
+    }
+
+    private @NotNull Map<String, Float> getScores(@NotNull String pinyin, int previous) {
+        Map<String, Float> scores = super.getScores(pinyin);
+        RecordTable records = this.contextRecords(pinyin, previous);
+        if (records != null) {
+            long now = Clock.getTime();
+            for (int i = 0; i < records.size(); ++i) {
+                scores.merge(this.candidates.get(records.id(i)), toScore(records.level(i), now), Float::sum);
+            }
+        }
+        return scores;
+    }
+
+    @Override
+    public @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k) {
+        return this.topK(pinyin, k, this.previous);
+    }
+
+    @Override
+    public @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k, @Nullable String previous) {
+        return this.topK(pinyin, k, this.find(previous));
+    }
+
+    /**
+     * A candidate without bigram evidence scores its unigram score,
+     * so the unigram top {@code k} along with the candidates of the bigram are enough to rank.
+     * The bigram scores are added in one pass over the bigram records,
+     * a unigram score is looked up only for a bigram candidate out of the unigram top {@code k}.
+     */
+    private @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k, int previous) {
+        List<BiType<String, Float>> unigram = super.topK(pinyin, k);
+        RecordTable records = this.contextRecords(pinyin, previous);
+        if (k <= 0 || records == null) {
+            return unigram;
+        }
+        Map<String, Float> scores = new HashMap<>();
+        for (BiType<String, Float> entry : unigram) {
+            scores.put(entry.getA(), entry.getB());
+        }
+        long now = Clock.getTime();
+        for (int i = 0; i < records.size(); ++i) {
+            String candidate = this.candidates.get(records.id(i));
+            Float score = scores.get(candidate);
+            float base = score == null ? super.getScore(pinyin, candidate) : score;
+            scores.put(candidate, base + toScore(records.level(i), now));
+        }
+        return Ranking.top(scores, k);
+    }
+
+    @Override
+    public float getScore(@NotNull String pinyin, @NotNull String candidate) {
+        return this.getScore(pinyin, candidate, this.previous);
+    }
+
+    @Override
+    public float getScore(@NotNull String pinyin, @NotNull String candidate, @Nullable String previous) {
+        return this.getScore(pinyin, candidate, this.find(previous));
+    }
+
+    private float getScore(@NotNull String pinyin, @NotNull String candidate, int previous) {
+        float score = super.getScore(pinyin, candidate);
+        RecordTable records = this.contextRecords(pinyin, previous);
+        int id = this.candidates.find(candidate);
+        if (records != null && id >= 0) {
+            int i = records.indexOf(id);
+            if (i >= 0) {
+                score += toScore(records.level(i), Clock.getTime());
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Learn the selection as a unigram and as a bigram after the context kept by the model,
+     * then make it the context.
+     */
+    @Override
+    public void update(@NotNull String pinyin, @NotNull String selection, long time) {
+        super.update(pinyin, selection, time);
+        this.previous = this.learnBigram(pinyin, selection, this.previous, time);
+    }
+
+    @Override
+    public void update(@NotNull String pinyin, @NotNull String selection, @Nullable String previous, long time) {
+        super.update(pinyin, selection, time);
+        this.learnBigram(pinyin, selection, previous == null ? -1 : this.candidates.intern(previous), time);
+    }
+
+    /**
+     * Unigrams are applied by pinyin groups, while bigrams are chained in the order of the events,
+     * which ends up the same as updating the selections one by one.
+     */
+    @Override
+    public void updateBatch(@NotNull List<UpdateEvent> events, boolean parallel) {
+        this.previous = this.updateBatch(events, this.previous, parallel);
+    }
+
+    @Override
+    public void updateBatch(@NotNull List<UpdateEvent> events, @Nullable String previous, boolean parallel) {
+        this.updateBatch(events, previous == null ? -1 : this.candidates.intern(previous), parallel);
+    }
+
+    private int updateBatch(@NotNull List<UpdateEvent> events, int previous, boolean parallel) {
+        super.updateBatch(events, parallel);
+        for (UpdateEvent event : events) {
+            previous = this.learnBigram(event.getPinyin(), event.getSelection(), previous, event.getTime());
+        }
+        return previous;
+    }
+
+    /**
+     * @return Candidate id of the selection, the previous word of the next selection.
+     */
+    private int learnBigram(@NotNull String pinyin, @NotNull String selection, int previous, long time) {
+        int id = this.candidates.intern(selection);
+        if (previous >= 0) {
+            long key = LongIntHashMap.pack(previous, this.pinyinIds.intern(pinyin));
+            int t = this.contexts.get(key);
+            RecordTable records = t < 0 ? this.addTable(key, this.newRecords(0)) : this.tables[t];
+            apply(records, id, time);
+        }
+        return id;
+    }
+
+    private int find(@Nullable String word) {
+        return word == null ? -1 : this.candidates.find(word);
+    }
+
+    private @Nullable RecordTable contextRecords(@NotNull String pinyin, int previous) {
+        if (previous < 0) {
+            return null;
+        }
+        int pinyinId = this.pinyinIds.find(pinyin);
+        if (pinyinId < 0) {
+            return null;
+        }
+        int t = this.contexts.get(LongIntHashMap.pack(previous, pinyinId));
+        return t < 0 ? null : this.tables[t];
+    }
+
+    /**
+     * Translate the previous word ids of the bigram keys, and move the pinyin ids into the shared pinyin table.
+     */
+    @Override
+    void remapSymbols(int @NotNull [] translation) {
+        SymbolTable pinyins = Objects.requireNonNull(this.pinyins);
+        this.contexts = new LongIntHashMap(this.tableCount);
+        for (int t = 0; t < this.tableCount; ++t) {
+            long key = this.keys[t];
+            int pinyin = pinyins.intern(Objects.requireNonNull(this.pinyinIds.get((int) key)));
+            this.keys[t] = LongIntHashMap.pack(translation[(int) (key >>> 32)], pinyin);
+            this.contexts.put(this.keys[t], t);
+            this.tables[t].remap(translation);
+        }
+        this.pinyinIds = pinyins;
+        if (this.previous >= 0) {
+            this.previous = translation[this.previous];
+        }
+    }
+
+    @Override
+    public void setCompact(boolean compact) {
+        super.setCompact(compact);
+        for (int t = 0; t < this.tableCount; ++t) {
+            this.tables[t] = this.tables[t].convert(compact);
+        }
+    }
+
+    private RecordTable addTable(long key, RecordTable records) {
+        if (this.tableCount == this.tables.length) {
+            this.tables = Arrays.copyOf(this.tables, this.tableCount * 2);
+            this.keys = Arrays.copyOf(this.keys, this.tableCount * 2);
+        }
+        this.tables[this.tableCount] = records;
+        this.keys[this.tableCount] = key;
+        this.contexts.put(key, this.tableCount++);
+        return records;
+    }
+
+    /**
+     * Copy the unigram and bigram records, the copy shares the bases, the context and the shared tables of this model.
+     */
+    @Override
+    public @NotNull ScoreProducer copy() {
+        BigramDictionModel copied = (BigramDictionModel) super.copy();
+        copied.pinyinIds = this.pinyinIds == this.pinyins ? this.pinyinIds : this.pinyinIds.copy();
+        copied.contexts = this.contexts.copy();
+        copied.tables = new RecordTable[this.tables.length];
+        for (int t = 0; t < this.tableCount; ++t) {
+            copied.tables[t] = this.tables[t].copy();
+        }
+        copied.keys = this.keys.clone();
+        copied.tableCount = this.tableCount;
+        copied.previous = this.previous;
+        return copied;
+    }
+
+    @Override
+    public long estimateBytes() {
+        long bytes = super.estimateBytes() + this.contexts.estimateBytes() + 12L * this.tables.length;
+        if (this.pinyinIds != this.pinyins) {
+            bytes += this.pinyinIds.estimateBytes();
+        }
+        for (int t = 0; t < this.tableCount; ++t) {
+            bytes += this.tables[t].estimateBytes();
+        }
+        return bytes;
+    }
+}
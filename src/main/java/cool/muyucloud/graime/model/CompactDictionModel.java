@@ -0,0 +1,179 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.util.AtomicFile;
+import cool.muyucloud.graime.util.SymbolTable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Overlay model whose records are compact both on heap and on disk, see {@code TimeWeightedDictionModel::setCompact}.
+ * <br/>
+ * A record keeps a 16-bit log-scale score and a 32-bit minute since the model epoch instead of
+ * a float level and a millisecond timestamp, which is plenty for ranking,
+ * see {@code CompactAccuracy} for the agreement with full precision records.
+ * Without bases the model is a standalone dictionary, so it may be the root of a SceneTree as well as a scene model,
+ * see {@code SceneTree::setSceneProducer}.
+ * <p>
+ * Format version 1, numbers are big-endian, varints are unsigned LEB128:
+ * <pre>
+ * header   int magic "GRCM", short version, short flags, int string count, int pinyin count
+ * strings  every pinyin and candidate string, each in the format of {@code DataOutput::writeUTF}
+ * entries  one per pinyin: varint string id of the pinyin, varint record count,
+ *          then every record in ranked order: varint string id of the candidate, short score, int minute
+ * </pre>
+ * where the score is the quantized {@code log2} of the score at that minute, see {@code RecordTable}.
+ */
+@ImplementedProducer("compact")
+public class CompactDictionModel extends OverlayDictionModel {
+    static final int MAGIC = 0x4752434D;
+    static final short VERSION = 1;
+
+    public CompactDictionModel() {
+        super();
+    }
+
+    public CompactDictionModel(Path path) {
+        super(path);
+    }
+
+    public CompactDictionModel(File file) {
+        super(file);
+    }
+
+    @Override
+    public @NotNull String getIdentifier() {
+        return "compact";
+    }
+
+    @Override
+    protected void create() {
+        super.create();
+        this.compact = true;
+    }
+
+    @Override
+    public void load(@NotNull File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("%s is not a compact model file".formatted(file));
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported compact model version %s of %s".formatted(version, file));
+            }
+            in.readShort();
+            String[] strings = new String[in.readInt()];
+            int pinyinCount = in.readInt();
+            for (int id = 0; id < strings.length; ++id) {
+                strings[id] = in.readUTF();
+            }
+            this.map = new HashMap<>();
+            this.candidates = new SymbolTable();
+            this.compact = true;
+            // string id in the file to candidate id in this model
+            int[] ids = new int[strings.length];
+            Arrays.fill(ids, -1);
+            for (int entry = 0; entry < pinyinCount; ++entry) {
+                String pinyin = strings[readVarint(in)];
+                int count = readVarint(in);
+                RecordTable records = new RecordTable(count, true);
+                for (int i = 0; i < count; ++i) {
+                    int id = readVarint(in);
+                    if (ids[id] < 0) {
+                        ids[id] = this.candidates.intern(strings[id]);
+                    }
+                    records.addCompact(ids[id], in.readShort(), in.readInt());
+                }
+                this.map.put(pinyin, records);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        this.dirty = false;
+    }
+
+    @Override
+    public void dump(@NotNull Path path) {
+        this.dump(path.resolve(this.getIdentifier() + POST_FIX).toFile());
+    }
+
+    @Override
+    public void dump(@NotNull File file) {
+        try {
+            write(file, this);
+            this.dirty = false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write records in the compact format, quantizing full precision records.
+     */
+    private static void write(@NotNull File file, @NotNull TimeWeightedDictionModel model) throws IOException {
+        Map<String, RecordTable> map = model.map;
+        // pinyin strings come first in the string table, then candidates in the order they are met
+        List<String> strings = new ArrayList<>(map.keySet());
+        List<RecordTable> tables = new ArrayList<>(strings.size());
+        int[] ids = new int[model.candidates.size()];
+        Arrays.fill(ids, -1);
+        for (String pinyin : map.keySet()) {
+            RecordTable table = map.get(pinyin).convert(true);
+            tables.add(table);
+            for (int i = 0; i < table.size(); ++i) {
+                int id = table.id(i);
+                if (ids[id] < 0) {
+                    ids[id] = strings.size();
+                    strings.add(Objects.requireNonNull(model.candidates.get(id)));
+                }
+            }
+        }
+
+        AtomicFile.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(strings.size());
+            out.writeInt(tables.size());
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+            for (int entry = 0; entry < tables.size(); ++entry) {
+                RecordTable table = tables.get(entry);
+                writeVarint(out, entry);
+                writeVarint(out, table.size());
+                for (int i = 0; i < table.size(); ++i) {
+                    writeVarint(out, ids[table.id(i)]);
+                    out.writeShort(table.code(i));
+                    out.writeInt(table.minute(i));
+                }
+            }
+            out.flush();
+        });
+    }
+
+    private static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
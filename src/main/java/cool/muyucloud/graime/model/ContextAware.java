@@ -0,0 +1,46 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.util.BiType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Producer model whose scores depend on the word selected before, such as {@code BigramDictionModel}.<br/>
+ * The caller keeps the previous word and passes it in, so that a model shared by many input sessions
+ * follows the context of each of them, see {@code SceneTree.Session::setContext}.
+ * The context-free methods of {@code ScoreProducer} follow the context kept by the model itself.
+ */
+public interface ContextAware {
+    @NotNull Map<String, Float> getScores(@NotNull String pinyin, @Nullable String previous);
+
+    @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k, @Nullable String previous);
+
+    float getScore(@NotNull String pinyin, @NotNull String candidate, @Nullable String previous);
+
+    /**
+     * Learn a selection made after a word, the context kept by the model is left as is.
+     *
+     * @param previous Word selected before, {@code null} for none.
+     */
+    void update(@NotNull String pinyin, @NotNull String selection, @Nullable String previous, long time);
+
+    /**
+     * Learn a batch of selections made one after another, the first of them after a word,
+     * see {@code ContextAware::update}.
+     *
+     * @param previous Word selected before the first selection, {@code null} for none.
+     */
+    void updateBatch(@NotNull List<UpdateEvent> events, @Nullable String previous, boolean parallel);
+
+    /**
+     * Set the context kept by the model, which is persisted along with it.
+     *
+     * @param word Previous word, {@code null} for none.
+     */
+    void setContext(@Nullable String word);
+
+    @Nullable String getContext();
+}
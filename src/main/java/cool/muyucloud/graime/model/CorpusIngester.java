@@ -0,0 +1,451 @@
+package cool.muyucloud.graime.model;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import cool.muyucloud.graime.util.Clock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Build a root model from a corpus by streaming, so memory does not grow with the size of the corpus.<br/>
+ * Ingestion runs as three stages connected by bounded queues of batches:
+ * a reader that tokenizes the file, normalizers that turn tokens into selections on several threads,
+ * and a builder that feeds the selections to the model, see {@code ScoreProducer::updateBatch}.
+ * Every selection is made at the time of ingestion, so the model does not depend on the order of the stages.
+ * <p>
+ * Two corpus formats are accepted:
+ * <ul>
+ * <li>{@code json}: a JSON array of {@code [word, pinyin]}, where syllables are joined by {@code '}, spaces or {@code -};</li>
+ * <li>{@code tagged}: words tagged as {@code word/tag} separated by white spaces, where punctuations tagged
+ * {@code w} are skipped, and pinyin is looked up in a table of lines {@code <character> <pinyin>}.</li>
+ * </ul>
+ * Words with characters beyond the CJK unified ideographs are skipped in both formats.<br/>
+ * Usage: {@code CorpusIngester <corpus> <output directory> [--format json|tagged] [--pinyin <table>]
+ * [--identifier <identifier>] [--threads <n>]}
+ */
+public class CorpusIngester {
+    private static final int BATCH = 4096;
+    private static final int QUEUE = 16;
+    private static final char FIRST = 0x4E00;
+    private static final char LAST = 0x9FA5;
+    private static final List<String> END = new ArrayList<>();
+    private static final List<UpdateEvent> END_EVENTS = new ArrayList<>();
+
+    private final boolean tagged;
+    private final String @Nullable [] pinyinTable;
+    private final int threads;
+    private final long time;
+    private long ingested = 0;
+    private long skipped = 0;
+
+    /**
+     * @param tagged      Whether the corpus is tagged text, otherwise a JSON array.
+     * @param pinyinTable Pinyin table to look up pinyin of tagged words, see {@code CorpusIngester::loadPinyinTable}.
+     * @param threads     Amount of normalizer threads.
+     */
+    public CorpusIngester(boolean tagged, @Nullable Path pinyinTable, int threads) {
+        if (tagged && pinyinTable == null) {
+            throw new IllegalArgumentException("Tagged corpus requires a pinyin table");
+        }
+        this.tagged = tagged;
+        this.pinyinTable = pinyinTable == null ? null : loadPinyinTable(pinyinTable);
+        this.threads = Math.max(1, threads);
+        this.time = Clock.getTime();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: CorpusIngester <corpus> <output directory> [--format json|tagged] " +
+                "[--pinyin <table>] [--identifier <identifier>] [--threads <n>]");
+            System.exit(1);
+        }
+        Path corpus = Path.of(args[0]);
+        Path output = Path.of(args[1]);
+        String format = corpus.toString().endsWith(".json") ? "json" : "tagged";
+        String identifier = "default";
+        Path table = null;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--format" -> format = args[i + 1];
+                case "--pinyin" -> table = Path.of(args[i + 1]);
+                case "--identifier" -> identifier = args[i + 1];
+                case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unexpected argument %s".formatted(args[i]));
+            }
+        }
+        CorpusIngester ingester = new CorpusIngester(format.equals("tagged"), table, threads);
+        long start = System.nanoTime();
+        TimeWeightedDictionModel model = ingester.ingest(corpus);
+        ScoreProducer target = ScoreProducer.create(identifier);
+        if (!(target instanceof TimeWeightedDictionModel converted)) {
+            throw new IllegalArgumentException("%s is not a time weighted dictionary model identifier".formatted(identifier));
+        }
+        if (converted.getClass() != model.getClass()) {
+            converted.assign(model);
+            model = converted;
+        }
+        try {
+            Files.createDirectories(output);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        model.dump(output);
+        System.out.printf("ingested %s words, skipped %s, %s pinyin in %.1f s%n", ingester.getIngested(),
+            ingester.getSkipped(), model.getPinyins().size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Load a pinyin table of lines {@code <character> <pinyin>}, where lines starting with {@code #} are comments.
+     * Only the first pinyin of a character is kept.
+     *
+     * @return Pinyin of every CJK unified ideograph, indexed from {@code U+4E00}.
+     */
+    public static String @NotNull [] loadPinyinTable(@NotNull Path path) {
+        String[] table = new String[LAST - FIRST + 1];
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length < 2 || parts[0].length() != 1) {
+                    continue;
+                }
+                char c = parts[0].charAt(0);
+                if (c >= FIRST && c <= LAST && table[c - FIRST] == null) {
+                    table[c - FIRST] = parts[1].toLowerCase(Locale.ROOT);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return table;
+    }
+
+    /**
+     * Stream a corpus into a new model.
+     *
+     * @param corpus Path of the corpus file.
+     * @return Model trained with every word of the corpus.
+     */
+    public @NotNull TimeWeightedDictionModel ingest(@NotNull Path corpus) {
+        Pipeline pipeline = new Pipeline();
+        BlockingQueue<List<String>> tokens = pipeline.tokens;
+        BlockingQueue<List<UpdateEvent>> events = pipeline.events;
+        TimeWeightedDictionModel model = new TimeWeightedDictionModel();
+
+        pipeline.add("CorpusIngester-reader", () -> {
+            try {
+                if (this.tagged) {
+                    this.readTagged(corpus, tokens);
+                } else {
+                    this.readJson(corpus, tokens);
+                }
+            } finally {
+                // an aborted ingestion has drained the queues and interrupted the normalizers already
+                for (int i = 0; i < this.threads && !pipeline.isFailed(); ++i) {
+                    tokens.put(END);
+                }
+            }
+        });
+        List<Thread> normalizers = new ArrayList<>();
+        for (int i = 0; i < this.threads; ++i) {
+            normalizers.add(pipeline.add("CorpusIngester-normalizer-" + i, () -> this.normalize(tokens, events)));
+        }
+        pipeline.add("CorpusIngester-closer", () -> {
+            try {
+                for (Thread normalizer : normalizers) {
+                    normalizer.join();
+                }
+            } finally {
+                if (!pipeline.isFailed()) {
+                    events.put(END_EVENTS);
+                }
+            }
+        });
+        pipeline.start();
+
+        try {
+            for (List<UpdateEvent> batch = events.take(); batch != END_EVENTS; batch = events.take()) {
+                model.updateBatch(batch);
+                this.ingested += batch.size();
+            }
+            pipeline.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pipeline.fail(e);
+        } catch (RuntimeException | Error e) {
+            pipeline.fail(e);
+            try {
+                pipeline.join();
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Throwable thrown = pipeline.failure.get();
+        if (thrown != null) {
+            throw thrown instanceof RuntimeException runtime ? runtime : new RuntimeException(thrown);
+        }
+        return model;
+    }
+
+    /**
+     * Amount of words fed to the model by the last ingestion.
+     */
+    public long getIngested() {
+        return this.ingested;
+    }
+
+    /**
+     * Amount of tokens skipped by the normalizers.
+     */
+    public synchronized long getSkipped() {
+        return this.skipped;
+    }
+
+    private void readJson(@NotNull Path corpus, @NotNull BlockingQueue<List<String>> tokens)
+        throws IOException, InterruptedException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(corpus, StandardCharsets.UTF_8))) {
+            List<String> batch = new ArrayList<>(BATCH * 2);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginArray();
+                String word = reader.peek() == JsonToken.STRING ? reader.nextString() : null;
+                String pinyin = reader.hasNext() && reader.peek() == JsonToken.STRING ? reader.nextString() : null;
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+                if (word == null || pinyin == null) {
+                    continue;
+                }
+                batch.add(word);
+                batch.add(pinyin);
+                if (batch.size() >= BATCH * 2) {
+                    tokens.put(batch);
+                    batch = new ArrayList<>(BATCH * 2);
+                }
+            }
+            reader.endArray();
+            if (!batch.isEmpty()) {
+                tokens.put(batch);
+            }
+        }
+    }
+
+    /**
+     * Split the text by white spaces into tokens, the text may be a single line of any length.
+     */
+    private void readTagged(@NotNull Path corpus, @NotNull BlockingQueue<List<String>> tokens)
+        throws IOException, InterruptedException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(corpus), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[1 << 16];
+            StringBuilder token = new StringBuilder();
+            List<String> batch = new ArrayList<>(BATCH);
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                for (int i = 0; i < read; ++i) {
+                    char c = buffer[i];
+                    if (!Character.isWhitespace(c)) {
+                        token.append(c);
+                        continue;
+                    }
+                    if (!token.isEmpty()) {
+                        batch.add(token.toString());
+                        token.setLength(0);
+                        if (batch.size() >= BATCH) {
+                            tokens.put(batch);
+                            batch = new ArrayList<>(BATCH);
+                        }
+                    }
+                }
+            }
+            if (!token.isEmpty()) {
+                batch.add(token.toString());
+            }
+            if (!batch.isEmpty()) {
+                tokens.put(batch);
+            }
+        }
+    }
+
+    private void normalize(@NotNull BlockingQueue<List<String>> tokens, @NotNull BlockingQueue<List<UpdateEvent>> events)
+        throws InterruptedException {
+        StringBuilder builder = new StringBuilder();
+        for (List<String> batch = tokens.take(); batch != END; batch = tokens.take()) {
+            List<UpdateEvent> normalized = new ArrayList<>(this.tagged ? batch.size() : batch.size() / 2);
+            long skipped = 0;
+            if (this.tagged) {
+                for (String token : batch) {
+                    int slash = token.lastIndexOf('/');
+                    String word = slash < 0 ? null : token.substring(0, slash);
+                    String pinyin = word == null || token.substring(slash + 1).equals("w") ? null : this.lookUp(word, builder);
+                    if (pinyin == null) {
+                        ++skipped;
+                    } else {
+                        normalized.add(new UpdateEvent(pinyin, word, this.time));
+                    }
+                }
+            } else {
+                for (int i = 0; i + 1 < batch.size(); i += 2) {
+                    String word = batch.get(i).strip();
+                    String pinyin = isIdeographic(word) ? normalizePinyin(batch.get(i + 1), builder) : null;
+                    if (pinyin == null) {
+                        ++skipped;
+                    } else {
+                        normalized.add(new UpdateEvent(pinyin, word, this.time));
+                    }
+                }
+            }
+            synchronized (this) {
+                this.skipped += skipped;
+            }
+            if (!normalized.isEmpty()) {
+                events.put(normalized);
+            }
+        }
+    }
+
+    /**
+     * Look up the pinyin of a word character by character.
+     *
+     * @return Syllables joined by {@code '}, {@code null} if any character is unknown.
+     */
+    private @Nullable String lookUp(@NotNull String word, @NotNull StringBuilder builder) {
+        if (!isIdeographic(word)) {
+            return null;
+        }
+        builder.setLength(0);
+        for (int i = 0; i < word.length(); ++i) {
+            String syllable = this.pinyinTable[word.charAt(i) - FIRST];
+            if (syllable == null) {
+                return null;
+            }
+            if (i > 0) {
+                builder.append('\'');
+            }
+            builder.append(syllable);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Lower the letters and join the syllables by {@code '}.
+     *
+     * @return Normalized pinyin, {@code null} if it contains anything but letters and separators.
+     */
+    static @Nullable String normalizePinyin(@NotNull String pinyin, @NotNull StringBuilder builder) {
+        builder.setLength(0);
+        boolean separated = false;
+        for (int i = 0; i < pinyin.length(); ++i) {
+            char c = pinyin.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == 'ü') {
+                if (separated && !builder.isEmpty()) {
+                    builder.append('\'');
+                }
+                separated = false;
+                builder.append(c == 'ü' ? 'v' : Character.toLowerCase(c));
+            } else if (c == '\'' || c == ' ' || c == '-') {
+                separated = true;
+            } else {
+                return null;
+            }
+        }
+        return builder.isEmpty() ? null : builder.toString();
+    }
+
+    private static boolean isIdeographic(@NotNull String word) {
+        if (word.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); ++i) {
+            char c = word.charAt(i);
+            if (c < FIRST || c > LAST) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Worker threads of an ingestion and the queues connecting them.<br/>
+     * The first failure of any stage, the builder included, interrupts every worker and drains the queues,
+     * so that no stage stays blocked on a queue or keeps reading the corpus.
+     */
+    private static class Pipeline {
+        private final BlockingQueue<List<String>> tokens = new ArrayBlockingQueue<>(QUEUE);
+        private final BlockingQueue<List<UpdateEvent>> events = new ArrayBlockingQueue<>(QUEUE);
+        private final List<Thread> workers = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        /**
+         * Add a worker, which is started along with the others by {@code Pipeline::start}.
+         */
+        private Thread add(String name, Stage stage) {
+            Thread thread = new Thread(() -> {
+                // a worker not running yet at the failure misses the interrupt
+                if (this.isFailed()) {
+                    return;
+                }
+                try {
+                    stage.run();
+                } catch (Throwable e) {
+                    this.fail(e);
+                }
+            }, name);
+            thread.setDaemon(true);
+            this.workers.add(thread);
+            return thread;
+        }
+
+        private void start() {
+            for (Thread worker : this.workers) {
+                worker.start();
+            }
+        }
+
+        private void join() throws InterruptedException {
+            for (Thread worker : this.workers) {
+                worker.join();
+            }
+        }
+
+        private boolean isFailed() {
+            return this.failure.get() != null;
+        }
+
+        /**
+         * Keep the first failure and stop every stage, the builder is woken up by the end of the events.
+         */
+        private void fail(Throwable thrown) {
+            if (!this.failure.compareAndSet(null, thrown)) {
+                return;
+            }
+            for (Thread worker : this.workers) {
+                worker.interrupt();
+            }
+            this.tokens.clear();
+            do {
+                this.events.clear();
+            } while (!this.events.offer(END_EVENTS));
+        }
+    }
+}
@@ -1,7 +1,17 @@
 package cool.muyucloud.graime.model;
 
 import java.util.Map;
+import java.util.Set;
 
 public interface LexiconObtainable {
     Map<String, Map<String, Float>> getLexicon();
+
+    /**
+     * Get all the pinyin keys of the lexicon, without building the lexicon if possible.
+     *
+     * @return Read-only view or copy of the pinyin keys.
+     */
+    default Set<String> getPinyins() {
+        return this.getLexicon().keySet();
+    }
 }
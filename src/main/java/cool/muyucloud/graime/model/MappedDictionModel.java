@@ -0,0 +1,646 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.util.AtomicFile;
+import cool.muyucloud.graime.util.BiType;
+import cool.muyucloud.graime.util.SymbolTable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Time-weighted dictionary model persisted in a binary format that is memory-mapped on load.<br/>
+ * Loading only reads the header, the records of a pinyin are decoded on their first access,
+ * so neither load time nor heap usage grows with the part of the lexicon that is never queried.
+ * <p>
+ * Format version 1, numbers are big-endian:
+ * <pre>
+ * header   int magic "GRIM", short version, short flags,
+ *          int string count, int pinyin count, long position of offsets, long position of index
+ * offsets  string count + 1 ints, start of every string in the blob, the last one is the size of the blob
+ * blob     UTF-8 bytes of every pinyin and candidate string
+ * index    one entry per pinyin, sorted by the UTF-8 bytes of the pinyin:
+ *          int string id of the pinyin, int record count, long position of the records
+ * records  int string id of the candidate, float level, long time, in ranked order
+ * </pre>
+ * where a level is {@code log2(score)} plus the days since 2024-01-01, see {@code TimeWeightedDictionModel}.
+ * <p>
+ * Decoding on access changes the model even on reads, so every public method locks the model,
+ * unlike {@code TimeWeightedDictionModel} whose reads may run in parallel.
+ * <p>
+ * Dumping streams the records still mapped along with the decoded ones, and copies share the mapping,
+ * so neither decodes the rest of the model. Dumping onto the mapped file unmaps it before replacing it,
+ * since some platforms refuse to replace a mapped file, and maps the new one afterwards.
+ * A mapping shared with copies is left to the garbage collector instead.
+ */
+@ImplementedProducer("mapped")
+public class MappedDictionModel extends TimeWeightedDictionModel {
+    static final int MAGIC = 0x4752494D;
+    static final short VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 16;
+    private static final int RECORD_SIZE = 16;
+
+    /* no initializers here, the super constructor loads the file before they would run */
+    private @Nullable ByteBuffer buffer;
+    /* file of the mapping, null if nothing is mapped */
+    private @Nullable Path mapped;
+    /* whether copies refer to the mapping as well, in which case it is never unmapped explicitly */
+    private boolean shared;
+    private int pinyinCount;
+    private int offsetsPosition;
+    private int blobPosition;
+    private int indexPosition;
+    /* string id in the file to candidate id in this model, -1 if not decoded yet */
+    private int[] decoded;
+
+    public MappedDictionModel() {
+        super();
+    }
+
+    public MappedDictionModel(Path path) {
+        super(path);
+    }
+
+    public MappedDictionModel(File file) {
+        super(file);
+    }
+
+    @Override
+    public @NotNull String getIdentifier() {
+        return "mapped";
+    }
+
+    @Override
+    protected void create() {
+        super.create();
+        this.release();
+    }
+
+    @Override
+    public void load(@NotNull File file) {
+        try {
+            this.map(file.toPath());
+            this.decoded = new int[this.stringCount()];
+            Arrays.fill(this.decoded, -1);
+            this.map = new HashMap<>();
+            this.candidates = new SymbolTable();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        this.dirty = false;
+    }
+
+    /**
+     * Map a model file and read its header, the records already on heap are left as is.
+     */
+    private void map(@NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Model file %s is too large to be mapped".formatted(file));
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("%s is not a mapped model file".formatted(file));
+            }
+            short version = buffer.getShort(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported mapped model version %s of %s".formatted(version, file));
+            }
+            this.pinyinCount = buffer.getInt(12);
+            this.offsetsPosition = (int) buffer.getLong(16);
+            this.blobPosition = this.offsetsPosition + 4 * (buffer.getInt(8) + 1);
+            this.indexPosition = (int) buffer.getLong(24);
+            this.buffer = buffer;
+            this.mapped = file.toAbsolutePath();
+            this.shared = false;
+        }
+    }
+
+    /**
+     * Drop the mapping, unmapping it right away unless copies refer to it.
+     */
+    private void release() {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        this.mapped = null;
+        this.decoded = null;
+        if (buffer != null && !this.shared) {
+            unmap(buffer);
+        }
+    }
+
+    private int stringCount() {
+        return Objects.requireNonNull(this.buffer).getInt(8);
+    }
+
+    @Override
+    public synchronized void dump(@NotNull File file) {
+        try {
+            if (this.buffer == null) {
+                write(file, this.map, this.candidates);
+            } else {
+                this.stream(file);
+            }
+            this.dirty = false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized @NotNull Map<String, Float> getScores(@NotNull String pinyin) {
+        return super.getScores(pinyin);
+    }
+
+    @Override
+    public synchronized @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k) {
+        return super.topK(pinyin, k);
+    }
+
+    @Override
+    public synchronized float getScore(@NotNull String pinyin, @NotNull String candidate) {
+        return super.getScore(pinyin, candidate);
+    }
+
+    @Override
+    public synchronized void update(@NotNull String pinyin, @NotNull String selection, long time) {
+        super.update(pinyin, selection, time);
+    }
+
+    @Override
+    public synchronized void updateBatch(@NotNull List<UpdateEvent> events, boolean parallel) {
+        super.updateBatch(events, parallel);
+    }
+
+    /**
+     * Copy the records on heap, the copy shares the mapping and decodes the rest of the records on its own.
+     */
+    @Override
+    public synchronized @NotNull ScoreProducer copy() {
+        if (this.buffer == null) {
+            return super.copy();
+        }
+        MappedDictionModel copied = new MappedDictionModel();
+        copied.dirty = true;
+        copied.compact = this.compact;
+        // ids of shared tables are the same in every model, so the copy keeps sharing them
+        copied.candidates = this.pinyins == null ? this.candidates.copy() : this.candidates;
+        copied.pinyins = this.pinyins;
+        for (Map.Entry<String, RecordTable> entry : this.map.entrySet()) {
+            copied.map.put(entry.getKey(), entry.getValue().copy());
+        }
+        copied.buffer = this.buffer;
+        copied.mapped = this.mapped;
+        copied.pinyinCount = this.pinyinCount;
+        copied.offsetsPosition = this.offsetsPosition;
+        copied.blobPosition = this.blobPosition;
+        copied.indexPosition = this.indexPosition;
+        copied.decoded = this.decoded.clone();
+        copied.shared = true;
+        this.shared = true;
+        return copied;
+    }
+
+    @Override
+    public synchronized Map<String, Map<String, Float>> getLexicon() {
+        return super.getLexicon();
+    }
+
+    @Override
+    public synchronized void shareSymbols(@NotNull SymbolTable candidates, @NotNull SymbolTable pinyins) {
+        super.shareSymbols(candidates, pinyins);
+    }
+
+    /**
+     * Strings decoded so far refer to the former candidate ids as well.
+     */
+    @Override
+    void remapSymbols(int @NotNull [] translation) {
+        if (this.decoded == null) {
+            return;
+        }
+        for (int id = 0; id < this.decoded.length; ++id) {
+            if (this.decoded[id] >= 0) {
+                this.decoded[id] = translation[this.decoded[id]];
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setCompact(boolean compact) {
+        super.setCompact(compact);
+    }
+
+    @Override
+    public synchronized long estimateBytes() {
+        return super.estimateBytes();
+    }
+
+    @Override
+    public synchronized Set<String> getPinyins() {
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            return super.getPinyins();
+        }
+        Set<String> pinyins = new HashSet<>(this.map.keySet());
+        for (int entry = 0; entry < this.pinyinCount; ++entry) {
+            pinyins.add(this.string(buffer, buffer.getInt(this.indexPosition + entry * ENTRY_SIZE)));
+        }
+        return Collections.unmodifiableSet(pinyins);
+    }
+
+    @Override
+    @Nullable RecordTable records(@NotNull String pinyin) {
+        RecordTable records = this.map.get(pinyin);
+        ByteBuffer buffer = this.buffer;
+        if (records != null || buffer == null) {
+            return records;
+        }
+        int entry = this.find(buffer, pinyin.getBytes(StandardCharsets.UTF_8));
+        if (entry < 0) {
+            return null;
+        }
+        records = this.decode(buffer, entry);
+        this.map.put(this.key(pinyin), records);
+        return records;
+    }
+
+    @Override
+    void materialize() {
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            return;
+        }
+        for (int entry = 0; entry < this.pinyinCount; ++entry) {
+            String pinyin = this.string(buffer, buffer.getInt(this.indexPosition + entry * ENTRY_SIZE));
+            if (!this.map.containsKey(pinyin)) {
+                this.map.put(this.key(pinyin), this.decode(buffer, entry));
+            }
+        }
+        // every record lives on heap now, release the mapping
+        this.release();
+    }
+
+    private int find(ByteBuffer buffer, byte[] pinyin) {
+        int low = 0, high = this.pinyinCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.compare(buffer, buffer.getInt(this.indexPosition + mid * ENTRY_SIZE), pinyin);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(ByteBuffer buffer, int id, byte[] bytes) {
+        int start = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * id);
+        int end = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * (id + 1));
+        int length = end - start;
+        for (int i = 0; i < length && i < bytes.length; ++i) {
+            int cmp = Byte.compareUnsigned(buffer.get(start + i), bytes[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, bytes.length);
+    }
+
+    private RecordTable decode(ByteBuffer buffer, int entry) {
+        int position = this.indexPosition + entry * ENTRY_SIZE;
+        int count = buffer.getInt(position + 4);
+        int at = (int) buffer.getLong(position + 8);
+        RecordTable records = this.newRecords(count);
+        for (int i = 0; i < count; ++i, at += RECORD_SIZE) {
+            int id = buffer.getInt(at);
+            int candidate = this.decoded[id];
+            if (candidate < 0) {
+                candidate = this.candidates.intern(this.string(buffer, id));
+                this.decoded[id] = candidate;
+            }
+            records.add(candidate, buffer.getFloat(at + 4), buffer.getLong(at + 8));
+        }
+        return records;
+    }
+
+    private String string(ByteBuffer buffer, int id) {
+        int start = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * id);
+        int end = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * (id + 1));
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the records on heap and the records still mapped in the binary format,
+     * copying the mapped ones over without decoding them, see {@code MappedDictionModel::write}.<br/>
+     * The mapping is released before the file it maps is replaced, and the new file is mapped afterwards.
+     */
+    private void stream(@NotNull File file) throws IOException {
+        ByteBuffer buffer = Objects.requireNonNull(this.buffer);
+        Path mapped = Objects.requireNonNull(this.mapped);
+        boolean replacing = file.exists() && Files.isSameFile(file.toPath(), mapped);
+
+        // pinyin on heap, sorted by their UTF-8 bytes the same as the mapped index
+        byte[][] heapPinyins = new byte[this.map.size()][];
+        int heapCount = 0;
+        for (String pinyin : this.map.keySet()) {
+            heapPinyins[heapCount++] = pinyin.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(heapPinyins, Arrays::compareUnsigned);
+        // source of every entry, a mapped entry or ~ a pinyin on heap, merged in order of the pinyin
+        int[] entries = new int[heapCount + this.pinyinCount];
+        int entryCount = 0;
+        for (int h = 0, m = 0; h < heapCount || m < this.pinyinCount; ) {
+            int cmp = h == heapCount ? -1 : m == this.pinyinCount ? 1
+                : this.compare(buffer, buffer.getInt(this.indexPosition + m * ENTRY_SIZE), heapPinyins[h]);
+            if (cmp < 0) {
+                entries[entryCount++] = m++;
+            } else {
+                // a decoded entry is on heap as well, where it may have been updated
+                entries[entryCount++] = ~h++;
+                m += cmp == 0 ? 1 : 0;
+            }
+        }
+
+        // candidate strings follow the pinyin, each either a mapped string or ~ a candidate on heap
+        int[] heapIds = new int[this.candidates.size()];
+        int[] mappedIds = new int[this.stringCount()];
+        Arrays.fill(heapIds, -1);
+        Arrays.fill(mappedIds, -1);
+        int[] strings = new int[16];
+        int stringCount = entryCount;
+        long blobSize = 0;
+        long records = 0;
+        for (int e = 0; e < entryCount; ++e) {
+            int source = entries[e];
+            if (source < 0) {
+                blobSize += heapPinyins[~source].length;
+                RecordTable table = this.map.get(new String(heapPinyins[~source], StandardCharsets.UTF_8));
+                records += table.size();
+                for (int i = 0; i < table.size(); ++i) {
+                    int id = table.id(i);
+                    if (heapIds[id] < 0) {
+                        heapIds[id] = stringCount;
+                        strings = append(strings, stringCount++ - entryCount, ~id);
+                        blobSize += this.candidateBytes(id).length;
+                    }
+                }
+            } else {
+                int position = this.indexPosition + source * ENTRY_SIZE;
+                blobSize += this.length(buffer, buffer.getInt(position));
+                int count = buffer.getInt(position + 4);
+                int at = (int) buffer.getLong(position + 8);
+                records += count;
+                for (int i = 0; i < count; ++i, at += RECORD_SIZE) {
+                    int id = buffer.getInt(at);
+                    int candidate = this.decoded[id];
+                    if (candidate >= 0 ? heapIds[candidate] < 0 : mappedIds[id] < 0) {
+                        if (candidate >= 0) {
+                            heapIds[candidate] = stringCount;
+                            strings = append(strings, stringCount++ - entryCount, ~candidate);
+                        } else {
+                            mappedIds[id] = stringCount;
+                            strings = append(strings, stringCount++ - entryCount, id);
+                        }
+                        blobSize += this.length(buffer, id);
+                    }
+                }
+            }
+        }
+        long offsetsPosition = HEADER_SIZE;
+        long indexPosition = offsetsPosition + 4L * (stringCount + 1) + blobSize;
+        long recordsPosition = indexPosition + (long) ENTRY_SIZE * entryCount;
+        if (recordsPosition + RECORD_SIZE * records > Integer.MAX_VALUE) {
+            throw new IOException("Model is too large to be mapped");
+        }
+
+        int[] candidateStrings = strings;
+        int total = stringCount, pinyinTotal = entryCount;
+        try {
+            AtomicFile.write(file, stream -> {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeShort(0);
+                out.writeInt(total);
+                out.writeInt(pinyinTotal);
+                out.writeLong(offsetsPosition);
+                out.writeLong(indexPosition);
+                int offset = 0;
+                for (int e = 0; e < pinyinTotal; ++e) {
+                    out.writeInt(offset);
+                    int source = entries[e];
+                    offset += source < 0 ? heapPinyins[~source].length
+                        : this.length(buffer, buffer.getInt(this.indexPosition + source * ENTRY_SIZE));
+                }
+                for (int c = 0; c < total - pinyinTotal; ++c) {
+                    out.writeInt(offset);
+                    int source = candidateStrings[c];
+                    offset += source < 0 ? this.candidateBytes(~source).length : this.length(buffer, source);
+                }
+                out.writeInt(offset);
+                for (int e = 0; e < pinyinTotal; ++e) {
+                    int source = entries[e];
+                    if (source < 0) {
+                        out.write(heapPinyins[~source]);
+                    } else {
+                        this.copyString(buffer, buffer.getInt(this.indexPosition + source * ENTRY_SIZE), out);
+                    }
+                }
+                for (int c = 0; c < total - pinyinTotal; ++c) {
+                    int source = candidateStrings[c];
+                    if (source < 0) {
+                        out.write(this.candidateBytes(~source));
+                    } else {
+                        this.copyString(buffer, source, out);
+                    }
+                }
+                long position = recordsPosition;
+                for (int e = 0; e < pinyinTotal; ++e) {
+                    int source = entries[e];
+                    int count = source < 0
+                        ? this.map.get(new String(heapPinyins[~source], StandardCharsets.UTF_8)).size()
+                        : buffer.getInt(this.indexPosition + source * ENTRY_SIZE + 4);
+                    out.writeInt(e);
+                    out.writeInt(count);
+                    out.writeLong(position);
+                    position += (long) RECORD_SIZE * count;
+                }
+                for (int e = 0; e < pinyinTotal; ++e) {
+                    int source = entries[e];
+                    if (source < 0) {
+                        RecordTable table = this.map.get(new String(heapPinyins[~source], StandardCharsets.UTF_8));
+                        for (int i = 0; i < table.size(); ++i) {
+                            out.writeInt(heapIds[table.id(i)]);
+                            out.writeFloat(table.level(i));
+                            out.writeLong(table.time(i));
+                        }
+                        continue;
+                    }
+                    int index = this.indexPosition + source * ENTRY_SIZE;
+                    int count = buffer.getInt(index + 4);
+                    int at = (int) buffer.getLong(index + 8);
+                    for (int i = 0; i < count; ++i, at += RECORD_SIZE) {
+                        int id = buffer.getInt(at);
+                        int candidate = this.decoded[id];
+                        out.writeInt(candidate >= 0 ? heapIds[candidate] : mappedIds[id]);
+                        out.writeFloat(buffer.getFloat(at + 4));
+                        out.writeLong(buffer.getLong(at + 8));
+                    }
+                }
+                out.flush();
+                if (replacing) {
+                    // everything is copied out of the mapping, release it so that its file can be replaced
+                    this.buffer = null;
+                    if (!this.shared) {
+                        unmap(buffer);
+                    }
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            if (replacing && this.buffer == null) {
+                // the mapped file is left as is when it fails to be replaced
+                this.map(mapped);
+            }
+            throw e;
+        }
+        if (replacing) {
+            // strings of the new file refer to the candidates decoded so far
+            int[] decoded = new int[total];
+            Arrays.fill(decoded, -1);
+            for (int c = 0; c < total - pinyinTotal; ++c) {
+                int source = candidateStrings[c];
+                decoded[pinyinTotal + c] = source < 0 ? ~source : this.decoded[source];
+            }
+            this.map(mapped);
+            this.decoded = decoded;
+        }
+    }
+
+    private static int[] append(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+
+    private byte[] candidateBytes(int id) {
+        return Objects.requireNonNull(this.candidates.get(id)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int length(ByteBuffer buffer, int id) {
+        return buffer.getInt(this.offsetsPosition + 4 * (id + 1)) - buffer.getInt(this.offsetsPosition + 4 * id);
+    }
+
+    private void copyString(ByteBuffer buffer, int id, OutputStream out) throws IOException {
+        byte[] bytes = new byte[this.length(buffer, id)];
+        buffer.get(this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * id), bytes);
+        out.write(bytes);
+    }
+
+    /**
+     * Unmap a buffer right away rather than on garbage collection, no effect where the JDK does not allow it.
+     */
+    private static void unmap(@NotNull ByteBuffer buffer) {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            type.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // unmapped once the buffer is collected
+        }
+    }
+
+    /**
+     * Write records in the binary format.<br/>
+     * The file is replaced atomically, so a model that is still mapped from the target is never truncated.
+     */
+    static void write(@NotNull File file, @NotNull Map<String, RecordTable> map, @NotNull SymbolTable candidates) throws IOException {
+        // pinyin strings come first in the string table, sorted by their UTF-8 bytes
+        byte[][] pinyins = new byte[map.size()][];
+        RecordTable[] tables = new RecordTable[map.size()];
+        int count = 0;
+        for (String pinyin : map.keySet()) {
+            pinyins[count++] = pinyin.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(pinyins, Arrays::compareUnsigned);
+        List<byte[]> strings = new ArrayList<>(Arrays.asList(pinyins));
+        int[] ids = new int[candidates.size()];
+        Arrays.fill(ids, -1);
+        long records = 0;
+        for (int entry = 0; entry < pinyins.length; ++entry) {
+            RecordTable table = map.get(new String(pinyins[entry], StandardCharsets.UTF_8));
+            tables[entry] = table;
+            records += table.size();
+            for (int i = 0; i < table.size(); ++i) {
+                int id = table.id(i);
+                if (ids[id] < 0) {
+                    ids[id] = strings.size();
+                    strings.add(Objects.requireNonNull(candidates.get(id)).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        long blobSize = 0;
+        for (byte[] string : strings) {
+            blobSize += string.length;
+        }
+        long offsetsPosition = HEADER_SIZE;
+        long indexPosition = offsetsPosition + 4L * (strings.size() + 1) + blobSize;
+        long recordsPosition = indexPosition + (long) ENTRY_SIZE * pinyins.length;
+        if (recordsPosition + RECORD_SIZE * records > Integer.MAX_VALUE) {
+            throw new IOException("Model is too large to be mapped");
+        }
+
+        AtomicFile.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(strings.size());
+            out.writeInt(pinyins.length);
+            out.writeLong(offsetsPosition);
+            out.writeLong(indexPosition);
+            int offset = 0;
+            for (byte[] string : strings) {
+                out.writeInt(offset);
+                offset += string.length;
+            }
+            out.writeInt(offset);
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+            long position = recordsPosition;
+            for (int entry = 0; entry < pinyins.length; ++entry) {
+                out.writeInt(entry);
+                out.writeInt(tables[entry].size());
+                out.writeLong(position);
+                position += (long) RECORD_SIZE * tables[entry].size();
+            }
+            for (RecordTable table : tables) {
+                for (int i = 0; i < table.size(); ++i) {
+                    out.writeInt(ids[table.id(i)]);
+                    out.writeFloat(table.level(i));
+                    out.writeLong(table.time(i));
+                }
+            }
+            out.flush();
+        });
+    }
+}
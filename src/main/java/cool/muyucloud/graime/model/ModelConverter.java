@@ -0,0 +1,55 @@
+package cool.muyucloud.graime.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Convert time-weighted dictionary models between persistence formats,
+ * such as {@code default.model} (JSON), {@code mapped.model} (memory-mapped binary)
+ * and {@code compact.model} (compact binary),
+ * or build a read-only {@code static.model} from any of them.<br/>
+ * The format of both files is told by their identifiers, the same as {@code ScoreProducer::genericLoad}.<br/>
+ * Usage: {@code ModelConverter <from> <to>}
+ */
+public class ModelConverter {
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: ModelConverter <from> <to>");
+            System.exit(1);
+        }
+        convert(new File(args[0]), new File(args[1]));
+    }
+
+    /**
+     * Load a model file and dump it in the format of the target file.
+     *
+     * @param from Model file to convert.
+     * @param to   Target model file, its identifier tells the format to convert into.
+     */
+    public static void convert(@NotNull File from, @NotNull File to) {
+        ScoreProducer source = ScoreProducer.genericLoad(from);
+        if (!(source instanceof LexiconObtainable lexicon)) {
+            throw new IllegalArgumentException("%s is not a dictionary model".formatted(from));
+        }
+        String name = to.getName();
+        String identifier = name.substring(0, name.lastIndexOf('.'));
+        ScoreProducer target = ScoreProducer.create(identifier);
+        if (target instanceof StaticDictionModel) {
+            try {
+                StaticDictionModel.write(to, lexicon.getLexicon());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        TimeWeightedDictionModel model = source instanceof TimeWeightedDictionModel dictionary ? dictionary :
+            (TimeWeightedDictionModel) new TimeWeightedDictionModel().mergeWith(source, 1F);
+        if (!(target instanceof TimeWeightedDictionModel converted)) {
+            throw new IllegalArgumentException("%s is not a time weighted dictionary model identifier".formatted(identifier));
+        }
+        converted.assign(model);
+        converted.dump(to);
+    }
+}
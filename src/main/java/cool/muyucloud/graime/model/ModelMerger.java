@@ -0,0 +1,203 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.util.Clock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Merge any amount of producer models in one pass.<br/>
+ * The score of a candidate in the merged model is the weighted sum of its scores in every producer,
+ * where a producer that does not know the candidate counts as {@code 0}, and weights are normalized to sum up to 1.
+ * Every pinyin is merged independently, so large merges are split by pinyin shards into a fork-join pool.
+ * <p>
+ * Producers are only read through {@code ScoreProducer::getScores}, and their pinyin are told by
+ * {@code LexiconObtainable::getPinyins}, so neither a lexicon nor an intermediate model is ever built.
+ */
+public class ModelMerger {
+    /* amount of pinyin merged by a single fork-join task */
+    private static final int SHARD = 512;
+    /* amount of pinyin from which ScoreProducer::mergeWith merges in parallel */
+    public static final int PARALLEL_THRESHOLD = 8192;
+
+    /**
+     * Whether the producers can be merged by this engine, that is all of them can tell their pinyin.
+     */
+    public static boolean canMerge(@NotNull Collection<? extends ScoreProducer> producers) {
+        for (ScoreProducer producer : producers) {
+            if (!(producer instanceof LexiconObtainable)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merge producer models into a new time-weighted dictionary model, no effect on the producers.
+     *
+     * @param producers Producers to merge, all of them must be {@code LexiconObtainable}.
+     * @param weights   Weight of each producer, {@code null} to give all producers the same weight.
+     * @param parallel  Whether to merge the pinyin shards in the common fork-join pool.
+     * @return Newly merged model, whose records are observed at the time of merging.
+     */
+    public static @NotNull TimeWeightedDictionModel merge(@NotNull List<? extends ScoreProducer> producers,
+                                                          float @Nullable [] weights, boolean parallel) {
+        return merge(producers, weights, parallel, new TimeWeightedDictionModel());
+    }
+
+    /**
+     * Merge producer models into an empty time-weighted dictionary model, no effect on the producers.
+     *
+     * @param producers Producers to merge, all of them must be {@code LexiconObtainable}.
+     * @param weights   Weight of each producer, {@code null} to give all producers the same weight.
+     * @param parallel  Whether to merge the pinyin shards in the common fork-join pool.
+     * @param model     Empty model to fill, such as one of the type of a producer.
+     * @return The model filled, whose records are observed at the time of merging.
+     */
+    public static <T extends TimeWeightedDictionModel> @NotNull T merge(
+        @NotNull List<? extends ScoreProducer> producers, float @Nullable [] weights, boolean parallel,
+        @NotNull T model) {
+        if (!canMerge(producers)) {
+            throw new ClassCastException("Producers to merge must be LexiconObtainable");
+        }
+        float[] normalized = normalize(producers.size(), weights);
+        Set<String> union = new HashSet<>();
+        for (ScoreProducer producer : producers) {
+            union.addAll(((LexiconObtainable) producer).getPinyins());
+        }
+        String[] pinyins = union.toArray(new String[0]);
+        // interning in a stable order keeps the merged model the same whether it is merged in parallel or not
+        Arrays.sort(pinyins);
+        Merged[] merged = new Merged[pinyins.length];
+        MergeTask task = new MergeTask(producers, normalized, pinyins, merged, 0, pinyins.length);
+        if (parallel && pinyins.length > SHARD) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+
+        long now = Clock.getTime();
+        for (int p = 0; p < pinyins.length; ++p) {
+            Merged entry = merged[p];
+            if (entry.candidates.length == 0) {
+                continue;
+            }
+            RecordTable records = model.newRecords(entry.candidates.length);
+            for (int i = 0; i < entry.candidates.length; ++i) {
+                int id = model.candidates.intern(entry.candidates[i]);
+                records.add(id, TimeWeightedDictionModel.toLevel(entry.scores[i], now), now);
+            }
+            model.map.put(pinyins[p], records);
+        }
+        return model;
+    }
+
+    private static float[] normalize(int count, float @Nullable [] weights) {
+        float[] normalized = new float[count];
+        if (weights == null) {
+            Arrays.fill(normalized, 1F / count);
+            return normalized;
+        }
+        if (weights.length != count) {
+            throw new IllegalArgumentException("Expected %s weights, got %s".formatted(count, weights.length));
+        }
+        float sum = 0;
+        for (float weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights must not be negative");
+            }
+            sum += weight;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("Weights must not sum up to 0");
+        }
+        for (int i = 0; i < count; ++i) {
+            normalized[i] = weights[i] / sum;
+        }
+        return normalized;
+    }
+
+    /**
+     * Merge the candidates of a pinyin over every producer.
+     *
+     * @return Candidates in descending order of merged score.
+     */
+    private static Merged mergePinyin(@NotNull List<? extends ScoreProducer> producers, float[] weights,
+                                      @NotNull String pinyin) {
+        Map<String, Float> sums = new HashMap<>();
+        for (int i = 0; i < producers.size(); ++i) {
+            float weight = weights[i];
+            if (weight == 0) {
+                continue;
+            }
+            for (Map.Entry<String, Float> entry : producers.get(i).getScores(pinyin).entrySet()) {
+                sums.merge(entry.getKey(), entry.getValue() * weight, Float::sum);
+            }
+        }
+        List<Map.Entry<String, Float>> ranked = new ArrayList<>(sums.size());
+        for (Map.Entry<String, Float> entry : sums.entrySet()) {
+            if (entry.getValue() > 0) {
+                ranked.add(entry);
+            }
+        }
+        ranked.sort(Map.Entry.<String, Float>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        String[] candidates = new String[ranked.size()];
+        float[] scores = new float[ranked.size()];
+        for (int i = 0; i < candidates.length; ++i) {
+            candidates[i] = ranked.get(i).getKey();
+            scores[i] = ranked.get(i).getValue();
+        }
+        return new Merged(candidates, scores);
+    }
+
+    private static class Merged {
+        private final String @NotNull [] candidates;
+        private final float @NotNull [] scores;
+
+        private Merged(String @NotNull [] candidates, float @NotNull [] scores) {
+            this.candidates = candidates;
+            this.scores = scores;
+        }
+    }
+
+    /**
+     * Merge a range of pinyin, split in halves until a range fits in a shard.
+     */
+    private static class MergeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends ScoreProducer> producers;
+        private final float[] weights;
+        private final String[] pinyins;
+        private final Merged[] merged;
+        private final int from, to;
+
+        private MergeTask(List<? extends ScoreProducer> producers, float[] weights,
+                          String[] pinyins, Merged[] merged, int from, int to) {
+            this.producers = producers;
+            this.weights = weights;
+            this.pinyins = pinyins;
+            this.merged = merged;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= SHARD || !inForkJoinPool()) {
+                for (int p = this.from; p < this.to; ++p) {
+                    this.merged[p] = mergePinyin(this.producers, this.weights, this.pinyins[p]);
+                }
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(
+                new MergeTask(this.producers, this.weights, this.pinyins, this.merged, this.from, middle),
+                new MergeTask(this.producers, this.weights, this.pinyins, this.merged, middle, this.to)
+            );
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.util.BiType;
+import cool.muyucloud.graime.util.Ranking;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Copy-on-write layer over other producer models.<br/>
+ * The records of this model only hold what has been learned through it, trained the same as
+ * {@code TimeWeightedDictionModel}, while reads fall through to the base models:
+ * a learned candidate scores its learned score, which shadows the bases,
+ * and any other candidate scores the highest of its scores in the bases.
+ * The top candidates of a pinyin are copied from the bases on its first selection,
+ * see {@code OverlayDictionModel::update}.
+ * Creating a layer copies nothing, and its memory and files grow with the learned records only.
+ * <p>
+ * Base models are not persisted, they are attached again with {@code OverlayDictionModel::setBases} after loading.
+ * Reads go through the bases without locking them, the owner of the bases is responsible for that.
+ */
+@ImplementedProducer("overlay")
+public class OverlayDictionModel extends TimeWeightedDictionModel {
+    /* amount of candidates of a pinyin copied from the bases on its first selection, see OverlayDictionModel::seed */
+    public static final int SEED_DEPTH = 10;
+
+    private @NotNull List<ScoreProducer> bases = List.of();
+    private boolean seeding = true;
+    private @Nullable SeedListener seedListener;
+
+    /**
+     * Receives the scores copied from the bases, so that they can be persisted along with the selections.
+     */
+    @FunctionalInterface
+    public interface SeedListener {
+        void seeded(@NotNull String pinyin, @NotNull String candidate, float score, long time);
+    }
+
+    public OverlayDictionModel() {
+        super();
+    }
+
+    public OverlayDictionModel(Path path) {
+        super(path);
+    }
+
+    public OverlayDictionModel(File file) {
+        super(file);
+    }
+
+    @Override
+    public @NotNull String getIdentifier() {
+        return "overlay";
+    }
+
+    /**
+     * Attach the models to read through.
+     *
+     * @param bases Base models, which are referred instead of copied.
+     */
+    public void setBases(@NotNull List<? extends ScoreProducer> bases) {
+        this.bases = List.copyOf(bases);
+    }
+
+    public @NotNull List<ScoreProducer> getBases() {
+        return this.bases;
+    }
+
+    /**
+     * Listen to the scores copied from the bases, see {@code OverlayDictionModel::seed}.
+     *
+     * @param listener Listener, {@code null} for none.
+     */
+    public void setSeedListener(@Nullable SeedListener listener) {
+        this.seedListener = listener;
+    }
+
+    /**
+     * Whether to copy the scores from the bases on learning, disabled while a journal restores the copies it holds,
+     * see {@code UpdateJournal::replay}.
+     */
+    public void setSeeding(boolean seeding) {
+        this.seeding = seeding;
+    }
+
+    public boolean isSeeding() {
+        return this.seeding;
+    }
+
+    /**
+     * Learned scores, and the scores in the bases of the candidates not learned by this model.
+     */
+    @Override
+    public @NotNull Map<String, Float> getScores(@NotNull String pinyin) {
+        Map<String, Float> scores = super.getScores(pinyin);
+        for (Map.Entry<String, Float> entry : this.baseScores(pinyin).entrySet()) {
+            scores.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return scores;
+    }
+
+    /**
+     * Any candidate not learned by this model and out of the top {@code k} unlearned ones of every base
+     * scores no more than the {@code k}-th of the base it scores the highest in,
+     * so the top {@code k} of this model and the top {@code k} plus the learned count of each base are enough to rank.
+     */
+    @Override
+    public @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        List<BiType<String, Float>> learned = super.topK(pinyin, k);
+        if (this.bases.isEmpty()) {
+            return learned;
+        }
+        RecordTable records = this.records(pinyin);
+        int shadowed = records == null ? 0 : records.size();
+        int depth = (int) Math.min((long) k + shadowed, Integer.MAX_VALUE);
+        Map<String, Float> scores = new HashMap<>();
+        for (ScoreProducer base : this.bases) {
+            for (BiType<String, Float> entry : base.topK(pinyin, depth)) {
+                if (!this.isLearned(records, entry.getA())) {
+                    scores.merge(entry.getA(), entry.getB(), Math::max);
+                }
+            }
+        }
+        if (this.bases.size() > 1) {
+            for (Map.Entry<String, Float> entry : scores.entrySet()) {
+                entry.setValue(this.baseScore(pinyin, entry.getKey()));
+            }
+        }
+        for (BiType<String, Float> entry : learned) {
+            scores.put(entry.getA(), entry.getB());
+        }
+        return Ranking.top(scores, k);
+    }
+
+    @Override
+    public float getScore(@NotNull String pinyin, @NotNull String candidate) {
+        return this.isLearned(this.records(pinyin), candidate)
+            ? super.getScore(pinyin, candidate)
+            : this.baseScore(pinyin, candidate);
+    }
+
+    /**
+     * Learn a selection, starting from the scores in the bases of the candidates not learned yet.
+     */
+    @Override
+    public void update(@NotNull String pinyin, @NotNull String selection, long time) {
+        this.seed(pinyin, selection, time);
+        super.update(pinyin, selection, time);
+    }
+
+    @Override
+    public void updateBatch(@NotNull List<UpdateEvent> events, boolean parallel) {
+        for (UpdateEvent event : events) {
+            this.seed(event.getPinyin(), event.getSelection(), event.getTime());
+        }
+        super.updateBatch(events, parallel);
+    }
+
+    /**
+     * Copy the scores in the bases into the records of this model before a selection is learned,
+     * the top {@code SEED_DEPTH} candidates on the first selection of a pinyin and the selection itself,
+     * so that the scene ranks them on its own from then on, starting from what it has read so far.
+     * The copied scores are passed to the seed listener.
+     */
+    private void seed(@NotNull String pinyin, @NotNull String selection, long time) {
+        if (this.bases.isEmpty() || !this.seeding) {
+            return;
+        }
+        RecordTable records = this.records(pinyin);
+        Set<String> seeds = new LinkedHashSet<>();
+        if (records == null) {
+            for (ScoreProducer base : this.bases) {
+                for (BiType<String, Float> entry : base.topK(pinyin, SEED_DEPTH)) {
+                    seeds.add(entry.getA());
+                }
+            }
+        }
+        if (!this.isLearned(records, selection)) {
+            seeds.add(selection);
+        }
+        for (String candidate : seeds) {
+            float score = this.baseScore(pinyin, candidate);
+            if (score > 0) {
+                records = this.recordsOrCreate(pinyin);
+                records.add(this.candidates.intern(candidate), toLevel(score, time), time);
+                if (this.seedListener != null) {
+                    this.seedListener.seeded(pinyin, candidate, score, time);
+                }
+            }
+        }
+        if (records != null) {
+            records.sort();
+        }
+    }
+
+    /**
+     * Restore a score copied from the bases, no effect if the candidate is learned already.
+     *
+     * @param score Score in the bases at the moment of copying.
+     * @param time  Time of the selection it was copied for.
+     */
+    public void seed(@NotNull String pinyin, @NotNull String candidate, float score, long time) {
+        RecordTable records = this.recordsOrCreate(pinyin);
+        if (!this.isLearned(records, candidate)) {
+            records.add(this.candidates.intern(candidate), toLevel(score, time), time);
+            records.sort();
+            this.dirty = true;
+        }
+    }
+
+    private boolean isLearned(@Nullable RecordTable records, @NotNull String candidate) {
+        if (records == null) {
+            return false;
+        }
+        int id = this.candidates.find(candidate);
+        return id >= 0 && records.indexOf(id) >= 0;
+    }
+
+    private @NotNull Map<String, Float> baseScores(@NotNull String pinyin) {
+        Map<String, Float> scores = new HashMap<>();
+        for (ScoreProducer base : this.bases) {
+            for (Map.Entry<String, Float> entry : base.getScores(pinyin).entrySet()) {
+                scores.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+        }
+        return scores;
+    }
+
+    private float baseScore(@NotNull String pinyin, @NotNull String candidate) {
+        float score = 0F;
+        for (ScoreProducer base : this.bases) {
+            score = Math.max(score, base.getScore(pinyin, candidate));
+        }
+        return score;
+    }
+
+    /**
+     * Copy the learned records, the copy shares the bases of this model.
+     */
+    @Override
+    public @NotNull ScoreProducer copy() {
+        OverlayDictionModel copied = (OverlayDictionModel) super.copy();
+        copied.bases = this.bases;
+        return copied;
+    }
+
+    /**
+     * Build a standalone model scoring the same as this one at the moment.
+     */
+    public @NotNull TimeWeightedDictionModel flatten() {
+        return (TimeWeightedDictionModel) new TimeWeightedDictionModel().mergeWith(this, 1F);
+    }
+
+    /**
+     * Lexicon of every layer, see {@code OverlayDictionModel::getScores}.
+     */
+    @Override
+    public Map<String, Map<String, Float>> getLexicon() {
+        Map<String, Map<String, Float>> lexicon = super.getLexicon();
+        Map<String, Map<String, Float>> baseLexicon = new HashMap<>();
+        for (ScoreProducer base : this.bases) {
+            if (!(base instanceof LexiconObtainable obtainable)) {
+                continue;
+            }
+            for (Map.Entry<String, Map<String, Float>> entry : obtainable.getLexicon().entrySet()) {
+                Map<String, Float> candidates = baseLexicon.computeIfAbsent(entry.getKey(), k -> new HashMap<>());
+                for (Map.Entry<String, Float> candidate : entry.getValue().entrySet()) {
+                    candidates.merge(candidate.getKey(), candidate.getValue(), Math::max);
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, Float>> entry : baseLexicon.entrySet()) {
+            Map<String, Float> candidates = lexicon.computeIfAbsent(entry.getKey(), k -> new HashMap<>());
+            for (Map.Entry<String, Float> candidate : entry.getValue().entrySet()) {
+                candidates.putIfAbsent(candidate.getKey(), candidate.getValue());
+            }
+        }
+        return lexicon;
+    }
+
+    @Override
+    public Set<String> getPinyins() {
+        if (this.bases.isEmpty()) {
+            return super.getPinyins();
+        }
+        Set<String> pinyins = new HashSet<>(super.getPinyins());
+        for (ScoreProducer base : this.bases) {
+            if (base instanceof LexiconObtainable obtainable) {
+                pinyins.addAll(obtainable.getPinyins());
+            }
+        }
+        return pinyins;
+    }
+}
@@ -0,0 +1,76 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.util.LatencyHistogram;
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide metrics of producer models loaded by {@code ScoreProducer::genericLoad}.
+ */
+public class ProducerMetrics implements ProducerMetricsMBean {
+    public static final ProducerMetrics INSTANCE = new ProducerMetrics();
+    public static final String OBJECT_NAME = "cool.muyucloud.graime:type=ScoreProducer";
+
+    private final LatencyHistogram load = new LatencyHistogram();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private ProducerMetrics() {
+    }
+
+    /**
+     * Register the metrics to the platform MBean server, no effect if registered already.
+     */
+    public static synchronized @NotNull ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+            return name;
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void recordLoad(long nanos, long bytes) {
+        this.load.record(nanos);
+        this.bytesRead.addAndGet(bytes);
+    }
+
+    @Override
+    public long getLoadCount() {
+        return this.load.getCount();
+    }
+
+    @Override
+    public double getLoadTimeMean() {
+        return this.load.getMean();
+    }
+
+    @Override
+    public long getLoadTimeP50() {
+        return this.load.getPercentile(0.5);
+    }
+
+    @Override
+    public long getLoadTimeP99() {
+        return this.load.getPercentile(0.99);
+    }
+
+    @Override
+    public long getLoadTimeMax() {
+        return this.load.getMax();
+    }
+
+    /**
+     * Size of the model files loaded, mapped files count in full even if they are decoded lazily.
+     */
+    @Override
+    public long getBytesRead() {
+        return this.bytesRead.get();
+    }
+}
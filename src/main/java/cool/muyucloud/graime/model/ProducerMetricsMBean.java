@@ -0,0 +1,18 @@
+package cool.muyucloud.graime.model;
+
+/**
+ * JMX view of {@code ProducerMetrics}, times are in nanoseconds.
+ */
+public interface ProducerMetricsMBean {
+    long getLoadCount();
+
+    double getLoadTimeMean();
+
+    long getLoadTimeP50();
+
+    long getLoadTimeP99();
+
+    long getLoadTimeMax();
+
+    long getBytesRead();
+}
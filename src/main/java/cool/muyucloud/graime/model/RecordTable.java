@@ -0,0 +1,324 @@
+package cool.muyucloud.graime.model;
+
+import java.util.Arrays;
+
+/**
+ * Candidate records of a single pinyin, stored as parallel primitive arrays.<br/>
+ * Record {@code i} is made of {@code ids[i]}, {@code levels[i]} and {@code times[i]},
+ * where the id refers to a candidate interned in the owner's symbol table,
+ * and the level is the log-domain score relative to the model epoch.<br/>
+ * Records are kept in descending order of level, which is also the ranking order at any time.
+ * <p>
+ * A compact table keeps {@code codes[i]} and {@code minutes[i]} instead, 6 bytes a record rather than 12:
+ * the minute of the time since the model epoch, and the {@code log2} of the score at that minute
+ * quantized to 16 bits over {@code [LOG_MIN, LOG_MAX]}, so the level is still exact to about 0.0012,
+ * while times are truncated to minutes. Levels are only quantized when they are set.
+ */
+final class RecordTable {
+    static final long MINUTE = 60000L;
+    private static final float MINUTES_PER_DAY = 1440F;
+    /* range of the log2 scores of compact records, scores beyond it are clamped */
+    static final float LOG_MIN = -64F;
+    static final float LOG_MAX = 16F;
+    private static final float LOG_STEP = (LOG_MAX - LOG_MIN) / 65535F;
+
+    private static final int[] EMPTY_IDS = new int[0];
+    private static final float[] EMPTY_LEVELS = new float[0];
+    private static final long[] EMPTY_TIMES = new long[0];
+    private static final short[] EMPTY_CODES = new short[0];
+    private static final int[] EMPTY_MINUTES = new int[0];
+
+    private final boolean compact;
+    private int size = 0;
+    private int[] ids;
+    /* full precision records, null for compact tables */
+    private float[] levels;
+    private long[] times;
+    /* compact records, null for full precision tables */
+    private short[] codes;
+    private int[] minutes;
+
+    RecordTable() {
+        this(false);
+    }
+
+    RecordTable(boolean compact) {
+        this.compact = compact;
+        this.ids = EMPTY_IDS;
+        if (compact) {
+            this.codes = EMPTY_CODES;
+            this.minutes = EMPTY_MINUTES;
+        } else {
+            this.levels = EMPTY_LEVELS;
+            this.times = EMPTY_TIMES;
+        }
+    }
+
+    RecordTable(int capacity) {
+        this(capacity, false);
+    }
+
+    RecordTable(int capacity, boolean compact) {
+        this.compact = compact;
+        this.ids = new int[capacity];
+        if (compact) {
+            this.codes = new short[capacity];
+            this.minutes = new int[capacity];
+        } else {
+            this.levels = new float[capacity];
+            this.times = new long[capacity];
+        }
+    }
+
+    boolean isCompact() {
+        return this.compact;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int id(int i) {
+        return this.ids[i];
+    }
+
+    float level(int i) {
+        if (this.compact) {
+            return fromCode(this.codes[i]) + this.minutes[i] / MINUTES_PER_DAY;
+        }
+        return this.levels[i];
+    }
+
+    long time(int i) {
+        if (this.compact) {
+            return TimeWeightedDictionModel.EPOCH + this.minutes[i] * MINUTE;
+        }
+        return this.times[i];
+    }
+
+    /**
+     * Quantized score of a compact record, see {@code RecordTable}.
+     */
+    short code(int i) {
+        return this.codes[i];
+    }
+
+    /**
+     * Minutes since the model epoch of a compact record.
+     */
+    int minute(int i) {
+        return this.minutes[i];
+    }
+
+    void set(int i, float level, long time) {
+        if (this.compact) {
+            int minute = toMinute(time);
+            this.codes[i] = toCode(level - minute / MINUTES_PER_DAY);
+            this.minutes[i] = minute;
+        } else {
+            this.levels[i] = level;
+            this.times[i] = time;
+        }
+    }
+
+    /**
+     * Replace the candidate id of every record, when the owner moves its candidates into another symbol table.
+     *
+     * @param translation New id of every former id.
+     */
+    void remap(int[] translation) {
+        for (int i = 0; i < this.size; ++i) {
+            this.ids[i] = translation[this.ids[i]];
+        }
+    }
+
+    /**
+     * Find the record of a candidate.
+     *
+     * @param id Id of the candidate.
+     * @return Index of the record, {@code -1} if absent.
+     */
+    int indexOf(int id) {
+        int[] ids = this.ids;
+        for (int i = 0, size = this.size; i < size; ++i) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Move a record whose level has been changed back to its ranked position.
+     *
+     * @param i Index of the changed record.
+     * @return New index of the record.
+     */
+    int reposition(int i) {
+        float level = this.level(i);
+        while (i > 0 && level > this.level(i - 1)) {
+            this.swap(i, i - 1);
+            --i;
+        }
+        while (i < this.size - 1 && level < this.level(i + 1)) {
+            this.swap(i, i + 1);
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Sort all records in descending order of level, used after records are added in bulk.
+     */
+    void sort() {
+        int size = this.size;
+        if (size < 2) {
+            return;
+        }
+        long[] keys = new long[size];
+        for (int i = 0; i < size; ++i) {
+            int bits = Float.floatToIntBits(this.level(i));
+            // flip into an ascending signed order of the float, then invert for descending
+            int ordered = bits ^ ((bits >> 31) & 0x7FFFFFFF);
+            keys[i] = ((long) ~ordered << 32) | i;
+        }
+        Arrays.sort(keys);
+        RecordTable sorted = new RecordTable(this.ids.length, this.compact);
+        for (int i = 0; i < size; ++i) {
+            sorted.copyRecord(this, (int) keys[i], i);
+        }
+        this.ids = sorted.ids;
+        this.levels = sorted.levels;
+        this.times = sorted.times;
+        this.codes = sorted.codes;
+        this.minutes = sorted.minutes;
+    }
+
+    /**
+     * Append a record without checking duplication nor keeping the order.
+     *
+     * @return Index of the appended record.
+     */
+    int add(int id, float level, long time) {
+        if (this.size == this.ids.length) {
+            this.grow(Math.max(2, this.size + (this.size >> 1)));
+        }
+        this.ids[this.size] = id;
+        this.set(this.size, level, time);
+        return this.size++;
+    }
+
+    /**
+     * Append a compact record as it is persisted, without checking duplication nor keeping the order.
+     *
+     * @return Index of the appended record.
+     */
+    int addCompact(int id, short code, int minute) {
+        if (this.size == this.ids.length) {
+            this.grow(Math.max(2, this.size + (this.size >> 1)));
+        }
+        this.ids[this.size] = id;
+        this.codes[this.size] = code;
+        this.minutes[this.size] = minute;
+        return this.size++;
+    }
+
+    /**
+     * Release the spare capacity, used once a table is fully loaded.
+     */
+    void trim() {
+        if (this.size < this.ids.length) {
+            this.grow(this.size);
+        }
+    }
+
+    RecordTable copy() {
+        RecordTable copied = new RecordTable(this.size, this.compact);
+        for (int i = 0; i < this.size; ++i) {
+            copied.copyRecord(this, i, i);
+        }
+        copied.size = this.size;
+        return copied;
+    }
+
+    /**
+     * Copy the records into a table of the given encoding, quantizing them if it is compact.
+     *
+     * @return This table if it is already of the encoding.
+     */
+    RecordTable convert(boolean compact) {
+        if (compact == this.compact) {
+            return this;
+        }
+        RecordTable converted = new RecordTable(this.size, compact);
+        for (int i = 0; i < this.size; ++i) {
+            converted.add(this.ids[i], this.level(i), this.time(i));
+        }
+        return converted;
+    }
+
+    /**
+     * Estimated heap usage of this table, including array headers.
+     */
+    long estimateBytes() {
+        return 32L + 3 * 16L + this.ids.length * (this.compact ? 4L + 2L + 4L : 4L + 4L + 8L);
+    }
+
+    private void copyRecord(RecordTable from, int i, int to) {
+        this.ids[to] = from.ids[i];
+        if (this.compact) {
+            this.codes[to] = from.codes[i];
+            this.minutes[to] = from.minutes[i];
+        } else {
+            this.levels[to] = from.levels[i];
+            this.times[to] = from.times[i];
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = this.ids[i];
+        this.ids[i] = this.ids[j];
+        this.ids[j] = id;
+        if (this.compact) {
+            short code = this.codes[i];
+            this.codes[i] = this.codes[j];
+            this.codes[j] = code;
+            int minute = this.minutes[i];
+            this.minutes[i] = this.minutes[j];
+            this.minutes[j] = minute;
+        } else {
+            float level = this.levels[i];
+            this.levels[i] = this.levels[j];
+            this.levels[j] = level;
+            long time = this.times[i];
+            this.times[i] = this.times[j];
+            this.times[j] = time;
+        }
+    }
+
+    private void grow(int capacity) {
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        if (this.compact) {
+            this.codes = Arrays.copyOf(this.codes, capacity);
+            this.minutes = Arrays.copyOf(this.minutes, capacity);
+        } else {
+            this.levels = Arrays.copyOf(this.levels, capacity);
+            this.times = Arrays.copyOf(this.times, capacity);
+        }
+    }
+
+    private static int toMinute(long time) {
+        long minute = Math.floorDiv(time - TimeWeightedDictionModel.EPOCH, MINUTE);
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, minute));
+    }
+
+    private static short toCode(float log) {
+        // NaN and scores out of range clamp to the nearest end
+        float step = Math.max(0F, Math.min(65535F, (log - LOG_MIN) / LOG_STEP));
+        return (short) Math.round(step);
+    }
+
+    private static float fromCode(short code) {
+        return LOG_MIN + (code & 0xFFFF) * LOG_STEP;
+    }
+}
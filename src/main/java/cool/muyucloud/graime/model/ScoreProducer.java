@@ -2,13 +2,11 @@ package cool.muyucloud.graime.model;
 
 import com.sun.jdi.request.DuplicateRequestException;
 import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.util.BiType;
+import cool.muyucloud.graime.util.Clock;
+import cool.muyucloud.graime.util.Ranking;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
-import org.reflections.scanners.TypeAnnotationsScanner;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
 
 import java.io.File;
 import java.lang.reflect.Constructor;
@@ -20,36 +18,22 @@ public abstract class ScoreProducer {
     public static final String POST_FIX = ".model";
     private static final Map<String, Class<? extends ScoreProducer>> REGISTRY = new HashMap<>();
 
+    /*
+     * Producers annotated with @ImplementedProducer are indexed into META-INF/services at build time,
+     * see ImplementedProducerProcessor, so no classpath scanning happens here.
+     * Providers are only loaded as classes, never instantiated.
+     */
     static {
-        Reflections reflections = new Reflections(
-            new ConfigurationBuilder().addScanners(
-                    new SubTypesScanner(false),
-                    new TypeAnnotationsScanner()
-                )
-                .addUrls(ClasspathHelper.forJavaClassPath())
-                .addUrls(ClasspathHelper.forClassLoader())
-        );
-        Set<Class<? extends ScoreProducer>> classes = reflections.getSubTypesOf(ScoreProducer.class);
-        for (Class<? extends ScoreProducer> cl : classes) {
-            ImplementedProducer anno = cl.getAnnotation(ImplementedProducer.class);
-            if (anno != null) {
-                register(anno.value(), cl);
-            }
-        }
+        ServiceLoader.load(ScoreProducer.class).stream()
+            .map(ServiceLoader.Provider::type)
+            .filter(clazz -> clazz.isAnnotationPresent(ImplementedProducer.class) &&
+                !clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers()))
+            .forEach(clazz -> {
+                ImplementedProducer anno = clazz.getAnnotation(ImplementedProducer.class);
+                register(anno.value(), clazz);
+            });
     }
 
-//    static {
-//        ServiceLoader.load(ScoreProducer.class).stream()
-//            .map(ServiceLoader.Provider::type)
-//            .filter(clazz -> clazz.isAnnotationPresent(ImplementedProducer.class) &&
-//                ScoreProducer.class.isAssignableFrom(clazz) &&
-//                !clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers()))
-//            .forEach(clazz -> {
-//                ImplementedProducer anno = clazz.getAnnotation(ImplementedProducer.class);
-//                register(anno.value(), clazz);
-//            });
-//    }
-
     /**
      * Register a fully implemented producer model class
      * that allows generic loader to autoload the producer model with correct load method.
@@ -105,12 +89,16 @@ public abstract class ScoreProducer {
         if (cl == null) {
             return null;
         }
+        long start = System.nanoTime();
+        ScoreProducer producer;
         try {
             Constructor<? extends ScoreProducer> constructor = cl.getDeclaredConstructor(File.class);
-            return constructor.newInstance(file);
+            producer = constructor.newInstance(file);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        ProducerMetrics.INSTANCE.recordLoad(System.nanoTime() - start, file.length());
+        return producer;
     }
 
     /**
@@ -215,20 +203,80 @@ public abstract class ScoreProducer {
 
     /**
      * Query a sequence of possible candidate words of the pinyin input,
-     * along with the scores of the words.
+     * along with the scores of the words.<br/>
+     * Querying is read-only: it should neither change the model nor mark it dirty.
      *
      * @param pinyin Pinyin input.
      * @return A map of all the possible candidate words and their scores.
      */
     public abstract @NotNull Map<String, Float> getScores(@NotNull String pinyin);
 
+    /**
+     * Query the candidate words of top {@code k} scores of the pinyin input.<br/>
+     * Querying is read-only: it should neither change the model nor mark it dirty.
+     *
+     * @param pinyin Pinyin input.
+     * @param k      Maximum amount of candidates to return.
+     * @return Candidate words and their scores, in descending order of score.
+     */
+    public @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k) {
+        return Ranking.top(this.getScores(pinyin), k);
+    }
+
+    /**
+     * Query the score of a specific candidate word of the pinyin input.
+     *
+     * @param pinyin    Pinyin input.
+     * @param candidate Candidate word.
+     * @return Score of the candidate, {@code 0} if the candidate is unknown to the model.
+     */
+    public float getScore(@NotNull String pinyin, @NotNull String candidate) {
+        return this.getScores(pinyin).getOrDefault(candidate, 0F);
+    }
+
     /**
      * Update (or train) the producer model with the user's selection.
      *
      * @param pinyin    Pinyin input by the user.
      * @param selection Candidate word that is selected by the user.
      */
-    public abstract void update(@NotNull String pinyin, @NotNull String selection);
+    public void update(@NotNull String pinyin, @NotNull String selection) {
+        this.update(pinyin, selection, Clock.getTime());
+    }
+
+    /**
+     * Update (or train) the producer model with the user's selection made at a specific time.<br/>
+     * Replaying the same selections with the same timestamps should produce the same model.
+     *
+     * @param pinyin    Pinyin input by the user.
+     * @param selection Candidate word that is selected by the user.
+     * @param time      Timestamp of the selection.
+     */
+    public abstract void update(@NotNull String pinyin, @NotNull String selection, long time);
+
+    /**
+     * Update (or train) the producer model with a batch of selections,
+     * which ends up the same as updating them one by one in order.
+     *
+     * @param events Selections in the order they are made.
+     */
+    public void updateBatch(@NotNull List<UpdateEvent> events) {
+        this.updateBatch(events, false);
+    }
+
+    /**
+     * Update (or train) the producer model with a batch of selections,
+     * which ends up the same as updating them one by one in order.<br/>
+     * Implementations may apply the selections of different pinyin in parallel.
+     *
+     * @param events   Selections in the order they are made.
+     * @param parallel Whether to allow applying the selections in parallel.
+     */
+    public void updateBatch(@NotNull List<UpdateEvent> events, boolean parallel) {
+        for (UpdateEvent event : events) {
+            this.update(event.getPinyin(), event.getSelection(), event.getTime());
+        }
+    }
 
     /**
      * Fully copy a producer model.
@@ -270,28 +318,39 @@ public abstract class ScoreProducer {
      * @return Newly merged producer.
      */
     public @NotNull ScoreProducer mergeWith(@NotNull ScoreProducer... producers) throws ClassCastException {
-        ScoreProducer merged = this.copy();
-        for (int i = 0; i < producers.length; ++i) {
-            ScoreProducer producer = producers[i];
-            merged.mergeWith(producer, 1F / (i + 1));
-        }
-        return merged;
+        return this.mergeWith(Arrays.asList(producers));
     }
 
 
     /**
      * Merge this producer model with others and create a new one.<br/>
-     * All producers get same weight. <br/>
+     * All producers get same weight, see {@code ModelMerger}. <br/>
+     * A dictionary model keeps its type, see {@code TimeWeightedDictionModel::copy}. <br/>
      * No effect on both the original producers.
      *
      * @param producers Other producers to be merged.
      * @return Newly merged producer.
      */
     public @NotNull ScoreProducer mergeWith(@NotNull Collection<ScoreProducer> producers) throws ClassCastException {
+        List<ScoreProducer> all = new ArrayList<>(producers.size() + 1);
+        all.add(this);
+        all.addAll(producers);
+        if (ModelMerger.canMerge(all)) {
+            int pinyins = 0;
+            for (ScoreProducer producer : all) {
+                pinyins += ((LexiconObtainable) producer).getPinyins().size();
+            }
+            boolean parallel = pinyins >= ModelMerger.PARALLEL_THRESHOLD;
+            if (this instanceof TimeWeightedDictionModel model) {
+                return ModelMerger.merge(all, null, parallel, model.newInstance());
+            }
+            return ModelMerger.merge(all, null, parallel);
+        }
+        // pairwise as a running mean, where this producer is the first one
         ScoreProducer merged = this.copy();
-        int i = 0;
+        int i = 1;
         for (ScoreProducer producer : producers) {
-            merged.mergeWith(producer, 1F / (i + 1));
+            merged = merged.mergeWith(producer, 1F / (i + 1));
             ++i;
         }
         return merged;
@@ -320,9 +379,28 @@ public abstract class ScoreProducer {
     }
 
     /**
-     * Whether the instance has been changed and should be dumped.
+     * Whether the instance has been changed since it is created, loaded or dumped, and should be dumped.
      *
      * @return {@code true} if the instance should be dumped.
      */
     public abstract boolean isDirty();
+
+    /**
+     * Whether the model rejects updates, such as a shipped base lexicon.<br/>
+     * Read-only models can not be the model of a scene, put a model that learns over them instead.
+     *
+     * @return {@code true} if {@code ScoreProducer::update} always throws.
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Estimated heap usage of the model, used to bound the models loaded by a SceneTree.
+     *
+     * @return Estimated size in bytes, {@code 0} if unknown.
+     */
+    public long estimateBytes() {
+        return 0;
+    }
 }
@@ -0,0 +1,538 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.util.AtomicFile;
+import cool.muyucloud.graime.util.BiType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only lexicon of fixed scores, such as the base lexicon shipped with the IME.<br/>
+ * The lexicon is built offline into a file indexed by a minimal perfect hash of its pinyin,
+ * see {@code StaticDictionModel::write} or {@code ModelConverter}, and memory-mapped on load.
+ * Loading only reads the header and nothing is decoded into the heap but the results of queries,
+ * so a lookup costs one hash, one displacement and one slot, and {@code topK} just reads the first records.
+ * The mapping is never changed, so queries run in parallel without locking, and the pages are shared
+ * by every process mapping the same file. {@code StaticDictionModel::open} also shares one instance
+ * per file in the process, for every SceneTree and scene.
+ * <p>
+ * Format version 1, numbers are big-endian:
+ * <pre>
+ * header   int magic "GRST", short version, short flags, int string count, int pinyin count,
+ *          int bucket count, int seed, long position of offsets, long position of buckets, long position of slots
+ * offsets  string count + 1 ints, start of every string in the blob, the last one is the size of the blob
+ * blob     UTF-8 bytes of every pinyin and candidate string
+ * buckets  one int displacement per bucket of the hash, or -(slot + 1) for a bucket of a single pinyin
+ * slots    one entry per pinyin, at the position given by the hash:
+ *          int string id of the pinyin, int record count, long position of the records
+ * records  int string id of the candidate, float score, in descending order of score
+ * </pre>
+ * A pinyin hashes into a bucket, and the displacement of the bucket moves it into a slot of its own,
+ * where the stored pinyin rejects keys out of the lexicon.
+ */
+@ImplementedProducer("static")
+public class StaticDictionModel extends ScoreProducer implements LexiconObtainable {
+    static final int MAGIC = 0x47525354;
+    static final short VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int SLOT_SIZE = 16;
+    private static final int RECORD_SIZE = 8;
+    /* average amount of pinyin per bucket of the hash */
+    private static final int BUCKET_LOAD = 2;
+    private static final Map<String, StaticDictionModel> SHARED = new ConcurrentHashMap<>();
+
+    /* no initializers here, the super constructor loads the file before they would run */
+    private @Nullable ByteBuffer buffer;
+    private int pinyinCount;
+    private int bucketCount;
+    private int seed;
+    private int offsetsPosition;
+    private int blobPosition;
+    private int bucketsPosition;
+    private int slotsPosition;
+
+    public StaticDictionModel() {
+        super();
+    }
+
+    public StaticDictionModel(Path path) {
+        super(path);
+    }
+
+    public StaticDictionModel(File file) {
+        super(file);
+    }
+
+    /**
+     * Load a lexicon file, or get the instance already loaded from it in this process.
+     *
+     * @param file Lexicon file in the format of this model.
+     * @return The shared instance of the file.
+     */
+    public static @NotNull StaticDictionModel open(@NotNull File file) {
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return SHARED.computeIfAbsent(key, k -> new StaticDictionModel(file));
+    }
+
+    @Override
+    public @NotNull String getIdentifier() {
+        return "static";
+    }
+
+    @Override
+    protected void create() {
+        this.buffer = null;
+        this.pinyinCount = 0;
+    }
+
+    @Override
+    public void load(@NotNull File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Model file %s is too large to be mapped".formatted(file));
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("%s is not a static model file".formatted(file));
+            }
+            short version = buffer.getShort(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported static model version %s of %s".formatted(version, file));
+            }
+            int stringCount = buffer.getInt(8);
+            this.pinyinCount = buffer.getInt(12);
+            this.bucketCount = buffer.getInt(16);
+            this.seed = buffer.getInt(20);
+            this.offsetsPosition = (int) buffer.getLong(24);
+            this.blobPosition = this.offsetsPosition + 4 * (stringCount + 1);
+            this.bucketsPosition = (int) buffer.getLong(32);
+            this.slotsPosition = (int) buffer.getLong(40);
+            this.buffer = buffer;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void dump(@NotNull Path path) {
+        this.dump(path.resolve(this.getIdentifier() + POST_FIX).toFile());
+    }
+
+    @Override
+    public void dump(@NotNull File file) {
+        try {
+            write(file, this.getLexicon());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public @NotNull Map<String, Float> getScores(@NotNull String pinyin) {
+        Map<String, Float> scores = new HashMap<>();
+        ByteBuffer buffer = this.buffer;
+        int slot = this.find(buffer, pinyin);
+        if (slot < 0) {
+            return scores;
+        }
+        int position = this.slotsPosition + slot * SLOT_SIZE;
+        int count = buffer.getInt(position + 4);
+        int at = (int) buffer.getLong(position + 8);
+        for (int i = 0; i < count; ++i, at += RECORD_SIZE) {
+            scores.put(this.string(buffer, buffer.getInt(at)), buffer.getFloat(at + 4));
+        }
+        return scores;
+    }
+
+    /**
+     * Records are stored in descending order of score, so the first {@code k} of them are the top.
+     */
+    @Override
+    public @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k) {
+        List<BiType<String, Float>> ranked = new ArrayList<>();
+        ByteBuffer buffer = this.buffer;
+        int slot = this.find(buffer, pinyin);
+        if (slot < 0 || k <= 0) {
+            return ranked;
+        }
+        int position = this.slotsPosition + slot * SLOT_SIZE;
+        int count = Math.min(k, buffer.getInt(position + 4));
+        int at = (int) buffer.getLong(position + 8);
+        for (int i = 0; i < count; ++i, at += RECORD_SIZE) {
+            ranked.add(new BiType<>(this.string(buffer, buffer.getInt(at)), buffer.getFloat(at + 4)));
+        }
+        return ranked;
+    }
+
+    @Override
+    public float getScore(@NotNull String pinyin, @NotNull String candidate) {
+        ByteBuffer buffer = this.buffer;
+        int slot = this.find(buffer, pinyin);
+        if (slot < 0) {
+            return 0F;
+        }
+        byte[] bytes = candidate.getBytes(StandardCharsets.UTF_8);
+        int position = this.slotsPosition + slot * SLOT_SIZE;
+        int count = buffer.getInt(position + 4);
+        int at = (int) buffer.getLong(position + 8);
+        for (int i = 0; i < count; ++i, at += RECORD_SIZE) {
+            if (this.equals(buffer, buffer.getInt(at), bytes)) {
+                return buffer.getFloat(at + 4);
+            }
+        }
+        return 0F;
+    }
+
+    /**
+     * The lexicon is read-only, learn selections with a model over it, such as {@code OverlayDictionModel}.
+     * A SceneTree refuses it as the model of a scene, pass it to {@code SceneTree(path, lexicon)} instead.
+     */
+    @Override
+    public void update(@NotNull String pinyin, @NotNull String selection, long time) {
+        throw new UnsupportedOperationException("StaticDictionModel is read-only");
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    /**
+     * The lexicon is never changed, so the copy is the same instance.
+     */
+    @Override
+    public @NotNull ScoreProducer copy() {
+        return this;
+    }
+
+    /**
+     * Merge into a new time-weighted dictionary model, whose records start from the scores of this lexicon.
+     */
+    @Override
+    public @NotNull ScoreProducer mergeWith(@NotNull ScoreProducer producer, float weight) throws ClassCastException {
+        return new TimeWeightedDictionModel().mergeWith(this, 1F).mergeWith(producer, weight);
+    }
+
+    @Override
+    protected boolean canOneWayMergeWith(ScoreProducer producer) {
+        return producer instanceof LexiconObtainable;
+    }
+
+    @Override
+    public boolean isDirty() {
+        return false;
+    }
+
+    /**
+     * Only the fields of the model live on heap, the lexicon is mapped.
+     */
+    @Override
+    public long estimateBytes() {
+        return 64L;
+    }
+
+    @Override
+    public Map<String, Map<String, Float>> getLexicon() {
+        Map<String, Map<String, Float>> lexicon = new HashMap<>();
+        for (String pinyin : this.getPinyins()) {
+            lexicon.put(pinyin, this.getScores(pinyin));
+        }
+        return lexicon;
+    }
+
+    @Override
+    public Set<String> getPinyins() {
+        ByteBuffer buffer = this.buffer;
+        Set<String> pinyins = new HashSet<>();
+        for (int slot = 0; slot < this.pinyinCount; ++slot) {
+            pinyins.add(this.string(buffer, buffer.getInt(this.slotsPosition + slot * SLOT_SIZE)));
+        }
+        return Collections.unmodifiableSet(pinyins);
+    }
+
+    /**
+     * Find the slot of a pinyin.
+     *
+     * @return Slot of the pinyin, {@code -1} if the pinyin is out of the lexicon.
+     */
+    private int find(@Nullable ByteBuffer buffer, @NotNull String pinyin) {
+        if (buffer == null || this.pinyinCount == 0) {
+            return -1;
+        }
+        byte[] bytes = pinyin.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes, this.seed);
+        int displacement = buffer.getInt(this.bucketsPosition + 4 * bucket(hash, this.bucketCount));
+        int slot = slot(hash, displacement, this.pinyinCount);
+        return this.equals(buffer, buffer.getInt(this.slotsPosition + slot * SLOT_SIZE), bytes) ? slot : -1;
+    }
+
+    private boolean equals(ByteBuffer buffer, int id, byte[] bytes) {
+        int start = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * id);
+        int end = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * (id + 1));
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(ByteBuffer buffer, int id) {
+        int start = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * id);
+        int end = this.blobPosition + buffer.getInt(this.offsetsPosition + 4 * (id + 1));
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long hash(byte[] bytes, int seed) {
+        // FNV-1a, seeded
+        long hash = 0xCBF29CE484222325L ^ seed;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    private static int bucket(long hash, int buckets) {
+        // FNV-1a spreads similar keys poorly in its low bits, and slots mix the hash the other way round
+        return (int) Long.remainderUnsigned(mix(~hash), buckets);
+    }
+
+    private static int slot(long hash, int displacement, int slots) {
+        if (displacement < 0) {
+            return -displacement - 1;
+        }
+        return (int) Long.remainderUnsigned(mix(hash + displacement * 0x9E3779B97F4A7C15L), slots);
+    }
+
+    /**
+     * Build a lexicon file of the format of this model.<br/>
+     * The file is replaced atomically, so a lexicon that is still mapped from the target is never truncated.
+     *
+     * @param file    Target file.
+     * @param lexicon Candidates and scores of every pinyin, candidates of non-positive scores are dropped.
+     */
+    public static void write(@NotNull File file, @NotNull Map<String, Map<String, Float>> lexicon) throws IOException {
+        String[] pinyins = lexicon.keySet().toArray(new String[0]);
+        Arrays.sort(pinyins);
+        int n = pinyins.length;
+        byte[][] keys = new byte[n][];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = pinyins[i].getBytes(StandardCharsets.UTF_8);
+        }
+        int buckets = Math.max(1, (n + BUCKET_LOAD - 1) / BUCKET_LOAD);
+        int[] displacements = new int[buckets];
+        int[] slots = new int[n];
+        int seed = 0;
+        while (!place(keys, seed, displacements, slots)) {
+            ++seed;
+        }
+
+        // pinyin strings come first in the string table, in the order of their slots
+        List<byte[]> strings = new ArrayList<>(n);
+        String[] bySlot = new String[n];
+        for (int i = 0; i < n; ++i) {
+            bySlot[slots[i]] = pinyins[i];
+        }
+        for (String pinyin : bySlot) {
+            strings.add(pinyin.getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, Integer> ids = new HashMap<>();
+        List<List<Map.Entry<String, Float>>> records = new ArrayList<>(n);
+        long recordCount = 0;
+        for (String pinyin : bySlot) {
+            List<Map.Entry<String, Float>> ranked = new ArrayList<>();
+            for (Map.Entry<String, Float> entry : lexicon.get(pinyin).entrySet()) {
+                if (entry.getValue() > 0) {
+                    ranked.add(entry);
+                }
+            }
+            ranked.sort(Map.Entry.<String, Float>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+            for (Map.Entry<String, Float> entry : ranked) {
+                if (!ids.containsKey(entry.getKey())) {
+                    ids.put(entry.getKey(), strings.size());
+                    strings.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            recordCount += ranked.size();
+            records.add(ranked);
+        }
+        long blobSize = 0;
+        for (byte[] string : strings) {
+            blobSize += string.length;
+        }
+        long offsetsPosition = HEADER_SIZE;
+        long bucketsPosition = offsetsPosition + 4L * (strings.size() + 1) + blobSize;
+        long slotsPosition = bucketsPosition + 4L * buckets;
+        long recordsPosition = slotsPosition + (long) SLOT_SIZE * n;
+        if (recordsPosition + RECORD_SIZE * recordCount > Integer.MAX_VALUE) {
+            throw new IOException("Lexicon is too large to be mapped");
+        }
+
+        int finalSeed = seed;
+        AtomicFile.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(strings.size());
+            out.writeInt(n);
+            out.writeInt(buckets);
+            out.writeInt(finalSeed);
+            out.writeLong(offsetsPosition);
+            out.writeLong(bucketsPosition);
+            out.writeLong(slotsPosition);
+            int offset = 0;
+            for (byte[] string : strings) {
+                out.writeInt(offset);
+                offset += string.length;
+            }
+            out.writeInt(offset);
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+            for (int displacement : displacements) {
+                out.writeInt(displacement);
+            }
+            long position = recordsPosition;
+            for (int slot = 0; slot < n; ++slot) {
+                out.writeInt(slot);
+                out.writeInt(records.get(slot).size());
+                out.writeLong(position);
+                position += (long) RECORD_SIZE * records.get(slot).size();
+            }
+            for (List<Map.Entry<String, Float>> ranked : records) {
+                for (Map.Entry<String, Float> entry : ranked) {
+                    out.writeInt(ids.get(entry.getKey()));
+                    out.writeFloat(entry.getValue());
+                }
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * Search a displacement for every bucket, the largest buckets first,
+     * so that the keys of every bucket land in free slots. Buckets of a single key take the first free slot.
+     *
+     * @return {@code false} if some keys collide in the hash of the seed.
+     */
+    private static boolean place(byte[][] keys, int seed, int[] displacements, int[] slots) {
+        int n = keys.length;
+        int buckets = displacements.length;
+        long[] hashes = new long[n];
+        int[] of = new int[n];
+        // keys grouped by bucket, the keys of bucket b are members[starts[b], starts[b + 1])
+        int[] starts = new int[buckets + 1];
+        for (int i = 0; i < n; ++i) {
+            hashes[i] = hash(keys[i], seed);
+            of[i] = bucket(hashes[i], buckets);
+            ++starts[of[i] + 1];
+        }
+        // keys of the same hash never land in different slots
+        long[] sorted = hashes.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < n; ++i) {
+            if (sorted[i] == sorted[i - 1]) {
+                return false;
+            }
+        }
+        int largest = 0;
+        for (int b = 0; b < buckets; ++b) {
+            largest = Math.max(largest, starts[b + 1]);
+            starts[b + 1] += starts[b];
+        }
+        int[] members = new int[n];
+        int[] filled = Arrays.copyOf(starts, buckets);
+        for (int i = 0; i < n; ++i) {
+            members[filled[of[i]]++] = i;
+        }
+        // buckets in descending order of size, by counting sort
+        int[] bySize = new int[largest + 2];
+        for (int b = 0; b < buckets; ++b) {
+            ++bySize[largest - (starts[b + 1] - starts[b]) + 1];
+        }
+        for (int size = 0; size <= largest; ++size) {
+            bySize[size + 1] += bySize[size];
+        }
+        int[] order = new int[buckets];
+        for (int b = 0; b < buckets; ++b) {
+            order[bySize[largest - (starts[b + 1] - starts[b])]++] = b;
+        }
+
+        boolean[] taken = new boolean[n];
+        int[] trial = new int[Math.max(largest, 1)];
+        int free = 0;
+        for (int b : order) {
+            int from = starts[b], size = starts[b + 1] - from;
+            if (size == 0) {
+                break;
+            }
+            if (size == 1) {
+                // searching a displacement for the last free slots is slow, so single keys name their slot instead
+                while (taken[free]) {
+                    ++free;
+                }
+                taken[free] = true;
+                slots[members[from]] = free;
+                displacements[b] = -free - 1;
+                continue;
+            }
+            int displacement = 0;
+            while (!fits(members, from, size, hashes, displacement, taken, trial)) {
+                ++displacement;
+            }
+            displacements[b] = displacement;
+            for (int j = 0; j < size; ++j) {
+                taken[trial[j]] = true;
+                slots[members[from + j]] = trial[j];
+            }
+        }
+        return true;
+    }
+
+    private static boolean fits(int[] members, int from, int size, long[] hashes, int displacement,
+                                boolean[] taken, int[] trial) {
+        for (int j = 0; j < size; ++j) {
+            int slot = slot(hashes[members[from + j]], displacement, taken.length);
+            if (taken[slot]) {
+                return false;
+            }
+            for (int k = 0; k < j; ++k) {
+                if (trial[k] == slot) {
+                    return false;
+                }
+            }
+            trial[j] = slot;
+        }
+        return true;
+    }
+}
@@ -4,24 +4,36 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import cool.muyucloud.graime.annotation.ImplementedProducer;
+import cool.muyucloud.graime.util.AtomicFile;
 import cool.muyucloud.graime.util.BiType;
 import cool.muyucloud.graime.util.Clock;
+import cool.muyucloud.graime.util.SymbolTable;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystemException;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 @ImplementedProducer("default")
 public class TimeWeightedDictionModel extends ScoreProducer implements LexiconObtainable {
     private static final Gson GSON = new Gson();
+    /* Fixed origin of the level domain, 2024-01-01T00:00:00Z */
+    static final long EPOCH = 1704067200000L;
+    private static final double DAY = 86400000D;
+    private static final double LN2 = Math.log(2);
 
-    private Map<String, Map<String, BiType<Float, Long>>> map;
-    private boolean dirty;
+    /* package-private so that other persistence formats in this package can fill them */
+    Map<String, RecordTable> map;
+    SymbolTable candidates;
+    /* pinyin table shared with other models, null unless the symbols are shared, see shareSymbols */
+    @Nullable SymbolTable pinyins;
+    /* whether new records are compact, see RecordTable */
+    boolean compact;
+    boolean dirty;
 
     public TimeWeightedDictionModel() {
         super();
@@ -46,25 +58,15 @@ public class TimeWeightedDictionModel extends ScoreProducer implements LexiconOb
     @Override
     protected void create() {
         this.map = new HashMap<>();
+        this.candidates = new SymbolTable();
     }
 
     @Override
     public void load(@NotNull File file) {
         try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
             this.map = new HashMap<>();
-            JsonObject map = GSON.fromJson(reader, JsonObject.class);
-            for (Map.Entry<String, JsonElement> entry : map.entrySet()) {
-                String pinyin = entry.getKey();
-                JsonObject candidatesRaw = entry.getValue().getAsJsonObject();
-                Map<String, BiType<Float, Long>> candidates = new HashMap<>();
-                for (Map.Entry<String, JsonElement> record : candidatesRaw.entrySet()) {
-                    String candidate = record.getKey();
-                    JsonArray biTypeRaw = record.getValue().getAsJsonArray();
-                    BiType<Float, Long> biType = new BiType<>(biTypeRaw.get(0).getAsFloat(), biTypeRaw.get(1).getAsLong());
-                    candidates.put(candidate, biType);
-                }
-                this.map.put(pinyin, candidates);
-            }
+            this.candidates = new SymbolTable();
+            this.readRecords(GSON.fromJson(reader, JsonObject.class), this.map);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -72,6 +74,28 @@ public class TimeWeightedDictionModel extends ScoreProducer implements LexiconOb
         this.dirty = false;
     }
 
+    /**
+     * Read records in the JSON format of this model, {@code {pinyin: {candidate: [score, time]}}}.
+     *
+     * @param raw Records in JSON.
+     * @param map Map to put the records into, keyed by pinyin.
+     */
+    void readRecords(@NotNull JsonObject raw, @NotNull Map<String, RecordTable> map) {
+        for (Map.Entry<String, JsonElement> entry : raw.entrySet()) {
+            String pinyin = entry.getKey();
+            JsonObject candidatesRaw = entry.getValue().getAsJsonObject();
+            RecordTable records = this.newRecords(candidatesRaw.size());
+            for (Map.Entry<String, JsonElement> record : candidatesRaw.entrySet()) {
+                int id = this.candidates.intern(record.getKey());
+                JsonArray recordRaw = record.getValue().getAsJsonArray();
+                long time = recordRaw.get(1).getAsLong();
+                records.add(id, toLevel(recordRaw.get(0).getAsFloat(), time), time);
+            }
+            records.sort();
+            map.put(pinyin, records);
+        }
+    }
+
     @Override
     public void dump(@NotNull Path path) {
         this.dump(path.resolve(this.getIdentifier() + POST_FIX).toFile());
@@ -80,90 +104,265 @@ public class TimeWeightedDictionModel extends ScoreProducer implements LexiconOb
     @Override
     public void dump(@NotNull File file) {
         try {
-            if (!file.exists()) {
-                if (!file.createNewFile()) {
-                    throw new FileSystemException("Failed to create file.");
-                }
-            }
-            StringBuilder builder = new StringBuilder("{");
-            for (Map.Entry<String, Map<String, BiType<Float, Long>>> entry : this.map.entrySet()) {
-                String pinyin = entry.getKey();
-                Map<String, BiType<Float, Long>> candidates = entry.getValue();
-                builder.append('"').append(pinyin).append("\":{");
-                for (Map.Entry<String, BiType<Float, Long>> record : candidates.entrySet()) {
-                    String candidate = record.getKey();
-                    Float score = record.getValue().getA();
-                    Long time = record.getValue().getB();
-                    builder.append('"').append(candidate)
-                        .append("\":[")
-                        .append(score).append(',').append(time)
-                        .append("],");
-                }
-                // remove redundant ','
-                int len = builder.length();
-                builder.deleteCharAt(len - 1);
-                builder.append("},");
-            }
-            // remove redundant ','
-            int len = builder.length();
-            builder.deleteCharAt(len - 1);
-            builder.append('}');
-            // start dump
-            Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
-            writer.write(builder.toString());
-            writer.close();
+            this.materialize();
+            AtomicFile.write(file, out -> {
+                JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                this.writeRecords(writer, this.map);
+                writer.flush();
+            });
+            this.dirty = false;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Write records in the JSON format of this model, see {@code TimeWeightedDictionModel::readRecords}.
+     */
+    void writeRecords(@NotNull JsonWriter writer, @NotNull Map<String, RecordTable> map) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, RecordTable> entry : map.entrySet()) {
+            RecordTable records = entry.getValue();
+            writer.name(entry.getKey()).beginObject();
+            for (int i = 0; i < records.size(); ++i) {
+                long time = records.time(i);
+                writer.name(this.candidates.get(records.id(i)))
+                    .beginArray()
+                    .value(toScore(records.level(i), time))
+                    .value(time)
+                    .endArray();
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
     @Override
     public @NotNull Map<String, Float> getScores(@NotNull String pinyin) {
-        Map<String, BiType<Float, Long>> candidates = this.map.getOrDefault(pinyin, new HashMap<>());
-        this.map.put(pinyin, candidates);
+        RecordTable records = this.records(pinyin);
         Map<String, Float> scores = new HashMap<>();
-        for (Map.Entry<String, BiType<Float, Long>> entry : candidates.entrySet()) {
-            String candidate = entry.getKey();
-            BiType<Float, Long> record = entry.getValue();
-            Long time = record.getB();
-            Long thisTime = Clock.getTime();
-            Float score = this.timeFade(record.getA(), time);
-            record.setA(score);
-            record.setB(thisTime);
-            scores.put(candidate, score);
+        if (records == null) {
+            return scores;
+        }
+        long now = Clock.getTime();
+        for (int i = 0; i < records.size(); ++i) {
+            scores.put(this.candidates.get(records.id(i)), toScore(records.level(i), now));
         }
-        this.dirty = true;
         return scores;
     }
 
     @Override
-    public void update(@NotNull String pinyin, @NotNull String selection) {
-        this.dirty = true;
-        Map<String, BiType<Float, Long>> candidates = this.map.getOrDefault(pinyin, new HashMap<>());
-        this.map.put(pinyin, candidates);
-        BiType<Float, Long> record = candidates.getOrDefault(selection, new BiType<>(0.7F, Clock.getTime()));
-        Long time = record.getB();
-        float score = this.timeFade(record.getA(), time);
-        record.setA(this.feedback(score));
-        record.setB(Clock.getTime());
-        candidates.put(selection, record);
+    public @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k) {
+        RecordTable records = this.records(pinyin);
+        if (records == null || k <= 0) {
+            return new ArrayList<>();
+        }
+        long now = Clock.getTime();
+        int size = Math.min(k, records.size());
+        List<BiType<String, Float>> ranked = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            ranked.add(new BiType<>(this.candidates.get(records.id(i)), toScore(records.level(i), now)));
+        }
+        return ranked;
+    }
+
+    @Override
+    public float getScore(@NotNull String pinyin, @NotNull String candidate) {
+        RecordTable records = this.records(pinyin);
+        int id = this.candidates.find(candidate);
+        if (records == null || id < 0) {
+            return 0F;
+        }
+        int i = records.indexOf(id);
+        return i < 0 ? 0F : toScore(records.level(i), Clock.getTime());
+    }
+
+    @Override
+    public void update(@NotNull String pinyin, @NotNull String selection, long time) {
+        apply(this.recordsOrCreate(pinyin), this.candidates.intern(selection), time);
         this.dirty = true;
     }
 
+    /**
+     * Group the selections by pinyin, then apply each group to its records in one pass.<br/>
+     * Candidates are interned and record tables are created in the order of the events beforehand,
+     * so groups only touch their own records and may be applied in parallel,
+     * while the model ends up exactly the same as updating the selections one by one.
+     */
+    @Override
+    public void updateBatch(@NotNull List<UpdateEvent> events, boolean parallel) {
+        Map<String, Batch> batches = new LinkedHashMap<>();
+        for (UpdateEvent event : events) {
+            Batch batch = batches.get(event.getPinyin());
+            if (batch == null) {
+                batch = new Batch(this.recordsOrCreate(event.getPinyin()));
+                batches.put(event.getPinyin(), batch);
+            }
+            batch.add(this.candidates.intern(event.getSelection()), event.getTime());
+        }
+        if (parallel && batches.size() > 1) {
+            batches.values().parallelStream().forEach(Batch::apply);
+        } else {
+            batches.values().forEach(Batch::apply);
+        }
+        if (!events.isEmpty()) {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Get the records of a pinyin, created empty if the pinyin is unknown.
+     */
+    @NotNull RecordTable recordsOrCreate(@NotNull String pinyin) {
+        RecordTable records = this.records(pinyin);
+        if (records == null) {
+            records = this.newRecords(0);
+            this.map.put(this.key(pinyin), records);
+        }
+        return records;
+    }
+
+    /**
+     * Create an empty record table in the encoding of this model.
+     */
+    @NotNull RecordTable newRecords(int capacity) {
+        return new RecordTable(capacity, this.compact);
+    }
+
+    /**
+     * Keep records in a compact encoding of 16-bit log-scale scores and minute timestamps,
+     * which cuts the heap usage of records by more than a third at the cost of a tiny loss in score precision,
+     * see {@code RecordTable}. Existing records are converted, and so are records created afterwards.<br/>
+     * Persistence formats keep whatever precision they have, {@code CompactDictionModel} persists compact records.
+     *
+     * @param compact Whether to keep records compact, {@code false} to go back to full precision.
+     */
+    public void setCompact(boolean compact) {
+        this.materialize();
+        this.compact = compact;
+        for (Map.Entry<String, RecordTable> entry : this.map.entrySet()) {
+            entry.setValue(entry.getValue().convert(compact));
+        }
+    }
+
+    public boolean isCompact() {
+        return this.compact;
+    }
+
+    /**
+     * The instance of a pinyin to key the records by, the one of the shared pinyin table if any.
+     */
+    @NotNull String key(@NotNull String pinyin) {
+        SymbolTable pinyins = this.pinyins;
+        return pinyins == null ? pinyin : Objects.requireNonNull(pinyins.get(pinyins.intern(pinyin)));
+    }
+
+    /**
+     * Move the candidates of this model into a symbol table shared with other models,
+     * and key the records by the pinyin instances of a shared pinyin table,
+     * so that every string is kept once on heap however many models hold it.<br/>
+     * Ids of shared tables are never persisted, model files keep their own strings and stay loadable on their own.
+     *
+     * @param candidates Shared candidate table, the model interns its candidates into it.
+     * @param pinyins    Shared pinyin table, the model interns its pinyin into it.
+     */
+    public void shareSymbols(@NotNull SymbolTable candidates, @NotNull SymbolTable pinyins) {
+        if (this.candidates == candidates && this.pinyins == pinyins) {
+            return;
+        }
+        int[] translation = new int[this.candidates.size()];
+        for (int id = 0; id < translation.length; ++id) {
+            translation[id] = candidates.intern(Objects.requireNonNull(this.candidates.get(id)));
+        }
+        Map<String, RecordTable> map = new HashMap<>();
+        this.pinyins = pinyins;
+        for (Map.Entry<String, RecordTable> entry : this.map.entrySet()) {
+            entry.getValue().remap(translation);
+            map.put(this.key(entry.getKey()), entry.getValue());
+        }
+        this.map = map;
+        this.candidates = candidates;
+        this.remapSymbols(translation);
+    }
+
+    /**
+     * Called once the candidates are moved into a shared table, for subclasses holding candidate ids of their own.
+     *
+     * @param translation Shared id of every former candidate id.
+     */
+    void remapSymbols(int @NotNull [] translation) {
+    }
+
+    /**
+     * Feed a selection back to the records of its pinyin.
+     */
+    static void apply(@NotNull RecordTable records, int id, long time) {
+        int i = records.indexOf(id);
+        float score = i < 0 ? 0.7F : toScore(records.level(i), time);
+        float level = toLevel(feedback(score), time);
+        if (i < 0) {
+            i = records.add(id, level, time);
+        } else {
+            records.set(i, level, time);
+        }
+        records.reposition(i);
+    }
+
+    /**
+     * Selections of a single pinyin in a batch, in the order they are made.
+     */
+    private static class Batch {
+        private final @NotNull RecordTable records;
+        private int[] ids = new int[4];
+        private long[] times = new long[4];
+        private int size = 0;
+
+        private Batch(@NotNull RecordTable records) {
+            this.records = records;
+        }
+
+        private void add(int id, long time) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+                this.times = Arrays.copyOf(this.times, this.size * 2);
+            }
+            this.ids[this.size] = id;
+            this.times[this.size] = time;
+            ++this.size;
+        }
+
+        private void apply() {
+            for (int i = 0; i < this.size; ++i) {
+                TimeWeightedDictionModel.apply(this.records, this.ids[i], this.times[i]);
+            }
+        }
+    }
+
+    /**
+     * Create an empty model of the runtime type in the same encoding,
+     * so that a copy or a merge of this model is persisted in the same format.
+     */
+    @NotNull TimeWeightedDictionModel newInstance() {
+        TimeWeightedDictionModel created;
+        try {
+            created = this.getClass().getConstructor().newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        created.compact = this.compact;
+        return created;
+    }
+
     @Override
     public @NotNull ScoreProducer copy() {
-        TimeWeightedDictionModel copied = new TimeWeightedDictionModel();
+        this.materialize();
+        TimeWeightedDictionModel copied = this.newInstance();
         copied.dirty = true;
-        for (Map.Entry<String, Map<String, BiType<Float, Long>>> entry : this.map.entrySet()) {
-            String pinyin = entry.getKey();
-            Map<String, BiType<Float, Long>> candidates = entry.getValue();
-            Map<String, BiType<Float, Long>> thatCandidates = new HashMap<>();
-            for (Map.Entry<String, BiType<Float, Long>> record : candidates.entrySet()) {
-                String candidate = record.getKey();
-                float score = record.getValue().getA();
-                thatCandidates.put(candidate, new BiType<>(score, Clock.getTime()));
-            }
-            copied.map.put(pinyin, thatCandidates);
+        // ids of shared tables are the same in every model, so the copy keeps sharing them
+        copied.candidates = this.pinyins == null ? this.candidates.copy() : this.candidates;
+        copied.pinyins = this.pinyins;
+        for (Map.Entry<String, RecordTable> entry : this.map.entrySet()) {
+            copied.map.put(entry.getKey(), entry.getValue().copy());
         }
         return copied;
     }
@@ -171,33 +370,26 @@ public class TimeWeightedDictionModel extends ScoreProducer implements LexiconOb
     @Override
     public @NotNull ScoreProducer mergeWith(@NotNull ScoreProducer producer, float weight) throws ClassCastException {
         if (this.canOneWayMergeWith(producer)) {
-            return this.mergeWithLexicon((LexiconObtainable) producer, weight);
+            return this.mergeWithLexicon(producer, weight);
         } else if (producer.canOneWayMergeWith(this)) {
             return producer.mergeWith(this, 1 - weight);
         } else {
-            throw new ClassCastException("Merge option cannot be applied between StaticDictionModel and " + producer);
+            throw new ClassCastException("Merge option cannot be applied between %s and %s"
+                .formatted(this.getIdentifier(), producer.getIdentifier()));
         }
     }
 
-    private @NotNull TimeWeightedDictionModel mergeWithLexicon(@NotNull LexiconObtainable producer, float weight) throws ClassCastException {
-        TimeWeightedDictionModel mergedProducer = (TimeWeightedDictionModel) this.copy();
-        Map<String, Map<String, BiType<Float, Long>>> merged = mergedProducer.map;
-        for (Map.Entry<String, Map<String, Float>> entry : producer.getLexicon().entrySet()) {
-            String pinyin = entry.getKey();
-            Map<String, Float> candidates = entry.getValue();
-            Map<String, BiType<Float, Long>> mergedCandidates = merged.getOrDefault(pinyin, new HashMap<>());
-            for (Map.Entry<String, Float> candidatesEntry : candidates.entrySet()) {
-                String candidate = candidatesEntry.getKey();
-                Float score = candidatesEntry.getValue();
-                BiType<Float, Long> mergedRecord = mergedCandidates.getOrDefault(candidate, new BiType<>(0F, Clock.getTime()));
-                Float mergedScore = mergedRecord.getA();
-                mergedScore = score * weight + mergedScore * (1 - weight);
-                mergedRecord.setA(mergedScore);
-                mergedCandidates.put(candidate, mergedRecord);
-            }
-            merged.put(pinyin, mergedCandidates);
-        }
-        return mergedProducer;
+    /**
+     * Weighted sum of the scores of both models, a model that does not know a candidate counts as {@code 0},
+     * the same as {@code ModelMerger}, see {@code ScoreProducer::mergeWith}.
+     *
+     * @param weight Weight of the producer, this model gets the rest.
+     */
+    private @NotNull TimeWeightedDictionModel mergeWithLexicon(@NotNull ScoreProducer producer, float weight) {
+        List<ScoreProducer> producers = List.of(this, producer);
+        int pinyins = this.getPinyins().size() + ((LexiconObtainable) producer).getPinyins().size();
+        return ModelMerger.merge(producers, new float[]{1 - weight, weight},
+            pinyins >= ModelMerger.PARALLEL_THRESHOLD, this.newInstance());
     }
 
     @Override
@@ -212,26 +404,95 @@ public class TimeWeightedDictionModel extends ScoreProducer implements LexiconOb
 
     @Override
     public Map<String, Map<String, Float>> getLexicon() {
+        this.materialize();
         Map<String, Map<String, Float>> lexicon = new HashMap<>();
-        for (Map.Entry<String, Map<String, BiType<Float, Long>>> entry : this.map.entrySet()) {
+        long now = Clock.getTime();
+        for (Map.Entry<String, RecordTable> entry : this.map.entrySet()) {
             String pinyin = entry.getKey();
-            Map<String, BiType<Float, Long>> candidates = entry.getValue();
+            RecordTable records = entry.getValue();
             Map<String, Float> thatCandidates = new HashMap<>();
-            for (Map.Entry<String, BiType<Float, Long>> record : candidates.entrySet()) {
-                String candidate = record.getKey();
-                float score = record.getValue().getA();
-                thatCandidates.put(candidate, score);
+            for (int i = 0; i < records.size(); ++i) {
+                thatCandidates.put(this.candidates.get(records.id(i)), toScore(records.level(i), now));
             }
             lexicon.put(pinyin, thatCandidates);
         }
         return lexicon;
     }
 
-    private float timeFade(float score, long time) {
-        return (float) (score * Math.pow(2, - (double) (Clock.getTime() - time) / 86400000));
+    @Override
+    public Set<String> getPinyins() {
+        return Collections.unmodifiableSet(this.map.keySet());
+    }
+
+    /**
+     * Estimated heap usage of the records of this model loaded on heap, pinyin and candidate strings excluded.
+     */
+    @Override
+    public long estimateBytes() {
+        // shared tables are counted once by their owner
+        long bytes = this.pinyins == null ? this.candidates.estimateBytes() : 0;
+        for (RecordTable records : this.map.values()) {
+            // hash map node and the table itself
+            bytes += 32L + records.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the records of a pinyin.
+     *
+     * @param pinyin Pinyin input.
+     * @return Records of the pinyin, {@code null} if the pinyin is unknown.
+     */
+    @Nullable RecordTable records(@NotNull String pinyin) {
+        return this.map.get(pinyin);
+    }
+
+    /**
+     * Make sure every record is present in {@code map}, before the whole model is iterated.<br/>
+     * Formats that decode records lazily should decode the rest of them here.
+     */
+    void materialize() {
+    }
+
+    /**
+     * Replace the records of this model with a full copy of another one.
+     *
+     * @param model Model to copy from, which may be of another persistence format.
+     */
+    void assign(@NotNull TimeWeightedDictionModel model) {
+        TimeWeightedDictionModel copied = (TimeWeightedDictionModel) model.copy();
+        this.map = copied.map;
+        this.candidates = copied.candidates;
+        this.setCompact(this.compact);
+        this.dirty = true;
+    }
+
+    /**
+     * Convert a score observed at a specific time into the level domain.<br/>
+     * A score halves every day, so {@code log2(score) + days since epoch} stays constant as time goes by,
+     * which lets records be ranked and stored without rewriting them on every query.
+     *
+     * @param score Score observed at {@code time}.
+     * @param time  Timestamp of the observation.
+     * @return Level of the record.
+     */
+    static float toLevel(float score, long time) {
+        return (float) (Math.log(score) / LN2 + (time - EPOCH) / DAY);
+    }
+
+    /**
+     * Time-fade a level into the score observed at a specific time.
+     *
+     * @param level Level of the record.
+     * @param time  Timestamp to observe the score.
+     * @return Time-weighted score.
+     */
+    static float toScore(float level, long time) {
+        return (float) Math.exp((level - (time - EPOCH) / DAY) * LN2);
     }
 
-    private float feedback(float score) {
+    private static float feedback(float score) {
         return (float) Math.sin(Math.PI * score / 2);
     }
 }
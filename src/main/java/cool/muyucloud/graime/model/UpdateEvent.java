@@ -0,0 +1,40 @@
+package cool.muyucloud.graime.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A selection made by the user at a specific time, see {@code ScoreProducer::updateBatch}.
+ */
+public final class UpdateEvent {
+    private final @NotNull String pinyin;
+    private final @NotNull String selection;
+    private final long time;
+
+    /**
+     * @param pinyin    Pinyin input by the user.
+     * @param selection Candidate word that is selected by the user.
+     * @param time      Timestamp of the selection.
+     */
+    public UpdateEvent(@NotNull String pinyin, @NotNull String selection, long time) {
+        this.pinyin = pinyin;
+        this.selection = selection;
+        this.time = time;
+    }
+
+    public @NotNull String getPinyin() {
+        return this.pinyin;
+    }
+
+    public @NotNull String getSelection() {
+        return this.selection;
+    }
+
+    public long getTime() {
+        return this.time;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateEvent{" + pinyin + ", " + selection + ", " + time + '}';
+    }
+}
@@ -0,0 +1,85 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Crash-safe file replacement.<br/>
+ * Content is streamed into a temporary file beside the target, forced to the storage,
+ * and then renamed over the target, so readers see either the old file or the complete new one.
+ * The parent directory is forced afterwards, so the rename itself survives a power loss.
+ */
+public class AtomicFile {
+    public static final String TEMP_POST_FIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Content to stream into a file.
+     */
+    @FunctionalInterface
+    public interface Content {
+        void write(@NotNull OutputStream out) throws IOException;
+    }
+
+    /**
+     * Atomically replace the target file with the content.
+     *
+     * @param file    Target file, created if absent.
+     * @param content Content to write through a buffered stream.
+     */
+    public static void write(@NotNull File file, @NotNull Content content) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_POST_FIX);
+        try (FileChannel channel = FileChannel.open(temp,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            content.write(out);
+            out.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        move(temp, target);
+    }
+
+    /**
+     * Atomically rename a file over the target, where the file system supports it,
+     * then force the directory entry to the storage.
+     */
+    public static void move(@NotNull Path source, @NotNull Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(target.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Force the entries of a directory to the storage, no effect on platforms that can not open directories,
+     * such as Windows.
+     */
+    private static void forceDirectory(@Nullable Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // the rename is still atomic, only its durability is up to the file system
+        }
+    }
+}
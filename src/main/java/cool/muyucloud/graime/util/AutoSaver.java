@@ -0,0 +1,193 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background autosave of a SceneTree.<br/>
+ * Dirty scene nodes are dumped on a daemon thread, so saving never stalls input.
+ * Bursts of selections are coalesced: a dump waits until no selection is made for {@code interval},
+ * but a selection never stays unsaved much longer than {@code maxDirtyAge}.
+ * <p>
+ * Policies are set before {@code AutoSaver::start}, flush latencies are in nanoseconds.
+ */
+public class AutoSaver implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL = 2000;
+    public static final long DEFAULT_MAX_DIRTY_AGE = 30000;
+
+    private final @NotNull SceneTree tree;
+    private long interval = DEFAULT_INTERVAL;
+    private long maxDirtyAge = DEFAULT_MAX_DIRTY_AGE;
+    private boolean flushOnShutdown = true;
+    private @Nullable ScheduledExecutorService scheduler = null;
+    private @Nullable Thread shutdownHook = null;
+
+    private volatile long flushCount = 0;
+    private volatile long lastFlushLatency = 0;
+    private volatile long maxFlushLatency = 0;
+    private volatile long totalFlushLatency = 0;
+    private volatile @Nullable RuntimeException lastFailure = null;
+
+    public AutoSaver(@NotNull SceneTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * @param interval Milliseconds without selections before dirty nodes are dumped.
+     */
+    public void setInterval(long interval) {
+        this.checkNotStarted();
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * @param maxDirtyAge Milliseconds after the first unsaved selection to dump even if selections keep coming.
+     */
+    public void setMaxDirtyAge(long maxDirtyAge) {
+        this.checkNotStarted();
+        if (maxDirtyAge <= 0) {
+            throw new IllegalArgumentException("Max dirty age must be positive");
+        }
+        this.maxDirtyAge = maxDirtyAge;
+    }
+
+    /**
+     * @param flushOnShutdown Whether to dump the tree on close and on JVM shutdown, {@code true} by default.
+     */
+    public void setFlushOnShutdown(boolean flushOnShutdown) {
+        this.checkNotStarted();
+        this.flushOnShutdown = flushOnShutdown;
+    }
+
+    /**
+     * Start checking the tree in the background.
+     */
+    public synchronized void start() {
+        this.checkNotStarted();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SceneTree-autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, Math.min(this.interval, this.maxDirtyAge) / 4);
+        scheduler.scheduleWithFixedDelay(this::tick, period, period, TimeUnit.MILLISECONDS);
+        this.scheduler = scheduler;
+        if (this.flushOnShutdown) {
+            this.shutdownHook = new Thread(this::flush, "SceneTree-autosave-shutdown");
+            Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        }
+    }
+
+    /**
+     * Dump the dirty nodes of the tree on the calling thread and record the latency.
+     */
+    public synchronized void flush() {
+        long start = System.nanoTime();
+        try {
+            this.tree.dump();
+        } catch (RuntimeException e) {
+            this.lastFailure = e;
+            throw e;
+        }
+        long latency = System.nanoTime() - start;
+        this.lastFlushLatency = latency;
+        this.maxFlushLatency = Math.max(this.maxFlushLatency, latency);
+        this.totalFlushLatency += latency;
+        ++this.flushCount;
+    }
+
+    /**
+     * Stop the background checks, then dump the tree if {@code flushOnShutdown} is set.<br/>
+     * The scheduler is awaited without holding the monitor, since a running check may be flushing.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService scheduler;
+        Thread shutdownHook;
+        synchronized (this) {
+            scheduler = this.scheduler;
+            shutdownHook = this.shutdownHook;
+            this.scheduler = null;
+            this.shutdownHook = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // the JVM is shutting down already and the hook is running
+            }
+        }
+        if (this.flushOnShutdown) {
+            this.flush();
+        }
+    }
+
+    private void tick() {
+        long dirtySince = this.tree.getDirtySince();
+        if (dirtySince == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean quiet = now - this.tree.getLastModified() >= TimeUnit.MILLISECONDS.toNanos(this.interval);
+        boolean old = now - dirtySince >= TimeUnit.MILLISECONDS.toNanos(this.maxDirtyAge);
+        if (quiet || old) {
+            try {
+                this.flush();
+            } catch (RuntimeException ignored) {
+                // kept in lastFailure, the failed nodes are dumped again on the next tick
+            }
+        }
+    }
+
+    private void checkNotStarted() {
+        if (this.scheduler != null) {
+            throw new IllegalStateException("AutoSaver is already started");
+        }
+    }
+
+    /**
+     * Amount of scene nodes waiting to be dumped.
+     */
+    public int getPendingNodes() {
+        return this.tree.countDirty();
+    }
+
+    public long getFlushCount() {
+        return this.flushCount;
+    }
+
+    public long getLastFlushLatency() {
+        return this.lastFlushLatency;
+    }
+
+    public long getMaxFlushLatency() {
+        return this.maxFlushLatency;
+    }
+
+    public long getAverageFlushLatency() {
+        long count = this.flushCount;
+        return count == 0 ? 0 : this.totalFlushLatency / count;
+    }
+
+    /**
+     * The exception thrown by the last failed dump, {@code null} if every dump succeeded.
+     */
+    public @Nullable RuntimeException getLastFailure() {
+        return this.lastFailure;
+    }
+}
@@ -4,6 +4,17 @@ import java.util.Date;
 
 public class Clock {
     private static long OFFSET = 0;
+    /* time the clock is frozen at, -1 to follow the system clock */
+    private static long FROZEN = -1;
+
+    /**
+     * Stop following the system clock, so that only {@code Clock::forward} moves the time.
+     *
+     * @param time Timestamp to freeze at.
+     */
+    public static void freeze(long time) {
+        FROZEN = time;
+    }
 
     public static void forward(Number number) {
         OFFSET += number.longValue();
@@ -11,9 +22,10 @@ public class Clock {
 
     public static void reset() {
         OFFSET = 0;
+        FROZEN = -1;
     }
 
     public static long getTime() {
-        return new Date().getTime() + OFFSET;
+        return (FROZEN < 0 ? new Date().getTime() : FROZEN) + OFFSET;
     }
 }
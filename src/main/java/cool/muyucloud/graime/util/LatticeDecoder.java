@@ -0,0 +1,265 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Convert a sequence of syllables into whole sentences that no single lexicon key covers.<br/>
+ * Every span of up to {@code maxWordSyllables} syllables is looked up as an apostrophe-joined key,
+ * and its best candidates form the edges of a lattice over syllable positions.
+ * A beam Viterbi pass keeps the best partial sentences ending at every position,
+ * scored by the sum of the log scores of their words and a penalty per word, so sentences of fewer, likelier words
+ * rank first.
+ * A syllable no key covers is kept as is, with a penalty, so a sentence always exists.
+ * <p>
+ * Syllables are pushed and popped at the end, see {@code LatticeDecoder::set}, and only the spans ending at a new
+ * syllable are looked up, so a keystroke costs a bounded amount of lookups however long the input is.
+ * Lattice and beam storage is allocated once with the decoder and reused.
+ * Edges are cached until their syllables are popped, call {@code LatticeDecoder::clear} once the source changes.
+ * Decoders are not thread-safe.
+ */
+public class LatticeDecoder {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_BEAM = 8;
+    public static final int DEFAULT_MAX_WORD_SYLLABLES = 6;
+    public static final int DEFAULT_CANDIDATES_PER_SPAN = 4;
+    /* log score of a syllable kept as is */
+    private static final float UNKNOWN = (float) Math.log(1e-6);
+    /* added to every word, since scores are not normalized and may even exceed 1 */
+    private static final float WORD_PENALTY = -1F;
+
+    /**
+     * Source of the candidates of a pinyin key, such as {@code ScoreProducer::topK} or {@code SceneTree::topK}.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @param pinyin Apostrophe-joined pinyin key.
+         * @param k      Maximum amount of candidates to return.
+         * @return Candidate words and their scores, in descending order of score.
+         */
+        @NotNull List<BiType<String, Float>> topK(@NotNull String pinyin, int k);
+    }
+
+    private final @NotNull Source source;
+    private final int capacity;
+    private final int beam;
+    private final int maxWord;
+    private final int perSpan;
+
+    private final String[] syllables;
+    private int length = 0;
+    private final StringBuilder key = new StringBuilder();
+
+    /* candidates of the span (end - span, end), ((end * maxWord) + span - 1) * perSpan + rank */
+    private final String[] edgeWords;
+    private final float[] edgeScores;
+    /* amount of candidates of each span, end * maxWord + span - 1 */
+    private final int[] edgeCounts;
+
+    /* best partial sentences ending at each position, end * beam + rank, in descending order of score */
+    private final float[] scores;
+    private final int[] previous;
+    private final int[] ranks;
+    /* edge of the last word, see edgeWords */
+    private final int[] edges;
+    private final int[] counts;
+
+    public LatticeDecoder(@NotNull Source source) {
+        this(source, DEFAULT_CAPACITY, DEFAULT_BEAM, DEFAULT_MAX_WORD_SYLLABLES, DEFAULT_CANDIDATES_PER_SPAN);
+    }
+
+    /**
+     * @param source            Source of candidates.
+     * @param capacity          Maximum amount of syllables.
+     * @param beam              Amount of partial sentences kept at each position, bounds the sentences to return.
+     * @param maxWordSyllables  Maximum amount of syllables of a word.
+     * @param candidatesPerSpan Amount of candidates of each span to put into the lattice.
+     */
+    public LatticeDecoder(@NotNull Source source, int capacity, int beam, int maxWordSyllables, int candidatesPerSpan) {
+        if (capacity <= 0 || beam <= 0 || maxWordSyllables <= 0 || candidatesPerSpan <= 0) {
+            throw new IllegalArgumentException("Capacity, beam and lattice bounds must be positive");
+        }
+        this.source = source;
+        this.capacity = capacity;
+        this.beam = beam;
+        this.maxWord = maxWordSyllables;
+        this.perSpan = candidatesPerSpan;
+        this.syllables = new String[capacity];
+        this.edgeWords = new String[(capacity + 1) * maxWordSyllables * candidatesPerSpan];
+        this.edgeScores = new float[this.edgeWords.length];
+        this.edgeCounts = new int[(capacity + 1) * maxWordSyllables];
+        this.scores = new float[(capacity + 1) * beam];
+        this.previous = new int[(capacity + 1) * beam];
+        this.ranks = new int[(capacity + 1) * beam];
+        this.edges = new int[(capacity + 1) * beam];
+        this.counts = new int[capacity + 1];
+        this.counts[0] = 1;
+        this.previous[0] = -1;
+    }
+
+    /**
+     * Append a syllable, then look up the spans ending at it and extend the sentences.
+     *
+     * @param syllable A syllable of pinyin.
+     * @return {@code false} if the capacity is reached, in which case nothing is changed.
+     */
+    public boolean push(@NotNull String syllable) {
+        if (this.length >= this.capacity) {
+            return false;
+        }
+        this.syllables[this.length++] = syllable;
+        int end = this.length;
+        this.counts[end] = 0;
+        for (int span = 1; span <= Math.min(this.maxWord, end); ++span) {
+            int from = end - span;
+            int slot = end * this.maxWord + span - 1;
+            this.lookup(from, end, slot);
+            int count = this.edgeCounts[slot];
+            if (count == 0 && span == 1) {
+                // keep the syllable as is
+                this.edgeWords[slot * this.perSpan] = syllable;
+                this.edgeScores[slot * this.perSpan] = UNKNOWN;
+                this.edgeCounts[slot] = count = 1;
+            }
+            for (int c = 0; c < count; ++c) {
+                int edge = slot * this.perSpan + c;
+                for (int rank = 0; rank < this.counts[from]; ++rank) {
+                    this.insert(end, this.scores[from * this.beam + rank] + this.edgeScores[edge], from, rank, edge);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void lookup(int from, int end, int slot) {
+        this.key.setLength(0);
+        for (int i = from; i < end; ++i) {
+            if (i > from) {
+                this.key.append(PinyinTrie.SEPARATOR);
+            }
+            this.key.append(this.syllables[i]);
+        }
+        List<BiType<String, Float>> candidates = this.source.topK(this.key.toString(), this.perSpan);
+        int count = 0;
+        for (BiType<String, Float> candidate : candidates) {
+            if (count >= this.perSpan) {
+                break;
+            }
+            if (candidate.getB() <= 0) {
+                continue;
+            }
+            this.edgeWords[slot * this.perSpan + count] = candidate.getA();
+            this.edgeScores[slot * this.perSpan + count] = (float) Math.log(candidate.getB()) + WORD_PENALTY;
+            ++count;
+        }
+        this.edgeCounts[slot] = count;
+    }
+
+    private void insert(int end, float score, int from, int rank, int edge) {
+        int offset = end * this.beam;
+        int count = this.counts[end];
+        int at = count;
+        while (at > 0 && this.scores[offset + at - 1] < score) {
+            --at;
+        }
+        if (at >= this.beam) {
+            return;
+        }
+        int last = Math.min(count, this.beam - 1);
+        for (int i = last; i > at; --i) {
+            this.scores[offset + i] = this.scores[offset + i - 1];
+            this.previous[offset + i] = this.previous[offset + i - 1];
+            this.ranks[offset + i] = this.ranks[offset + i - 1];
+            this.edges[offset + i] = this.edges[offset + i - 1];
+        }
+        this.scores[offset + at] = score;
+        this.previous[offset + at] = from;
+        this.ranks[offset + at] = rank;
+        this.edges[offset + at] = edge;
+        this.counts[end] = Math.min(count + 1, this.beam);
+    }
+
+    /**
+     * Drop the last syllable, no effect on empty input.
+     */
+    public void pop() {
+        if (this.length > 0) {
+            this.syllables[--this.length] = null;
+        }
+    }
+
+    /**
+     * Drop every syllable, so that edges are looked up again.
+     */
+    public void clear() {
+        while (this.length > 0) {
+            this.pop();
+        }
+    }
+
+    /**
+     * Set the input, keeping the lattice of the syllables it shares with the former input at the start.
+     *
+     * @param pinyin Apostrophe-joined syllables, such as the best splitting of {@code PinyinSegmenter}.
+     * @return {@code false} if the syllables exceed the capacity, in which case the rest of them are dropped.
+     */
+    public boolean set(@NotNull String pinyin) {
+        String[] syllables = pinyin.isEmpty() ? new String[0] : pinyin.split(String.valueOf(PinyinTrie.SEPARATOR));
+        int shared = 0;
+        while (shared < Math.min(this.length, syllables.length) && this.syllables[shared].equals(syllables[shared])) {
+            ++shared;
+        }
+        while (this.length > shared) {
+            this.pop();
+        }
+        for (int i = shared; i < syllables.length; ++i) {
+            if (!this.push(syllables[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Amount of syllables pushed.
+     */
+    public int size() {
+        return this.length;
+    }
+
+    /**
+     * Best conversions of the whole input.
+     *
+     * @param n Maximum amount of sentences to return, bounded by the beam.
+     * @return Sentences and the sum of the penalized log scores of their words, in descending order of score.
+     */
+    public @NotNull List<BiType<String, Float>> decode(int n) {
+        List<BiType<String, Float>> sentences = new ArrayList<>();
+        if (this.length == 0) {
+            return sentences;
+        }
+        Set<String> seen = new HashSet<>();
+        int end = this.length;
+        for (int rank = 0; rank < this.counts[end] && sentences.size() < n; ++rank) {
+            String sentence = this.trace(end, rank);
+            // different splittings of the same sentence rank by the best of them
+            if (seen.add(sentence)) {
+                sentences.add(new BiType<>(sentence, this.scores[end * this.beam + rank]));
+            }
+        }
+        return sentences;
+    }
+
+    private String trace(int end, int rank) {
+        Deque<String> words = new ArrayDeque<>();
+        while (end > 0) {
+            int at = end * this.beam + rank;
+            words.push(this.edgeWords[this.edges[at]]);
+            end = this.previous[at];
+            rank = this.ranks[at];
+        }
+        return String.join("", words);
+    }
+}
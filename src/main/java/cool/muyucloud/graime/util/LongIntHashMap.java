@@ -0,0 +1,134 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from non-negative long keys to non-negative int values, with linear probing.<br/>
+ * Keys and values are kept in two flat arrays, so a lookup boxes nothing and touches at most a few slots.
+ * Entries can not be removed, which is all that dictionaries growing by selections need.
+ */
+public class LongIntHashMap {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected Expected amount of entries, the map grows beyond it anyway.
+     */
+    public LongIntHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.values = new int[capacity];
+    }
+
+    /**
+     * Pack two non-negative ints into a key.
+     */
+    public static long pack(int high, int low) {
+        return (long) high << 32 | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key Non-negative key.
+     * @return Value of the key, {@code -1} if absent.
+     */
+    public int get(long key) {
+        int mask = this.keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long slot = this.keys[i];
+            if (slot == key) {
+                return this.values[i];
+            }
+            if (slot == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Put a value of a key, replacing the former one.
+     *
+     * @param key   Non-negative key.
+     * @param value Non-negative value.
+     */
+    public void put(long key, int value) {
+        if (key < 0 || value < 0) {
+            throw new IllegalArgumentException("Keys and values must not be negative");
+        }
+        int mask = this.keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long slot = this.keys[i];
+            if (slot == key) {
+                this.values[i] = value;
+                return;
+            }
+            if (slot == EMPTY) {
+                this.keys[i] = key;
+                this.values[i] = value;
+                if (++this.size * 2 > this.keys.length) {
+                    this.rehash(this.keys.length * 2);
+                }
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Fully copy the map.
+     *
+     * @return A copied map that would no longer bring changes on the original one.
+     */
+    public @NotNull LongIntHashMap copy() {
+        LongIntHashMap copied = new LongIntHashMap();
+        copied.keys = this.keys.clone();
+        copied.values = this.values.clone();
+        copied.size = this.size;
+        return copied;
+    }
+
+    /**
+     * Estimated heap usage of the map.
+     */
+    public long estimateBytes() {
+        return 16L + 8L * this.keys.length + 4L * this.values.length;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        int[] values = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < this.keys.length; ++j) {
+            long key = this.keys[j];
+            if (key == EMPTY) {
+                continue;
+            }
+            int i = mix(key) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = this.values[j];
+        }
+        this.keys = keys;
+        this.values = values;
+    }
+
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
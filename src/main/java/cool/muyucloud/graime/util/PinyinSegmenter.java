@@ -0,0 +1,481 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Split raw keystrokes, such as {@code xianshi}, into ranked apostrophe-joined syllables,
+ * such as {@code xian'shi} and {@code xi'an'shi}.<br/>
+ * Every syllable of Mandarin is compiled once into a deterministic automaton over {@code a-z},
+ * where {@code v} stands for {@code ü}. The splittings of the input form a DAG of syllables,
+ * which is decoded by a beam Viterbi search over a syllable bigram model learned from the lexicon,
+ * so splittings that chain syllables known to follow each other rank first.
+ * The last syllable may be incomplete, so {@code xians} is split into {@code xian's}.
+ * <p>
+ * Counts are learned under the lock of the segmenter, while cursors read them without locking,
+ * a cursor racing a {@code learn} only ranks by slightly older counts.
+ */
+public class PinyinSegmenter {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_BEAM = 8;
+    /* weight of the bigram estimate against the unigram one */
+    private static final float LAMBDA = 0.7F;
+
+    private static final String[] SYLLABLES = {
+        "a", "ai", "an", "ang", "ao",
+        "ba", "bai", "ban", "bang", "bao", "bei", "ben", "beng", "bi", "bian", "biao", "bie", "bin", "bing", "bo", "bu",
+        "ca", "cai", "can", "cang", "cao", "ce", "cen", "ceng", "ci", "cong", "cou", "cu", "cuan", "cui", "cun", "cuo",
+        "cha", "chai", "chan", "chang", "chao", "che", "chen", "cheng", "chi", "chong", "chou", "chu", "chua", "chuai",
+        "chuan", "chuang", "chui", "chun", "chuo",
+        "da", "dai", "dan", "dang", "dao", "de", "dei", "den", "deng", "di", "dia", "dian", "diao", "die", "ding", "diu",
+        "dong", "dou", "du", "duan", "dui", "dun", "duo",
+        "e", "ei", "en", "eng", "er",
+        "fa", "fan", "fang", "fei", "fen", "feng", "fo", "fou", "fu",
+        "ga", "gai", "gan", "gang", "gao", "ge", "gei", "gen", "geng", "gong", "gou", "gu", "gua", "guai", "guan",
+        "guang", "gui", "gun", "guo",
+        "ha", "hai", "han", "hang", "hao", "he", "hei", "hen", "heng", "hong", "hou", "hu", "hua", "huai", "huan",
+        "huang", "hui", "hun", "huo",
+        "ji", "jia", "jian", "jiang", "jiao", "jie", "jin", "jing", "jiong", "jiu", "ju", "juan", "jue", "jun",
+        "ka", "kai", "kan", "kang", "kao", "ke", "kei", "ken", "keng", "kong", "kou", "ku", "kua", "kuai", "kuan",
+        "kuang", "kui", "kun", "kuo",
+        "la", "lai", "lan", "lang", "lao", "le", "lei", "leng", "li", "lia", "lian", "liang", "liao", "lie", "lin",
+        "ling", "liu", "lo", "long", "lou", "lu", "luan", "lue", "lun", "luo", "lv", "lve",
+        "ma", "mai", "man", "mang", "mao", "me", "mei", "men", "meng", "mi", "mian", "miao", "mie", "min", "ming",
+        "miu", "mo", "mou", "mu",
+        "na", "nai", "nan", "nang", "nao", "ne", "nei", "nen", "neng", "ni", "nian", "niang", "niao", "nie", "nin",
+        "ning", "niu", "nong", "nou", "nu", "nuan", "nue", "nuo", "nv", "nve",
+        "o", "ou",
+        "pa", "pai", "pan", "pang", "pao", "pei", "pen", "peng", "pi", "pian", "piao", "pie", "pin", "ping", "po",
+        "pou", "pu",
+        "qi", "qia", "qian", "qiang", "qiao", "qie", "qin", "qing", "qiong", "qiu", "qu", "quan", "que", "qun",
+        "ran", "rang", "rao", "re", "ren", "reng", "ri", "rong", "rou", "ru", "rua", "ruan", "rui", "run", "ruo",
+        "sa", "sai", "san", "sang", "sao", "se", "sen", "seng", "si", "song", "sou", "su", "suan", "sui", "sun", "suo",
+        "sha", "shai", "shan", "shang", "shao", "she", "shei", "shen", "sheng", "shi", "shou", "shu", "shua", "shuai",
+        "shuan", "shuang", "shui", "shun", "shuo",
+        "ta", "tai", "tan", "tang", "tao", "te", "teng", "ti", "tian", "tiao", "tie", "ting", "tong", "tou", "tu",
+        "tuan", "tui", "tun", "tuo",
+        "wa", "wai", "wan", "wang", "wei", "wen", "weng", "wo", "wu",
+        "xi", "xia", "xian", "xiang", "xiao", "xie", "xin", "xing", "xiong", "xiu", "xu", "xuan", "xue", "xun",
+        "ya", "yan", "yang", "yao", "ye", "yi", "yin", "ying", "yo", "yong", "you", "yu", "yuan", "yue", "yun",
+        "za", "zai", "zan", "zang", "zao", "ze", "zei", "zen", "zeng", "zi", "zong", "zou", "zu", "zuan", "zui", "zun",
+        "zuo",
+        "zha", "zhai", "zhan", "zhang", "zhao", "zhe", "zhei", "zhen", "zheng", "zhi", "zhong", "zhou", "zhu", "zhua",
+        "zhuai", "zhuan", "zhuang", "zhui", "zhun", "zhuo"
+    };
+    private static final int COUNT = SYLLABLES.length;
+    /* context of the first syllable of a key */
+    private static final int START = COUNT;
+    private static final int MAX_SYLLABLE;
+
+    /* transitions of the automaton, state * 26 + letter, -1 for none, state 0 is the initial state */
+    private static final int[] TRANSITIONS;
+    /* syllable accepted by each state, -1 for none */
+    private static final int[] ACCEPTS;
+    /* syllables reachable from each state, to score an incomplete syllable */
+    private static final int[][] REACHABLE;
+
+    static {
+        List<int[]> transitions = new ArrayList<>();
+        List<Integer> accepts = new ArrayList<>();
+        transitions.add(newState());
+        accepts.add(-1);
+        int longest = 0;
+        for (int id = 0; id < COUNT; ++id) {
+            String syllable = SYLLABLES[id];
+            longest = Math.max(longest, syllable.length());
+            int state = 0;
+            for (int i = 0; i < syllable.length(); ++i) {
+                int letter = syllable.charAt(i) - 'a';
+                int next = transitions.get(state)[letter];
+                if (next < 0) {
+                    next = transitions.size();
+                    transitions.add(newState());
+                    accepts.add(-1);
+                    transitions.get(state)[letter] = next;
+                }
+                state = next;
+            }
+            accepts.set(state, id);
+        }
+        MAX_SYLLABLE = longest;
+        TRANSITIONS = new int[transitions.size() * 26];
+        ACCEPTS = new int[transitions.size()];
+        for (int state = 0; state < transitions.size(); ++state) {
+            System.arraycopy(transitions.get(state), 0, TRANSITIONS, state * 26, 26);
+            ACCEPTS[state] = accepts.get(state);
+        }
+        REACHABLE = new int[ACCEPTS.length][];
+        for (int state = ACCEPTS.length - 1; state >= 0; --state) {
+            reachable(state);
+        }
+    }
+
+    private static int[] newState() {
+        int[] state = new int[26];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private static int[] reachable(int state) {
+        if (REACHABLE[state] != null) {
+            return REACHABLE[state];
+        }
+        Set<Integer> ids = new TreeSet<>();
+        if (ACCEPTS[state] >= 0) {
+            ids.add(ACCEPTS[state]);
+        }
+        for (int letter = 0; letter < 26; ++letter) {
+            int next = TRANSITIONS[state * 26 + letter];
+            if (next >= 0) {
+                for (int id : reachable(next)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return REACHABLE[state] = ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int step(int state, char c) {
+        if (state < 0 || c < 'a' || c > 'z') {
+            return -1;
+        }
+        return TRANSITIONS[state * 26 + c - 'a'];
+    }
+
+    /**
+     * Id of a complete syllable, {@code -1} if it is not a syllable.
+     */
+    private static int syllableOf(@NotNull CharSequence keys, int from, int to) {
+        int state = 0;
+        for (int i = from; i < to && state >= 0; ++i) {
+            state = step(state, keys.charAt(i));
+        }
+        return state < 0 ? -1 : ACCEPTS[state];
+    }
+
+    /* occurrences of every syllable */
+    private final int[] unigrams = new int[COUNT];
+    /* occurrences of every syllable after a context, context * COUNT + syllable */
+    private final int[] bigrams = new int[(COUNT + 1) * COUNT];
+    /* occurrences of every context */
+    private final int[] contexts = new int[COUNT + 1];
+    private int total = 0;
+
+    /**
+     * Create a segmenter that has learned nothing, which prefers splittings of fewer syllables.
+     */
+    public PinyinSegmenter() {
+    }
+
+    /**
+     * Create a segmenter that learns the pinyin keys of a lexicon.
+     *
+     * @param pinyins Apostrophe-joined pinyin keys.
+     */
+    public PinyinSegmenter(@NotNull Collection<String> pinyins) {
+        for (String pinyin : pinyins) {
+            this.learn(pinyin);
+        }
+    }
+
+    /**
+     * Learn the syllable transitions of a pinyin key, syllables out of the inventory break the chain.
+     *
+     * @param pinyin Apostrophe-joined pinyin key.
+     */
+    public synchronized void learn(@NotNull String pinyin) {
+        int context = START;
+        int from = 0;
+        while (from <= pinyin.length()) {
+            int to = pinyin.indexOf(PinyinTrie.SEPARATOR, from);
+            if (to < 0) {
+                to = pinyin.length();
+            }
+            int id = syllableOf(pinyin, from, to);
+            if (id >= 0) {
+                ++this.unigrams[id];
+                ++this.total;
+                ++this.bigrams[context * COUNT + id];
+                ++this.contexts[context];
+                context = id;
+            } else {
+                context = START;
+            }
+            from = to + 1;
+        }
+    }
+
+    /**
+     * Whether the text is a complete syllable of the inventory.
+     */
+    public static boolean isSyllable(@NotNull String syllable) {
+        return syllableOf(syllable, 0, syllable.length()) >= 0;
+    }
+
+    /**
+     * Log probability of a syllable after a context, interpolated with its unigram probability.
+     */
+    private float score(int context, int id) {
+        float unigram = (this.unigrams[id] + 1F) / (this.total + COUNT);
+        int seen = this.contexts[context];
+        if (seen == 0) {
+            return (float) Math.log(unigram);
+        }
+        float bigram = (float) this.bigrams[context * COUNT + id] / seen;
+        return (float) Math.log(LAMBDA * bigram + (1 - LAMBDA) * unigram);
+    }
+
+    /**
+     * Log probability of any syllable reachable from a state of the automaton after a context.
+     */
+    private float partialScore(int context, int state) {
+        float sum = 0;
+        for (int id : REACHABLE[state]) {
+            sum += Math.exp(this.score(context, id));
+        }
+        return (float) Math.log(Math.min(sum, 1F));
+    }
+
+    /**
+     * Start a new incremental segmentation from empty input.
+     */
+    public @NotNull Cursor cursor() {
+        return new Cursor(DEFAULT_CAPACITY, DEFAULT_BEAM);
+    }
+
+    /**
+     * Start a new incremental segmentation from empty input.
+     *
+     * @param capacity Maximum amount of keystrokes.
+     * @param beam     Amount of partial splittings kept at each keystroke, bounds the amount of splittings to return.
+     */
+    public @NotNull Cursor cursor(int capacity, int beam) {
+        if (capacity <= 0 || beam <= 0) {
+            throw new IllegalArgumentException("Capacity and beam must be positive");
+        }
+        return new Cursor(capacity, beam);
+    }
+
+    /**
+     * Incremental segmentation state over typed keystrokes.<br/>
+     * All storage is allocated with the cursor, so feeding a keystroke allocates nothing:
+     * it only runs the automaton over the last {@code MAX_SYLLABLE} keystrokes
+     * and extends the best splittings of the positions where a syllable ending at the new keystroke starts.
+     * Revoking a keystroke just drops the last position. Cursors are not thread-safe.
+     */
+    public class Cursor {
+        private final int capacity;
+        private final int beam;
+        private final char[] keys;
+        private int length = 0;
+        /* state of the automaton over keys[end - span, end), end * (MAX_SYLLABLE + 1) + span, -1 for dead */
+        private final int[] states;
+        /* best splittings ending at each position, end * beam + rank, in descending order of score */
+        private final float[] scores;
+        /* start position and rank of the previous splitting */
+        private final int[] previous;
+        private final int[] ranks;
+        /* last syllable, START if none */
+        private final int[] syllables;
+        private final int[] counts;
+
+        private Cursor(int capacity, int beam) {
+            this.capacity = capacity;
+            this.beam = beam;
+            this.keys = new char[capacity];
+            this.states = new int[(capacity + 1) * (MAX_SYLLABLE + 1)];
+            this.scores = new float[(capacity + 1) * beam];
+            this.previous = new int[(capacity + 1) * beam];
+            this.ranks = new int[(capacity + 1) * beam];
+            this.syllables = new int[(capacity + 1) * beam];
+            this.counts = new int[capacity + 1];
+            this.counts[0] = 1;
+            this.syllables[0] = START;
+            this.previous[0] = -1;
+        }
+
+        /**
+         * Feed one more keystroke, no effect once the capacity is reached.
+         *
+         * @param c A letter of pinyin, or {@code '} to force a syllable boundary.
+         * @return {@code true} if the input can still be split.
+         */
+        public boolean feed(char c) {
+            if (this.length >= this.capacity) {
+                return false;
+            }
+            c = Character.toLowerCase(c);
+            this.keys[this.length++] = c;
+            int end = this.length;
+            int base = end * (MAX_SYLLABLE + 1);
+            int prior = (end - 1) * (MAX_SYLLABLE + 1);
+            this.states[base] = 0;
+            for (int span = 1; span <= MAX_SYLLABLE; ++span) {
+                this.states[base + span] = span > end ? -1 : step(span == 1 ? 0 : this.states[prior + span - 1], c);
+            }
+            this.counts[end] = 0;
+            if (c == PinyinTrie.SEPARATOR) {
+                this.separate(end);
+            } else {
+                for (int span = 1; span <= Math.min(MAX_SYLLABLE, end); ++span) {
+                    int state = this.states[base + span];
+                    if (state >= 0 && ACCEPTS[state] >= 0) {
+                        this.extend(end - span, end, ACCEPTS[state]);
+                    }
+                }
+            }
+            return this.counts[end] > 0 || this.hasPartial();
+        }
+
+        /**
+         * Feed a sequence of keystrokes.
+         *
+         * @return {@code true} if the input can still be split.
+         */
+        public boolean feed(@NotNull CharSequence keys) {
+            boolean splittable = this.length == 0 || this.counts[this.length] > 0 || this.hasPartial();
+            for (int i = 0; i < keys.length(); ++i) {
+                splittable = this.feed(keys.charAt(i));
+            }
+            return splittable;
+        }
+
+        /**
+         * Revoke the last keystroke, no effect on empty input.
+         */
+        public void back() {
+            if (this.length > 0) {
+                --this.length;
+            }
+        }
+
+        /**
+         * Keystrokes fed so far.
+         */
+        public @NotNull String getInput() {
+            return new String(this.keys, 0, this.length);
+        }
+
+        /**
+         * A separator keeps the splittings before it, a leading or doubled separator is ignored.
+         */
+        private void separate(int end) {
+            int from = end - 1;
+            int offset = end * this.beam;
+            for (int rank = 0; rank < this.counts[from]; ++rank) {
+                int source = from * this.beam + rank;
+                this.scores[offset + rank] = this.scores[source];
+                this.previous[offset + rank] = from;
+                this.ranks[offset + rank] = rank;
+                this.syllables[offset + rank] = this.syllables[source];
+            }
+            this.counts[end] = this.counts[from];
+        }
+
+        /**
+         * Extend every splitting ending at {@code from} by a syllable, keeping the best ones of {@code end}.
+         */
+        private void extend(int from, int end, int id) {
+            for (int rank = 0; rank < this.counts[from]; ++rank) {
+                int source = from * this.beam + rank;
+                float score = this.scores[source] + PinyinSegmenter.this.score(this.syllables[source], id);
+                this.insert(end, score, from, rank, id);
+            }
+        }
+
+        private void insert(int end, float score, int from, int rank, int id) {
+            int offset = end * this.beam;
+            int count = this.counts[end];
+            int at = count;
+            while (at > 0 && this.scores[offset + at - 1] < score) {
+                --at;
+            }
+            if (at >= this.beam) {
+                return;
+            }
+            int last = Math.min(count, this.beam - 1);
+            for (int i = last; i > at; --i) {
+                this.scores[offset + i] = this.scores[offset + i - 1];
+                this.previous[offset + i] = this.previous[offset + i - 1];
+                this.ranks[offset + i] = this.ranks[offset + i - 1];
+                this.syllables[offset + i] = this.syllables[offset + i - 1];
+            }
+            this.scores[offset + at] = score;
+            this.previous[offset + at] = from;
+            this.ranks[offset + at] = rank;
+            this.syllables[offset + at] = id;
+            this.counts[end] = Math.min(count + 1, this.beam);
+        }
+
+        private boolean hasPartial() {
+            int base = this.length * (MAX_SYLLABLE + 1);
+            for (int span = 1; span <= Math.min(MAX_SYLLABLE, this.length); ++span) {
+                if (this.states[base + span] >= 0 && this.counts[this.length - span] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Best splittings of the input, where the last syllable may be incomplete.
+         *
+         * @param limit Maximum amount of splittings to return, bounded by the beam.
+         * @return Apostrophe-joined splittings and their log probabilities, in descending order of score.
+         */
+        public @NotNull List<BiType<String, Float>> splittings(int limit) {
+            List<BiType<String, Float>> splittings = new ArrayList<>();
+            if (this.length == 0 || limit <= 0) {
+                return splittings;
+            }
+            Map<String, Float> scored = new HashMap<>();
+            int end = this.length;
+            for (int rank = 0; rank < this.counts[end]; ++rank) {
+                scored.merge(this.trace(end, rank, null), this.scores[end * this.beam + rank], Math::max);
+            }
+            int base = end * (MAX_SYLLABLE + 1);
+            for (int span = 1; span <= Math.min(MAX_SYLLABLE, end); ++span) {
+                int state = this.states[base + span];
+                if (state < 0 || ACCEPTS[state] >= 0 && REACHABLE[state].length == 1) {
+                    continue;
+                }
+                int from = end - span;
+                String partial = new String(this.keys, from, span);
+                for (int rank = 0; rank < this.counts[from]; ++rank) {
+                    int source = from * this.beam + rank;
+                    float score = this.scores[source] + PinyinSegmenter.this.partialScore(this.syllables[source], state);
+                    scored.merge(this.trace(from, rank, partial), score, Math::max);
+                }
+            }
+            return Ranking.top(scored, Math.min(limit, this.beam));
+        }
+
+        /**
+         * The best splitting of the input.
+         *
+         * @return Apostrophe-joined syllables, empty if the input can not be split.
+         */
+        public @NotNull String best() {
+            List<BiType<String, Float>> splittings = this.splittings(1);
+            return splittings.isEmpty() ? "" : splittings.get(0).getA();
+        }
+
+        private String trace(int end, int rank, String partial) {
+            Deque<String> syllables = new ArrayDeque<>();
+            if (partial != null) {
+                syllables.push(partial);
+            }
+            while (end > 0) {
+                int at = end * this.beam + rank;
+                int from = this.previous[at];
+                if (this.keys[end - 1] != PinyinTrie.SEPARATOR) {
+                    syllables.push(new String(this.keys, from, end - from));
+                }
+                rank = this.ranks[at];
+                end = from;
+            }
+            return String.join(String.valueOf(PinyinTrie.SEPARATOR), syllables);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Prefix index over apostrophe-joined pinyin keys, such as {@code zhong'guo}.<br/>
+ * Keys are queried through a {@code Cursor} that is advanced keystroke by keystroke,
+ * where every syllable of a key can be abbreviated by any non-empty prefix of it,
+ * so {@code zg}, {@code zhg} and {@code zhongg} all reach {@code zhong'guo}.
+ * <p>
+ * The trie is safe to share between threads, every operation of it and its cursors locks the trie,
+ * since even queries fill the caches of syllable completions.
+ */
+public class PinyinTrie {
+    public static final char SEPARATOR = '\'';
+    private static final Node[] NONE = new Node[0];
+
+    private final Node root = new Node(SEPARATOR);
+    private int size = 0;
+
+    /**
+     * Add a pinyin key into the index, no effect if the key is already present.<br/>
+     * Only the cached syllable completions of the ancestors sharing the syllable of the change are dropped,
+     * see {@code PinyinTrie::invalidate}.
+     *
+     * @param pinyin Apostrophe-joined pinyin key.
+     */
+    public synchronized void insert(@NotNull String pinyin) {
+        Node[] path = new Node[pinyin.length() + 1];
+        path[0] = this.root;
+        /* depth of the first node created or given the key, -1 if unchanged */
+        int changed = -1;
+        for (int i = 0; i < pinyin.length(); ++i) {
+            char c = pinyin.charAt(i);
+            Node child = path[i].child(c);
+            if (child == null) {
+                child = path[i].addChild(c);
+                if (changed < 0) {
+                    changed = i + 1;
+                }
+            }
+            path[i + 1] = child;
+        }
+        Node node = path[pinyin.length()];
+        if (node.key == null) {
+            node.key = pinyin;
+            ++this.size;
+            if (changed < 0) {
+                changed = pinyin.length();
+            }
+        }
+        if (changed >= 0) {
+            invalidate(path, changed);
+        }
+    }
+
+    /**
+     * Drop the cached syllable completions covering a changed node, see {@code Node::complete}.
+     * A completion stops at the next syllable start, so walking up the path stops at the syllable start
+     * the changed node belongs to, and the rest of the trie keeps its caches.
+     *
+     * @param path    Nodes from the root down to the changed node.
+     * @param changed Depth of the changed node in the path.
+     */
+    private static void invalidate(Node[] path, int changed) {
+        for (int i = changed - 1; i >= 0; --i) {
+            path[i].boundaries = null;
+            path[i].ends = null;
+            if (path[i].isSyllableStart()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add all the pinyin keys into the index.
+     *
+     * @param pinyins Apostrophe-joined pinyin keys.
+     */
+    public synchronized void insertAll(@NotNull Collection<String> pinyins) {
+        for (String pinyin : pinyins) {
+            this.insert(pinyin);
+        }
+    }
+
+    /**
+     * Whether the exact pinyin key is present.
+     */
+    public synchronized boolean contains(@NotNull String pinyin) {
+        Node node = this.root;
+        for (int i = 0; i < pinyin.length() && node != null; ++i) {
+            node = node.child(pinyin.charAt(i));
+        }
+        return node != null && node.key != null;
+    }
+
+    /**
+     * Amount of keys in the index.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Start a new incremental query from empty input.
+     */
+    public @NotNull Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Incremental query state over typed keystrokes.<br/>
+     * Each keystroke only advances the states reached by the previous one,
+     * and the syllable completions a state jumps through are cached in the trie,
+     * so the cost of a keystroke is bounded by the syllable inventory instead of the size of the index.
+     */
+    public class Cursor {
+        private final Deque<Node[]> history = new ArrayDeque<>();
+        private final StringBuilder input = new StringBuilder();
+        private Node[] states = {PinyinTrie.this.root};
+
+        /**
+         * Feed one more keystroke.
+         *
+         * @param c A letter of pinyin, or {@code '} to force a syllable boundary.
+         * @return {@code true} if any key can still be reached.
+         */
+        public boolean feed(char c) {
+            synchronized (PinyinTrie.this) {
+                return this.advance(Character.toLowerCase(c));
+            }
+        }
+
+        private boolean advance(char c) {
+            List<Node> next = new ArrayList<>();
+            Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Node node : this.states) {
+                if (c == SEPARATOR) {
+                    if (node.isSyllableStart()) {
+                        addState(next, seen, node);
+                    } else {
+                        for (Node boundary : node.boundaries()) {
+                            addState(next, seen, boundary);
+                        }
+                    }
+                    continue;
+                }
+                addState(next, seen, node.child(c));
+                if (!node.isSyllableStart()) {
+                    for (Node boundary : node.boundaries()) {
+                        addState(next, seen, boundary.child(c));
+                    }
+                }
+            }
+            this.history.push(this.states);
+            this.states = next.toArray(new Node[0]);
+            this.input.append(c);
+            return this.states.length > 0;
+        }
+
+        /**
+         * Feed a sequence of keystrokes.
+         *
+         * @return {@code true} if any key can still be reached.
+         */
+        public boolean feed(@NotNull CharSequence keys) {
+            synchronized (PinyinTrie.this) {
+                for (int i = 0; i < keys.length(); ++i) {
+                    this.advance(Character.toLowerCase(keys.charAt(i)));
+                }
+                return this.states.length > 0;
+            }
+        }
+
+        /**
+         * Revoke the last keystroke, no effect on empty input.
+         */
+        public void back() {
+            if (this.history.isEmpty()) {
+                return;
+            }
+            this.states = this.history.pop();
+            this.input.setLength(this.input.length() - 1);
+        }
+
+        /**
+         * Keystrokes fed so far.
+         */
+        public @NotNull String getInput() {
+            return this.input.toString();
+        }
+
+        /**
+         * Keys whose every syllable is covered by the input,
+         * the last syllable may be covered by a prefix.
+         *
+         * @param limit Maximum amount of keys to return.
+         * @return Matched pinyin keys.
+         */
+        public @NotNull List<String> matches(int limit) {
+            synchronized (PinyinTrie.this) {
+                return new ArrayList<>(this.match(limit));
+            }
+        }
+
+        private Set<String> match(int limit) {
+            Set<String> keys = new LinkedHashSet<>();
+            if (this.input.length() == 0) {
+                return keys;
+            }
+            for (Node node : this.states) {
+                if (keys.size() >= limit) {
+                    break;
+                }
+                if (node.key != null) {
+                    keys.add(node.key);
+                }
+                if (!node.isSyllableStart()) {
+                    for (Node end : node.ends()) {
+                        if (keys.size() >= limit) {
+                            break;
+                        }
+                        keys.add(end.key);
+                    }
+                }
+            }
+            return keys;
+        }
+
+        /**
+         * Keys that start with the input, including keys of more syllables than typed.
+         *
+         * @param limit Maximum amount of keys to return.
+         * @return Completed pinyin keys, matched keys come first.
+         */
+        public @NotNull List<String> completions(int limit) {
+            synchronized (PinyinTrie.this) {
+                return this.complete(limit);
+            }
+        }
+
+        private List<String> complete(int limit) {
+            Set<String> keys = this.match(limit);
+            Deque<Node> stack = new ArrayDeque<>();
+            for (int i = this.states.length - 1; i >= 0; --i) {
+                stack.push(this.states[i]);
+            }
+            while (!stack.isEmpty() && keys.size() < limit) {
+                Node node = stack.pop();
+                if (node.key != null) {
+                    keys.add(node.key);
+                }
+                for (int i = node.size - 1; i >= 0; --i) {
+                    stack.push(node.children[i]);
+                }
+            }
+            return new ArrayList<>(keys);
+        }
+    }
+
+    private static void addState(List<Node> states, Set<Node> seen, @Nullable Node node) {
+        if (node != null && seen.add(node)) {
+            states.add(node);
+        }
+    }
+
+    private static class Node {
+        private final char label;
+        private char[] labels = new char[0];
+        private Node[] children = NONE;
+        private int size = 0;
+        private @Nullable String key = null;
+        /* nodes right after the end of the current syllable, null until cached */
+        private Node[] boundaries = null;
+        /* keys completing the current syllable without starting another, null until cached */
+        private Node[] ends = null;
+
+        private Node(char label) {
+            this.label = label;
+        }
+
+        private @Nullable Node child(char c) {
+            for (int i = 0; i < this.size; ++i) {
+                if (this.labels[i] == c) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node addChild(char c) {
+            if (this.size == this.labels.length) {
+                int capacity = Math.max(2, this.size * 2);
+                this.labels = Arrays.copyOf(this.labels, capacity);
+                this.children = Arrays.copyOf(this.children, capacity);
+            }
+            Node child = new Node(c);
+            this.labels[this.size] = c;
+            this.children[this.size] = child;
+            ++this.size;
+            return child;
+        }
+
+        private boolean isSyllableStart() {
+            return this.label == SEPARATOR;
+        }
+
+        private Node[] boundaries() {
+            this.complete();
+            return this.boundaries;
+        }
+
+        private Node[] ends() {
+            this.complete();
+            return this.ends;
+        }
+
+        private void complete() {
+            if (this.boundaries != null) {
+                return;
+            }
+            List<Node> boundaries = new ArrayList<>();
+            List<Node> ends = new ArrayList<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                for (int i = 0; i < node.size; ++i) {
+                    Node child = node.children[i];
+                    if (child.isSyllableStart()) {
+                        boundaries.add(child);
+                    } else {
+                        if (child.key != null) {
+                            ends.add(child);
+                        }
+                        stack.push(child);
+                    }
+                }
+            }
+            this.boundaries = boundaries.toArray(NONE);
+            this.ends = ends.toArray(NONE);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class Ranking {
+    private static final Comparator<Map.Entry<String, Float>> ASCENDING = Map.Entry.comparingByValue();
+
+    /**
+     * Select the candidates of top {@code k} scores with a bounded heap.
+     *
+     * @param scores Candidate words and their scores.
+     * @param k      Maximum amount of candidates to select.
+     * @return Candidates and scores in descending order of score.
+     */
+    public static @NotNull List<BiType<String, Float>> top(@NotNull Map<String, Float> scores, int k) {
+        if (k <= 0 || scores.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int bound = Math.min(k, scores.size());
+        PriorityQueue<Map.Entry<String, Float>> heap = new PriorityQueue<>(bound + 1, ASCENDING);
+        for (Map.Entry<String, Float> entry : scores.entrySet()) {
+            if (heap.size() < bound) {
+                heap.add(entry);
+            } else if (entry.getValue() > heap.peek().getValue()) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        List<BiType<String, Float>> ranked = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            Map.Entry<String, Float> entry = heap.poll();
+            ranked.add(new BiType<>(entry.getKey(), entry.getValue()));
+        }
+        Collections.reverse(ranked);
+        return ranked;
+    }
+}
@@ -1,21 +1,91 @@
 package cool.muyucloud.graime.util;
 
 import com.sun.jdi.InternalException;
+import cool.muyucloud.graime.model.LexiconObtainable;
+import cool.muyucloud.graime.model.ContextAware;
+import cool.muyucloud.graime.model.OverlayDictionModel;
 import cool.muyucloud.graime.model.ScoreProducer;
+import cool.muyucloud.graime.model.TimeWeightedDictionModel;
+import cool.muyucloud.graime.model.UpdateEvent;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Tree of scene nodes, each holding the producer model trained in that scene.<br/>
+ * The tree is shared by any amount of input sessions, see {@code SceneTree::openSession},
+ * each of which keeps its own focus: the current scene, the previous one and the time of switching.
+ * The methods of the tree itself work on a default session.
+ * <p>
+ * Every scene node guards its model with a read-write lock, so queries on a model run in parallel
+ * and only updates of the same model exclude each other. A query blending two models locks both
+ * in the order the nodes were created. Persistence snapshots each dirty node under its lock
+ * and writes the snapshots without it, so {@code SceneTree::dump} can run on another thread,
+ * see {@code AutoSaver}.
+ * <p>
+ * Scene nodes are discovered on construction, but only the root model is loaded.
+ * Other models are loaded on their first use and kept in an LRU cache bounded by count and estimated size,
+ * where cold models are unloaded once their changes are dumped. Models focused by a session are never unloaded.
+ * <p>
+ * A new scene gets an {@code OverlayDictionModel} over the root model, which learns the selections of the scene
+ * and reads through to the root, so queries and updates on a scene read lock the root as well.
+ * Learned records of a scene shadow the root, so scenes keep their own rankings of the same pinyin.
+ * Scenes may get a subclass of it instead, such as {@code BigramDictionModel}, see {@code SceneTree::setSceneProducer}.
+ * Context-aware models follow the previous word of each session, see {@code Session::setContext}.
+ * <p>
+ * Dictionary models of every scene intern their pinyin and candidates into symbol tables shared by the tree,
+ * see {@code SceneTree::getCandidateSymbols}, so a word is kept once on heap however many scenes learned it.
+ * <p>
+ * Scores queried in a pair of scenes are cached, see {@code ScoreCache}, and blended again on every hit.
+ * Latencies and counters are kept in {@code SceneTreeMetrics}, which can be exposed through JMX.
+ */
+public class SceneTree implements AutoCloseable {
+    public static final long DEFAULT_COMPACT_THRESHOLD = 256 * 1024;
+    public static final int DEFAULT_MAX_LOADED_MODELS = 32;
 
-public class SceneTree {
     private final @NotNull Path parent;
-    private @NotNull Node root;
-    private final @NotNull Map<Path, Node> nodes = new HashMap<>();
-    private @NotNull Node current;
-    private @Nullable Node old = null;
-    private long lastStep = Clock.getTime();
+    private volatile @NotNull Node root;
+    private volatile @NotNull Map<Path, Node> nodes = new ConcurrentHashMap<>();
+    private final @NotNull Session session;
+    private volatile @NotNull PinyinTrie index;
+    private volatile @NotNull PinyinSegmenter segmenter;
+    private volatile @NotNull SymbolTable candidateSymbols = new SymbolTable();
+    private volatile @NotNull SymbolTable pinyinSymbols = new SymbolTable();
+    private volatile long compactThreshold = DEFAULT_COMPACT_THRESHOLD;
+    private volatile @NotNull String sceneProducer = "overlay";
+    private final @Nullable ScoreProducer lexicon;
+    /* serializes writes, so journals are appended in the order they were snapshot */
+    private final @NotNull Object ioLock = new Object();
+    /* System.nanoTime() of the first change since the last snapshot, 0 if none */
+    private final @NotNull AtomicLong dirtySince = new AtomicLong();
+    private volatile long lastModified = 0;
+    private final @NotNull ExecutorService compactor = daemonExecutor("SceneTree-compactor");
+    /* loaded models of the scene nodes other than the root, least recently used first, guarded by itself */
+    private final @NotNull LinkedHashMap<Node, Boolean> loaded = new LinkedHashMap<>(16, 0.75F, true);
+    private int maxLoadedModels = DEFAULT_MAX_LOADED_MODELS;
+    private long maxLoadedBytes = Long.MAX_VALUE;
+    /* dumps dirty models that have to be evicted, kept apart from compactions that evictions may wait for */
+    private final @NotNull ExecutorService flusher = daemonExecutor("SceneTree-flusher");
+    private final @NotNull AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final @NotNull ScoreCache scoreCache = new ScoreCache();
+    private final @NotNull SceneTreeMetrics metrics = new SceneTreeMetrics(this);
+    private @Nullable ObjectName mbeanName = null;
 
     /**
      * Load SceneTree from local files
@@ -23,29 +93,106 @@ public class SceneTree {
      * @param path Path of SceneTree files, its filename indicates the name of the SceneTree.
      */
     public SceneTree(@NotNull Path path) {
+        this(path, null);
+    }
+
+    /**
+     * Load SceneTree from local files over a base lexicon.<br/>
+     * A new root gets an {@code OverlayDictionModel} over the lexicon, and a persisted overlay root reads through it
+     * again, so the lexicon is shared by every scene instead of being copied into the root.
+     * A read-only model found in the files of a scene, such as {@code static.model}, is refused,
+     * since selections could never be learned in that scene.
+     *
+     * @param path    Path of SceneTree files, its filename indicates the name of the SceneTree.
+     * @param lexicon Read-only base lexicon, such as {@code StaticDictionModel::open}, {@code null} for none.
+     */
+    public SceneTree(@NotNull Path path, @Nullable ScoreProducer lexicon) {
+        this.lexicon = lexicon;
         if (!path.toFile().exists()) {
             throw new RuntimeException("Root path %s not found".formatted(path));
         }
         this.parent = path.toAbsolutePath().getParent();
-        this.root = traverseLoad(path.getFileName());
-        this.current = this.root;
-        if (!this.root.hasProducer()) {
-            ScoreProducer producer = ScoreProducer.create("default");
-            this.root.setProducer(producer);
+        this.root = this.loadRoot(path.getFileName(), this.nodes);
+        this.index = this.buildIndex();
+        this.segmenter = this.buildSegmenter();
+        this.session = new Session(true);
+    }
+
+    private static ExecutorService daemonExecutor(String name) {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Node loadRoot(@NotNull Path name, @NotNull Map<Path, Node> nodes) {
+        Node root = this.traverseDiscover(name, nodes);
+        long start = System.nanoTime();
+        root.load(this.parent, this.lexicon);
+        this.metrics.load.record(System.nanoTime() - start);
+        if (!root.hasProducer()) {
+            root.setProducer(this.createRootProducer());
+        }
+        this.share(root.getProducer());
+        this.listen(root);
+        return root;
+    }
+
+    /**
+     * Move the symbols of a dictionary model into the tables of the tree, no effect on other models.
+     */
+    private void share(@Nullable ScoreProducer producer) {
+        if (producer instanceof TimeWeightedDictionModel model) {
+            model.shareSymbols(this.candidateSymbols, this.pinyinSymbols);
+        }
+    }
+
+    /**
+     * Journal the scores the overlay of a node copies from its bases, see {@code UpdateJournal::appendSeed}.
+     */
+    private void listen(@NotNull Node node) {
+        if (node.getProducer() instanceof OverlayDictionModel overlay) {
+            overlay.setSeedListener((pinyin, candidate, score, time) ->
+                node.recordSeed(this.parent, pinyin, candidate, score, time));
+        }
+    }
+
+    private ScoreProducer createRootProducer() {
+        if (this.lexicon == null) {
+            return ScoreProducer.create("default");
+        }
+        OverlayDictionModel overlay = new OverlayDictionModel();
+        overlay.setBases(List.of(this.lexicon));
+        return overlay;
+    }
+
+    private PinyinTrie buildIndex() {
+        PinyinTrie index = new PinyinTrie();
+        if (this.root.getProducer() instanceof LexiconObtainable lexicon) {
+            index.insertAll(lexicon.getPinyins());
+        }
+        return index;
+    }
+
+    private PinyinSegmenter buildSegmenter() {
+        if (this.root.getProducer() instanceof LexiconObtainable lexicon) {
+            return new PinyinSegmenter(lexicon.getPinyins());
         }
+        return new PinyinSegmenter();
     }
 
-    private Node traverseLoad(@NotNull Path path) {
+    private Node traverseDiscover(@NotNull Path path, @NotNull Map<Path, Node> nodes) {
         Path absolute = this.parent.resolve(path);
-        Node node = Node.load(path, this.parent);
+        Node node = new Node(path);
         for (File subFile : Objects.requireNonNull(absolute.toFile().listFiles())) {
             if (subFile.isDirectory()) {
                 Path subFileName = subFile.toPath().getFileName();
-                Node subNode = traverseLoad(path.resolve(subFileName));
+                Node subNode = traverseDiscover(path.resolve(subFileName), nodes);
                 subNode.setParent(node);
             }
         }
-        this.nodes.put(path, node);
+        nodes.put(path, node);
         return node;
     }
 
@@ -54,117 +201,965 @@ public class SceneTree {
     }
 
     public @NotNull Path getCurrentPath() {
-        return this.current.getPath();
+        return this.session.getCurrentPath();
     }
 
     /**
-     * Step into another scene, create if the scene node does not exist.<br/>
-     * Involves node switching record.
+     * Set the size of update journal that triggers a background compaction on {@code SceneTree::dump}.
      *
-     * @param path Path of a scene node.
+     * @param compactThreshold Size in bytes, {@code Long.MAX_VALUE} to disable compaction.
      */
-    public void stepInto(Path path) {
-        if (this.current.hasProducer()) {
-            this.old = this.current;
-            this.lastStep = Clock.getTime();
+    public void setCompactThreshold(long compactThreshold) {
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * Set the type of the models created for new scenes, existing models are kept as they are.
+     *
+     * @param identifier Identifier of a producer extending {@code OverlayDictionModel}, such as {@code bigram}.
+     */
+    public void setSceneProducer(@NotNull String identifier) {
+        Class<? extends ScoreProducer> cl = ScoreProducer.get(identifier);
+        if (cl == null || !OverlayDictionModel.class.isAssignableFrom(cl)) {
+            throw new IllegalArgumentException("%s is not an overlay producer".formatted(identifier));
         }
-        this.current = this.nodes.get(path);
-        if (this.current == null) {
-            this.current = this.add(path);
+        this.sceneProducer = identifier;
+    }
+
+    /**
+     * Bound the models loaded besides the root one, cold models beyond the bounds are unloaded.
+     *
+     * @param maxLoadedModels Maximum amount of loaded models.
+     * @param maxLoadedBytes  Maximum estimated heap usage of loaded models, see {@code ScoreProducer::estimateBytes}.
+     */
+    public void setModelCacheLimit(int maxLoadedModels, long maxLoadedBytes) {
+        synchronized (this.loaded) {
+            this.maxLoadedModels = maxLoadedModels;
+            this.maxLoadedBytes = maxLoadedBytes;
         }
+        this.evict();
+    }
+
+    /**
+     * Cache of the scores queried by sessions, which also reports hit and miss statistics.
+     */
+    public @NotNull ScoreCache getScoreCache() {
+        return this.scoreCache;
+    }
+
+    public @NotNull SceneTreeMetrics getMetrics() {
+        return this.metrics;
     }
 
     /**
-     * Step into another scene, create if the scene node does not exist.<br/>
-     * Involves node switching record.
+     * Register the metrics of the tree to the platform MBean server, they are unregistered on close.
+     *
+     * @return Name of the MBean, {@code cool.muyucloud.graime:type=SceneTree,name=<name of the tree>}.
+     */
+    public synchronized @NotNull ObjectName registerMBean() {
+        if (this.mbeanName != null) {
+            return this.mbeanName;
+        }
+        try {
+            ObjectName name = new ObjectName("cool.muyucloud.graime:type=SceneTree,name=" +
+                ObjectName.quote(this.getName().toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.metrics, name);
+            this.mbeanName = name;
+            return name;
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private synchronized void unregisterMBean() {
+        if (this.mbeanName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(this.mbeanName)) {
+                server.unregisterMBean(this.mbeanName);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.mbeanName = null;
+        }
+    }
+
+    /**
+     * Amount of scene nodes, including the ones whose models are not loaded.
+     */
+    public int countNodes() {
+        return this.nodes.size();
+    }
+
+    /**
+     * Estimated heap usage of all loaded models, see {@code ScoreProducer::estimateBytes}.
+     */
+    public long estimateBytes() {
+        long bytes = this.candidateSymbols.estimateBytes() + this.pinyinSymbols.estimateBytes();
+        for (Node node : this.nodes.values()) {
+            bytes += node.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Candidate words of every dictionary model of the tree, interned to dense ids.<br/>
+     * Ids are only valid within the tree until {@code SceneTree::load}, and are never persisted,
+     * convert them back to strings with {@code SymbolTable::get} before they leave the tree.
+     */
+    public @NotNull SymbolTable getCandidateSymbols() {
+        return this.candidateSymbols;
+    }
+
+    /**
+     * Pinyin of every dictionary model of the tree, interned to dense ids, see {@code SceneTree::getCandidateSymbols}.
+     */
+    public @NotNull SymbolTable getPinyinSymbols() {
+        return this.pinyinSymbols;
+    }
+
+    /**
+     * Amount of models loaded besides the root one.
+     */
+    public int countLoaded() {
+        synchronized (this.loaded) {
+            return this.loaded.size();
+        }
+    }
+
+    /**
+     * Open an input session on the tree, focused on the root scene.<br/>
+     * Sessions may be used by different threads, but a single session is not meant to be shared.
+     *
+     * @return A new session, close it to release the models it focuses.
+     */
+    public @NotNull Session openSession() {
+        return new Session(false);
+    }
+
+    /**
+     * Step the default session into another scene, see {@code Session::stepInto}.
+     *
+     * @param path Path of a scene node.
+     */
+    public void stepInto(Path path) {
+        this.session.stepInto(path);
+    }
+
+    /**
+     * Step the default session into another scene, see {@code Session::stepInto}.
      *
      * @param program The program that the scene to input.
      * @param box     Path to the input box.
      */
     public void stepInto(Path program, Path box) {
-        this.stepInto(this.calcRelative(program, box));
+        this.session.stepInto(program, box);
     }
 
     /**
-     * Calculate all possible words and their scores. <br/>
-     * Higher scores represents stronger possibilities.
+     * Calculate all possible words and their scores in the default session, see {@code Session::getScores}.
      *
      * @param pinyin Pinyin input.
      */
     public Map<String, Float> getScores(String pinyin) {
-        if (!this.current.hasProducer()) {
-            this.current.createProducer(this.root.getProducer());
+        return this.session.getScores(pinyin);
+    }
+
+    /**
+     * Calculate the candidate words of top {@code k} scores in the default session, see {@code Session::topK}.
+     *
+     * @param pinyin Pinyin input.
+     * @param k      Maximum amount of candidates to return.
+     * @return Candidate words and their scores, in descending order of score.
+     */
+    public List<BiType<String, Float>> topK(String pinyin, int k) {
+        return this.session.topK(pinyin, k);
+    }
+
+    /**
+     * Set the word the next query and selection of the default session follow, see {@code Session::setContext}.
+     *
+     * @param word Previous word, {@code null} at the start of a sentence.
+     */
+    public void setContext(@Nullable String word) {
+        this.session.setContext(word);
+    }
+
+    public @Nullable String getContext() {
+        return this.session.getContext();
+    }
+
+    /**
+     * Start an incremental prefix query over the pinyin known to the root model.<br/>
+     * Feed the cursor keystroke by keystroke and query the candidates of its matched pinyin keys.
+     *
+     * @return A cursor of empty input.
+     */
+    public PinyinTrie.Cursor prefixCursor() {
+        return this.index.cursor();
+    }
+
+    /**
+     * Start an incremental segmentation of raw keystrokes, ranked by the syllable transitions of the root lexicon
+     * and of the selections made since.<br/>
+     * Feed the cursor keystroke by keystroke, then feed its best splittings to {@code prefixCursor}.
+     *
+     * @return A cursor of empty input.
+     */
+    public PinyinSegmenter.Cursor segmentCursor() {
+        return this.segmenter.cursor();
+    }
+
+    /**
+     * Create a sentence decoder scoring words by the default session, see {@code LatticeDecoder}.
+     *
+     * @return A decoder of empty input.
+     */
+    public LatticeDecoder decoder() {
+        return this.session.decoder();
+    }
+
+    /**
+     * Update (or train) the producer models of the default session, see {@code Session::updateProducer}.
+     *
+     * @param pinyin    Pinyin input by the user.
+     * @param selection Candidate word that is selected by the user.
+     */
+    public void updateProducer(String pinyin, String selection) {
+        this.session.updateProducer(pinyin, selection);
+    }
+
+    /**
+     * Update (or train) the producer models of the default session with a batch of selections,
+     * see {@code Session::updateBatch}.
+     *
+     * @param events   Selections in the order they are made.
+     * @param parallel Whether to apply the selections of different pinyin in parallel.
+     */
+    public void updateBatch(List<UpdateEvent> events, boolean parallel) {
+        this.session.updateBatch(events, parallel);
+    }
+
+    /**
+     * Load the model of a scene node if it is not loaded, and mark it as the most recently used.
+     */
+    private void use(@NotNull Node node) {
+        if (node.isRoot()) {
+            return;
+        }
+        if (!node.isLoaded()) {
+            // the model files are replaced by compactions, so wait for them before loading,
+            // no compaction of the node starts until it is loaded and dirty again
+            node.awaitCompaction();
+            // loaded under the same locks as learning, see SceneTree::withWriteLock
+            this.withWriteLock(node, () -> {
+                if (!node.isLoaded()) {
+                    long start = System.nanoTime();
+                    node.load(this.parent, this.root.getProducer());
+                    this.share(node.getProducer());
+                    this.listen(node);
+                    this.metrics.load.record(System.nanoTime() - start);
+                }
+            });
         }
-        ScoreProducer current = this.current.getProducer();
-        Map<String, Float> currentScores = current.getScores(pinyin);
-        if (this.old == null) {
-            return currentScores;
+        synchronized (this.loaded) {
+            this.loaded.put(node, Boolean.TRUE);
         }
-        Map<String, Float> oldScores = old.getProducer().getScores(pinyin);
-        float weight = this.calcWeight();
-        Map<String, Float> integrated = new HashMap<>();
-        for (Map.Entry<String, Float> entry : currentScores.entrySet()) {
-            String candidate = entry.getKey();
-            Float score = entry.getValue() * (1 - weight);
-            integrated.put(candidate, score);
+    }
+
+    /**
+     * Create the model of a scene node if it has none, an empty overlay over the root model,
+     * of the type set by {@code SceneTree::setSceneProducer}.
+     */
+    private void ensureProducer(@NotNull Node node) {
+        this.use(node);
+        if (node.hasProducer()) {
+            return;
+        }
+        ScoreProducer producer;
+        if (node.isRoot()) {
+            producer = this.createRootProducer();
+        } else {
+            OverlayDictionModel overlay = (OverlayDictionModel) Objects.requireNonNull(
+                ScoreProducer.create(this.sceneProducer));
+            overlay.setBases(List.of(this.root.getProducer()));
+            producer = overlay;
         }
-        for (Map.Entry<String, Float> entry : oldScores.entrySet()) {
-            String candidate = entry.getKey();
-            Float score = entry.getValue() * weight;
-            if (integrated.containsKey(candidate)) {
-                score += integrated.get(candidate);
+        this.share(producer);
+        Lock lock = node.lock.writeLock();
+        lock.lock();
+        try {
+            if (!node.hasProducer()) {
+                node.setProducer(producer);
+                this.listen(node);
             }
-            integrated.put(candidate, score);
+        } finally {
+            lock.unlock();
         }
-        return integrated;
+        this.evict();
     }
 
     /**
-     * Update (or train) the producer model with the user's selection.
-     *
-     * @param pinyin    Pinyin input by the user.
-     * @param selection Candidate word that is selected by the user.
+     * Unload the least recently used models beyond the cache bounds,
+     * except the models focused by sessions. Dirty ones are dumped in the background first.<br/>
+     * Never called with a node locked, since it waits for node locks under the cache lock.
      */
-    public void updateProducer(String pinyin, String selection) {
-        ScoreProducer current = this.current.getProducer();
-        ScoreProducer root = this.root.getProducer();
-        if (current == null) {
-            this.current.createProducer(root);
+    private void evict() {
+        boolean dirty = false;
+        boolean over;
+        synchronized (this.loaded) {
+            int count = this.loaded.size();
+            long bytes = 0;
+            if (this.maxLoadedBytes != Long.MAX_VALUE) {
+                for (Node node : this.loaded.keySet()) {
+                    bytes += node.estimateBytes();
+                }
+            }
+            Iterator<Node> iterator = this.loaded.keySet().iterator();
+            while (iterator.hasNext() && (count > this.maxLoadedModels || bytes > this.maxLoadedBytes)) {
+                Node node = iterator.next();
+                Lock lock = node.lock.writeLock();
+                if (node.isPinned() || !lock.tryLock()) {
+                    continue;
+                }
+                try {
+                    if (node.isPinned()) {
+                        continue;
+                    }
+                    if (node.isDirty()) {
+                        dirty = true;
+                        continue;
+                    }
+                    bytes -= node.producer == null ? 0 : node.producer.estimateBytes();
+                    node.unload();
+                } finally {
+                    lock.unlock();
+                }
+                iterator.remove();
+                --count;
+            }
+            over = count > this.maxLoadedModels || bytes > this.maxLoadedBytes;
         }
-        if (root == null) {
-            throw new InternalException("Model of root node is missing, might caused by an internal structure error.");
+        if (dirty && over && this.flushScheduled.compareAndSet(false, true)) {
+            this.flusher.execute(() -> {
+                this.flushScheduled.set(false);
+                this.dump();
+            });
         }
-        this.current.getProducer().update(pinyin, selection);
-        if (this.current != this.root) {
-            this.root.getProducer().update(pinyin, selection);
+    }
+
+    private void touch() {
+        long now = System.nanoTime();
+        this.dirtySince.compareAndSet(0, now);
+        this.lastModified = now;
+    }
+
+    /**
+     * {@code System.nanoTime()} of the first change that is not snapshot yet, {@code 0} if there is none.
+     */
+    long getDirtySince() {
+        return this.dirtySince.get();
+    }
+
+    /**
+     * {@code System.nanoTime()} of the last change.
+     */
+    long getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * Amount of scene nodes that have changes to persist.
+     */
+    public int countDirty() {
+        int count = 0;
+        for (Node node : this.nodes.values()) {
+            Lock lock = node.lock.readLock();
+            lock.lock();
+            try {
+                if (node.isDirty()) {
+                    ++count;
+                }
+            } finally {
+                lock.unlock();
+            }
         }
+        return count;
     }
 
     /**
-     * Load SceneTree from file system and overwrite.
+     * Load SceneTree from file system and overwrite.<br/>
+     * Sessions focused on the former nodes fall back to the root scene on their next operation.
      */
     public void load() {
-        this.nodes.clear();
-        this.root = traverseLoad(this.parent.resolve(this.getName()));
+        synchronized (this.ioLock) {
+            this.awaitCompaction();
+            Path name = this.getName();
+            Map<Path, Node> nodes = new ConcurrentHashMap<>();
+            // the former models keep the former tables, which are dropped along with them
+            this.candidateSymbols = new SymbolTable();
+            this.pinyinSymbols = new SymbolTable();
+            Node root = this.loadRoot(name, nodes);
+            synchronized (this.loaded) {
+                this.loaded.clear();
+            }
+            this.scoreCache.clear();
+            this.nodes = nodes;
+            this.root = root;
+            this.index = this.buildIndex();
+            this.segmenter = this.buildSegmenter();
+            this.dirtySince.set(0);
+        }
     }
 
     /**
-     * Dump dirty part of SceneTree into file system.
+     * Dump dirty part of SceneTree into file system.<br/>
+     * Selections on loaded nodes are appended to their update journals instead of rewriting the models.
+     * Journals grown beyond the compaction threshold are folded into their models on a background thread.
      */
     public void dump() {
-        for (Node node : nodes.values()) {
-            if (node.isDirty()) {
-                node.dump(this.parent);
+        this.dump(false);
+    }
+
+    /**
+     * Dump every scene nodes of SceneTree into file system.<br/>
+     * Models are rewritten in full and their update journals are dropped.
+     */
+    public void dumpAll() {
+        this.dump(true);
+    }
+
+    private void dump(boolean full) {
+        synchronized (this.ioLock) {
+            long start = System.nanoTime();
+            List<Flush> flushes = new ArrayList<>();
+            this.dirtySince.set(0);
+            for (Node node : this.nodes.values()) {
+                Lock lock = node.lock.writeLock();
+                lock.lock();
+                try {
+                    if (full || node.isDirty()) {
+                        flushes.add(node.snapshot(this.parent, full));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            for (Flush flush : flushes) {
+                try {
+                    this.metrics.bytesWritten.addAndGet(flush.write());
+                } catch (IOException | RuntimeException e) {
+                    Lock lock = flush.node.lock.writeLock();
+                    lock.lock();
+                    try {
+                        // whatever the snapshot held is still in memory, rewrite it in full next time
+                        flush.node.persisted = false;
+                    } finally {
+                        lock.unlock();
+                    }
+                    this.touch();
+                    throw e instanceof IOException ? new RuntimeException(e) : (RuntimeException) e;
+                }
+                if (!full) {
+                    flush.node.compact(this.parent, this.compactor, this.compactThreshold,
+                        flush.node.isRoot() ? this.lexicon : this.root.getProducer());
+                }
             }
+            this.metrics.dump.record(System.nanoTime() - start);
         }
+        this.evict();
     }
 
     /**
-     * Dump every scene nodes of SceneTree into file system.
+     * Dump the SceneTree and wait for the pending compactions.
      */
-    public void dumpAll() {
-        for (Node node : nodes.values()) {
-            node.dump(this.parent);
+    @Override
+    public void close() {
+        this.unregisterMBean();
+        this.flusher.shutdown();
+        try {
+            this.flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.dump();
+        this.compactor.shutdown();
+        try {
+            this.compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.awaitCompaction();
+    }
+
+    private void awaitCompaction() {
+        for (Node node : this.nodes.values()) {
+            node.awaitCompaction();
+        }
+    }
+
+    /**
+     * Focus of one input session on the shared SceneTree.
+     */
+    public class Session implements AutoCloseable {
+        /* whether the context is restored from and kept in the models, only for the default session */
+        private final boolean restoresContext;
+        private @NotNull Node root;
+        private @NotNull Node current;
+        private @Nullable Node old = null;
+        private long lastStep = Clock.getTime();
+        /* word selected before, which queries and selections of context-aware models follow */
+        private @Nullable String previous;
+        private boolean closed = false;
+
+        private Session(boolean restoresContext) {
+            this.restoresContext = restoresContext;
+            this.root = SceneTree.this.root;
+            this.current = this.root;
+            this.current.pin();
+            this.previous = this.initialContext(this.root);
+        }
+
+        public @NotNull Path getCurrentPath() {
+            return this.current.getPath();
+        }
+
+        /**
+         * Step into another scene, create if the scene node does not exist.<br/>
+         * Involves node switching record.
+         *
+         * @param path Path of a scene node.
+         */
+        public void stepInto(Path path) {
+            this.refresh();
+            Node node = SceneTree.this.nodes.get(path);
+            if (node == null) {
+                node = SceneTree.this.add(path);
+                SceneTree.this.touch();
+            }
+            node.pin();
+            Node former = this.current;
+            if (former != node) {
+                SceneTree.this.metrics.sceneSwitches.incrementAndGet();
+            }
+            if (former.hasProducer()) {
+                if (this.old != null) {
+                    this.old.unpin();
+                }
+                this.old = former;
+                this.lastStep = Clock.getTime();
+            } else {
+                former.unpin();
+            }
+            this.current = node;
+            SceneTree.this.use(node);
+            if (former != node) {
+                this.previous = this.initialContext(node);
+            }
+            SceneTree.this.evict();
+        }
+
+        /**
+         * Set the word the next query and selection follow, such as the word before the caret.
+         * Every selection makes itself the context of the next one, and stepping into another scene
+         * starts over without context, except for the default session, which takes up the context
+         * the scene model keeps from its former selections, see {@code ContextAware::getContext}.
+         *
+         * @param word Previous word, {@code null} at the start of a sentence.
+         */
+        public void setContext(@Nullable String word) {
+            this.previous = word;
+        }
+
+        public @Nullable String getContext() {
+            return this.previous;
+        }
+
+        private @Nullable String initialContext(@NotNull Node node) {
+            return this.restoresContext ? SceneTree.contextOf(node) : null;
+        }
+
+        /**
+         * Step into another scene, create if the scene node does not exist.<br/>
+         * Involves node switching record.
+         *
+         * @param program The program that the scene to input.
+         * @param box     Path to the input box.
+         */
+        public void stepInto(Path program, Path box) {
+            this.stepInto(SceneTree.this.calcRelative(program, box));
+        }
+
+        /**
+         * Calculate all possible words and their scores. <br/>
+         * Higher scores represents stronger possibilities.
+         *
+         * @param pinyin Pinyin input.
+         */
+        public Map<String, Float> getScores(String pinyin) {
+            long start = System.nanoTime();
+            Map<String, Float> scores = this.queryScores(pinyin);
+            SceneTree.this.metrics.query.record(System.nanoTime() - start);
+            return scores;
+        }
+
+        private Map<String, Float> queryScores(String pinyin) {
+            Node current = this.focus();
+            Node old = this.old;
+            String previous = this.previous;
+            float weight = this.calcWeight();
+            ScoreCache cache = SceneTree.this.scoreCache;
+            String context = contextKey(current, old, previous);
+            ScoreCache.Entry cached = cache.get(current, old, context, pinyin);
+            if (cached == null) {
+                // cached under the locks, so an update of the scenes invalidates it afterwards
+                cached = withReadLocks(old == null ? List.of(current, this.root) : List.of(current, old, this.root), () ->
+                    cache.put(current, old, context, pinyin, scoresOf(current.getProducer(), pinyin, previous),
+                        old == null ? null : scoresOf(old.getProducer(), pinyin, previous)));
+            }
+            return cached.blend(weight);
+        }
+
+        /**
+         * Calculate the candidate words of top {@code k} scores, ranked the same as {@code Session::getScores}.<br/>
+         * Scores cached by {@code Session::getScores} are ranked directly, otherwise only the top of each scene is queried.
+         *
+         * @param pinyin Pinyin input.
+         * @param k      Maximum amount of candidates to return.
+         * @return Candidate words and their scores, in descending order of score.
+         */
+        public List<BiType<String, Float>> topK(String pinyin, int k) {
+            long start = System.nanoTime();
+            List<BiType<String, Float>> ranked = this.queryTopK(pinyin, k);
+            SceneTree.this.metrics.query.record(System.nanoTime() - start);
+            return ranked;
+        }
+
+        private List<BiType<String, Float>> queryTopK(String pinyin, int k) {
+            Node current = this.focus();
+            Node old = this.old;
+            String previous = this.previous;
+            float weight = this.calcWeight();
+            ScoreCache.Entry cached = SceneTree.this.scoreCache.get(current, old, contextKey(current, old, previous),
+                pinyin);
+            if (cached != null) {
+                return Ranking.top(cached.blend(weight), k);
+            }
+            if (old == null) {
+                return withReadLocks(List.of(current, this.root), () ->
+                    topKOf(current.getProducer(), pinyin, k, previous));
+            }
+            return withReadLocks(List.of(current, old, this.root), () ->
+                blendTopK(pinyin, k, previous, current.getProducer(), 1 - weight, old.getProducer(), weight));
+        }
+
+        /**
+         * Start an incremental prefix query over the pinyin known to the root model.
+         *
+         * @return A cursor of empty input.
+         */
+        public PinyinTrie.Cursor prefixCursor() {
+            return SceneTree.this.prefixCursor();
+        }
+
+        /**
+         * Start an incremental segmentation of raw keystrokes, see {@code SceneTree::segmentCursor}.
+         *
+         * @return A cursor of empty input.
+         */
+        public PinyinSegmenter.Cursor segmentCursor() {
+            return SceneTree.this.segmentCursor();
+        }
+
+        /**
+         * Create a sentence decoder scoring words by this session, see {@code LatticeDecoder}.
+         *
+         * @return A decoder of empty input.
+         */
+        public LatticeDecoder decoder() {
+            return new LatticeDecoder(this::topK);
+        }
+
+        /**
+         * Update (or train) the producer model with the user's selection.
+         *
+         * @param pinyin    Pinyin input by the user.
+         * @param selection Candidate word that is selected by the user.
+         */
+        public void updateProducer(String pinyin, String selection) {
+            long start = System.nanoTime();
+            Node current = this.focus();
+            if (this.root.getProducer() == null) {
+                throw new InternalException("Model of root node is missing, might caused by an internal structure error.");
+            }
+            long time = Clock.getTime();
+            String previous = this.previous;
+            SceneTree.this.update(current, pinyin, selection, previous, this.restoresContext, time);
+            if (current != this.root) {
+                SceneTree.this.update(this.root, pinyin, selection, previous, this.restoresContext, time);
+            }
+            this.previous = selection;
+            SceneTree.this.index.insert(pinyin);
+            SceneTree.this.segmenter.learn(pinyin);
+            SceneTree.this.touch();
+            SceneTree.this.metrics.update.record(System.nanoTime() - start);
+        }
+
+        /**
+         * Update (or train) the producer models with a batch of selections,
+         * which ends up the same as {@code Session::updateProducer} on each of them in order,
+         * except that the selections keep their own timestamps. See {@code ScoreProducer::updateBatch}.
+         *
+         * @param events   Selections in the order they are made.
+         * @param parallel Whether to apply the selections of different pinyin in parallel.
+         */
+        public void updateBatch(List<UpdateEvent> events, boolean parallel) {
+            Node current = this.focus();
+            String previous = this.previous;
+            SceneTree.this.updateBatch(current, events, previous, this.restoresContext, parallel);
+            if (current != this.root) {
+                SceneTree.this.updateBatch(this.root, events, previous, this.restoresContext, parallel);
+            }
+            if (!events.isEmpty()) {
+                this.previous = events.get(events.size() - 1).getSelection();
+            }
+            for (UpdateEvent event : events) {
+                SceneTree.this.index.insert(event.getPinyin());
+                SceneTree.this.segmenter.learn(event.getPinyin());
+            }
+            SceneTree.this.touch();
+        }
+
+        /**
+         * Release the scenes focused by the session, no effect if closed already.
+         */
+        @Override
+        public void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.release();
+        }
+
+        private void release() {
+            this.current.unpin();
+            if (this.old != null) {
+                this.old.unpin();
+                this.old = null;
+            }
+        }
+
+        /**
+         * Make sure the current scene has a model, after falling back to the root if the tree has been reloaded.
+         */
+        private Node focus() {
+            this.refresh();
+            SceneTree.this.ensureProducer(this.current);
+            return this.current;
+        }
+
+        private void refresh() {
+            Node root = SceneTree.this.root;
+            if (this.root != root) {
+                this.release();
+                this.root = root;
+                this.current = root;
+                this.current.pin();
+                this.previous = this.initialContext(root);
+            }
+        }
+
+        private float calcWeight() {
+            long duration = (Clock.getTime() - this.lastStep) / 1000;
+            return (float) 1 / (duration + 2);
+        }
+    }
+
+    /**
+     * @param previous    Word selected before in the session, for context-aware models.
+     * @param keepContext Whether to keep the selection as the context of a context-aware model.
+     */
+    private void update(@NotNull Node node, String pinyin, String selection, @Nullable String previous,
+                        boolean keepContext, long time) {
+        this.withWriteLock(node, () -> {
+            if (node.getProducer() instanceof ContextAware aware) {
+                aware.update(pinyin, selection, previous, time);
+                node.record(this.parent, pinyin, selection, previous, time);
+                if (keepContext) {
+                    aware.setContext(selection);
+                }
+            } else {
+                node.getProducer().update(pinyin, selection, time);
+                node.record(this.parent, pinyin, selection, time);
+            }
+            this.scoreCache.invalidate(pinyin);
+        });
+    }
+
+    private void updateBatch(@NotNull Node node, List<UpdateEvent> events, @Nullable String previous,
+                             boolean keepContext, boolean parallel) {
+        this.withWriteLock(node, () -> {
+            ContextAware aware = node.getProducer() instanceof ContextAware a ? a : null;
+            if (aware != null) {
+                aware.updateBatch(events, previous, parallel);
+            } else {
+                node.getProducer().updateBatch(events, parallel);
+            }
+            String context = previous;
+            for (UpdateEvent event : events) {
+                if (aware != null) {
+                    node.record(this.parent, event.getPinyin(), event.getSelection(), context, event.getTime());
+                    context = event.getSelection();
+                } else {
+                    node.record(this.parent, event.getPinyin(), event.getSelection(), event.getTime());
+                }
+                this.scoreCache.invalidate(event.getPinyin());
+            }
+            if (aware != null && keepContext && !events.isEmpty()) {
+                aware.setContext(context);
+            }
+        });
+    }
+
+    /**
+     * Context kept by the model of a node, {@code null} if the model is not context-aware or not loaded.
+     */
+    private static @Nullable String contextOf(@NotNull Node node) {
+        Lock lock = node.lock.readLock();
+        lock.lock();
+        try {
+            return node.hasProducer() && node.getProducer() instanceof ContextAware aware ? aware.getContext() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Context the scores of a scene pair depend on, the previous word if any of the models is context-aware,
+     * so that the cached scores of a context are never served in another, see {@code ScoreCache}.
+     */
+    private static @Nullable String contextKey(@NotNull Node current, @Nullable Node old, @Nullable String previous) {
+        if (previous == null) {
+            return null;
+        }
+        boolean aware = current.getProducer() instanceof ContextAware
+            || (old != null && old.getProducer() instanceof ContextAware);
+        return aware ? previous : null;
+    }
+
+    private static Map<String, Float> scoresOf(ScoreProducer producer, String pinyin, @Nullable String previous) {
+        return producer instanceof ContextAware aware ? aware.getScores(pinyin, previous) : producer.getScores(pinyin);
+    }
+
+    private static List<BiType<String, Float>> topKOf(ScoreProducer producer, String pinyin, int k,
+                                                    @Nullable String previous) {
+        return producer instanceof ContextAware aware ? aware.topK(pinyin, k, previous) : producer.topK(pinyin, k);
+    }
+
+    private static float scoreOf(ScoreProducer producer, String pinyin, String candidate, @Nullable String previous) {
+        return producer instanceof ContextAware aware
+            ? aware.getScore(pinyin, candidate, previous)
+            : producer.getScore(pinyin, candidate);
+    }
+
+    /**
+     * Run a write under the write lock of a node, and under the read lock of the root for a scene node,
+     * since scene models read the root model on learning, see {@code OverlayDictionModel::update}.
+     * The root is locked first, in the order of {@code SceneTree::withReadLocks}.
+     */
+    private void withWriteLock(@NotNull Node node, @NotNull Runnable write) {
+        Node root = this.root;
+        Lock base = node == root ? null : root.lock.readLock();
+        if (base != null) {
+            base.lock();
+        }
+        try {
+            Lock lock = node.lock.writeLock();
+            lock.lock();
+            try {
+                write.run();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            if (base != null) {
+                base.unlock();
+            }
+        }
+    }
+
+    /**
+     * Run a query under the read locks of some nodes, taken in the order the nodes were created,
+     * so that a query never holds a lock another query is waiting for behind a writer.
+     * A node listed more than once is locked once.
+     */
+    private static <T> T withReadLocks(@NotNull List<Node> nodes, @NotNull Supplier<T> query) {
+        Node[] sorted = nodes.toArray(new Node[0]);
+        if (sorted.length > 1) {
+            Arrays.sort(sorted, Comparator.comparingLong(node -> node.order));
+        }
+        int locked = 0;
+        try {
+            for (Node node : sorted) {
+                if (locked > 0 && sorted[locked - 1] == node) {
+                    continue;
+                }
+                sorted[locked++] = node;
+                node.lock.readLock().lock();
+            }
+            return query.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; --i) {
+                sorted[i].lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes of a scene node captured by {@code Node::snapshot}, performed without locking the node.
+     */
+    private static class Flush {
+        private final @NotNull Node node;
+        private final @NotNull Path dir;
+        /* copy of the producer to rewrite the model file with, null to append the journal only */
+        private final @Nullable ScoreProducer model;
+        private final @Nullable UpdateJournal journal;
+        private final byte @NotNull [] drained;
+
+        private Flush(@NotNull Node node, @NotNull Path dir, @Nullable ScoreProducer model,
+                      @Nullable UpdateJournal journal, byte @NotNull [] drained) {
+            this.node = node;
+            this.dir = dir;
+            this.model = model;
+            this.journal = journal;
+            this.drained = drained;
+        }
+
+        /**
+         * @return Amount of bytes written.
+         */
+        private long write() throws IOException {
+            File dir = this.dir.toFile();
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+            if (this.model != null) {
+                this.node.awaitCompaction();
+                if (this.journal != null) {
+                    this.journal.fold(this.model, true);
+                } else {
+                    this.model.dump(this.dir);
+                }
+                return this.dir.resolve(this.model.getIdentifier() + ScoreProducer.POST_FIX).toFile().length();
+            } else if (this.journal != null) {
+                this.journal.write(this.drained);
+                return this.drained.length;
+            }
+            return 0;
         }
     }
 
@@ -183,23 +1178,54 @@ public class SceneTree {
         if (!path.getName(0).equals(this.getName())) {
             throw new IllegalArgumentException("Relative path does not belong to this SceneTree");
         }
+        Map<Path, Node> nodes = this.nodes;
         Node former = this.root, node = null;
         for (int i = 1; i < path.getNameCount(); ++i) {
             Path route = path.subpath(0, i + 1);
-            node = this.nodes.get(route);
-            if (node == null) {
-                node = Node.create(path);
-                node.setParent(former);
-                this.nodes.put(route, node);
-            }
+            Node parent = former;
+            node = nodes.computeIfAbsent(route, key -> {
+                Node created = Node.create(key);
+                created.setParent(parent);
+                return created;
+            });
             former = node;
         }
         return node;
     }
 
-    private float calcWeight() {
-        long duration = (Clock.getTime() - this.lastStep) / 1000;
-        return (float) 1 / (duration + 2);
+    /**
+     * Threshold algorithm over the ranked lists of two producers.<br/>
+     * Any candidate beyond the scanned depth of both lists scores no more than the blended scores
+     * at that depth, so the scan stops as soon as the k-th blended score reaches that threshold.
+     */
+    private static List<BiType<String, Float>> blendTopK(String pinyin, int k, @Nullable String previous,
+                                                        ScoreProducer a, float weightA,
+                                                        ScoreProducer b, float weightB) {
+        for (int depth = k; ; depth = depth > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : depth * 2) {
+            List<BiType<String, Float>> rankedA = topKOf(a, pinyin, depth, previous);
+            List<BiType<String, Float>> rankedB = topKOf(b, pinyin, depth, previous);
+            Map<String, Float> blended = new HashMap<>();
+            for (BiType<String, Float> entry : rankedA) {
+                String candidate = entry.getA();
+                blended.put(candidate, entry.getB() * weightA + scoreOf(b, pinyin, candidate, previous) * weightB);
+            }
+            for (BiType<String, Float> entry : rankedB) {
+                String candidate = entry.getA();
+                if (!blended.containsKey(candidate)) {
+                    blended.put(candidate, scoreOf(a, pinyin, candidate, previous) * weightA + entry.getB() * weightB);
+                }
+            }
+            List<BiType<String, Float>> ranked = Ranking.top(blended, k);
+            boolean moreA = rankedA.size() == depth, moreB = rankedB.size() == depth;
+            if (!moreA && !moreB) {
+                return ranked;
+            }
+            float threshold = (moreA ? rankedA.get(depth - 1).getB() * weightA : 0)
+                + (moreB ? rankedB.get(depth - 1).getB() * weightB : 0);
+            if (ranked.size() == k && ranked.get(k - 1).getB() >= threshold) {
+                return ranked;
+            }
+        }
     }
 
     private Path calcRelative(Path program, Path box) {
@@ -208,11 +1234,25 @@ public class SceneTree {
     }
 
     private static class Node {
+        private static final AtomicLong ORDER = new AtomicLong();
+
         private final Path path;
-        private ScoreProducer producer = null;
-        private final Set<Node> children = new HashSet<>();
-        private @Nullable Node parent = null;
+        /* lock order of the node, see SceneTree::withReadLocks */
+        private final long order = ORDER.getAndIncrement();
+        /* guards the producer and the persistence state below */
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile ScoreProducer producer = null;
+        private final Set<Node> children = ConcurrentHashMap.newKeySet();
+        private volatile @Nullable Node parent = null;
         private boolean dirty = false;
+        /* whether the model file of the node exists, so its selections can be journaled */
+        private boolean persisted = false;
+        private @Nullable UpdateJournal journal = null;
+        private volatile @Nullable Future<?> compaction = null;
+        /* whether the model has been looked for on the file system */
+        private volatile boolean loaded = false;
+        /* amount of sessions focusing the node */
+        private final AtomicInteger pins = new AtomicInteger();
 
         /**
          * Instantiate a Node
@@ -223,18 +1263,6 @@ public class SceneTree {
             this.path = path;
         }
 
-        /**
-         * Create a node that is new, which involves dirty-marking.
-         *
-         * @param path Relative path of a scene node.
-         */
-        public static Node load(Path path, Path root) {
-            Node node = new Node(path);
-            ScoreProducer producer = ScoreProducer.genericLoad(root.resolve(path));
-            node.setProducer(producer);
-            return node;
-        }
-
         /**
          * Create a node that is new, which involves dirty-marking.
          *
@@ -242,6 +1270,7 @@ public class SceneTree {
          */
         public static Node create(Path path) {
             Node node = new Node(path);
+            node.loaded = true;
             node.markDirty();
             return node;
         }
@@ -268,29 +1297,6 @@ public class SceneTree {
             this.producer = producer;
         }
 
-        /**
-         * Generically create a producer for the node. <br/>
-         * If the node has no parent, create a defaulted score producer model. <br/>
-         * If the node has the parent, create the score producer with its siblings and
-         * root node of the SceneTree.
-         *
-         * @param root Root node of the SceneTree.
-         */
-        public void createProducer(@NotNull ScoreProducer root) {
-            if (this.isRoot()) {
-                this.setProducer(ScoreProducer.create("default"));
-                return;
-            }
-            Collection<Node> siblings = this.parent.getChildren();
-            Collection<ScoreProducer> producers = new ArrayList<>();
-            for (Node sibling : siblings) {
-                if (sibling.hasProducer()) {
-                    producers.add(sibling.getProducer());
-                }
-            }
-            this.producer = root.mergeWith(producers);
-        }
-
         protected Set<Node> getChildren() {
             return this.children;
         }
@@ -310,6 +1316,21 @@ public class SceneTree {
             return this.getParent() == null;
         }
 
+        public void pin() {
+            this.pins.incrementAndGet();
+        }
+
+        public void unpin() {
+            this.pins.decrementAndGet();
+        }
+
+        /**
+         * Whether any session focuses the node, so its model must stay loaded.
+         */
+        public boolean isPinned() {
+            return this.pins.get() > 0;
+        }
+
         /**
          * Mark the node as dirty, which means the node should be dumped in proper situations.<br/>
          */
@@ -321,39 +1342,206 @@ public class SceneTree {
          * Whether the node is dirty and should be dumped in proper situations.<br/>
          */
         public boolean isDirty() {
-            return this.dirty || (this.producer != null && this.producer.isDirty());
+            if (this.producer == null) {
+                return this.dirty;
+            }
+            return this.dirty || !this.persisted || (this.journal != null && this.journal.hasPending());
         }
 
         /**
-         * Dump the node into file system.
+         * Journal a selection that is applied to the producer, no effect before the model is dumped once.
          *
          * @param root Absolute path to the root node of the SceneTree.
          */
-        public void dump(@NotNull Path root) {
+        public void record(@NotNull Path root, String pinyin, String selection, long time) {
+            if (this.persisted) {
+                this.getJournal(root).append(pinyin, selection, time);
+            }
+        }
+
+        /**
+         * Journal a selection made after a word, see {@code ContextAware::update}.
+         *
+         * @param root Absolute path to the root node of the SceneTree.
+         */
+        public void record(@NotNull Path root, String pinyin, String selection, @Nullable String previous, long time) {
+            if (this.persisted) {
+                this.getJournal(root).append(pinyin, selection, previous, time);
+            }
+        }
+
+        /**
+         * Journal a score the overlay of the node copies from its bases before a selection,
+         * see {@code OverlayDictionModel::setSeedListener}.
+         *
+         * @param root Absolute path to the root node of the SceneTree.
+         */
+        public void recordSeed(@NotNull Path root, String pinyin, String candidate, float score, long time) {
+            if (this.persisted) {
+                this.getJournal(root).appendSeed(pinyin, candidate, score, time);
+            }
+        }
+
+        /**
+         * Capture what the node has to persist, called with the node locked.<br/>
+         * A model that is not on disk yet is copied, otherwise only the buffered journal is taken.
+         * The node counts as persisted from now on, so selections made while the snapshot is written are journaled.
+         *
+         * @param root Absolute path to the root node of the SceneTree.
+         * @param full Whether to rewrite the model, otherwise only the journaled selections are appended.
+         */
+        public @NotNull Flush snapshot(@NotNull Path root, boolean full) {
             Path absolute = root.resolve(this.getPath());
-            File dir = absolute.toFile();
-            if (!dir.exists()) {
-                dir.mkdirs();
+            this.dirty = false;
+            if (this.producer == null) {
+                return new Flush(this, absolute, null, null, new byte[0]);
             }
-            if (this.isProducerDirty()) {
-                this.getProducer().dump(absolute);
+            UpdateJournal journal = this.getJournal(root);
+            byte[] drained = journal.drain();
+            if (full || !this.persisted) {
+                this.persisted = true;
+                return new Flush(this, absolute, this.producer.copy(), journal, new byte[0]);
             }
+            return new Flush(this, absolute, null, journal, drained);
         }
 
         /**
-         * Load the node from file system.
+         * Rotate the journal and fold it into the model file on the executor if it exceeds the threshold.<br/>
+         * The model is loaded from the file rather than copied from memory,
+         * so the live producer is never touched by the executor.
+         * The segment is folded exactly once even across a crash, see {@code UpdateJournal::fold}.
+         *
+         * @param root      Absolute path to the root node of the SceneTree.
+         * @param executor  Executor to run the compaction.
+         * @param threshold Journal size in bytes that triggers the compaction.
+         * @param base      Model to attach if the node holds an overlay, see {@code OverlayDictionModel::setBases},
+         *                  which is not read since the replay restores the journaled seeds.
+         */
+        public void compact(@NotNull Path root, @NotNull ExecutorService executor, long threshold,
+                            @Nullable ScoreProducer base) {
+            UpdateJournal journal;
+            Lock lock = this.lock.readLock();
+            lock.lock();
+            try {
+                journal = this.persisted ? this.journal : null;
+            } finally {
+                lock.unlock();
+            }
+            Future<?> running = this.compaction;
+            if (journal == null || (running != null && !running.isDone())) {
+                return;
+            }
+            Path absolute = root.resolve(this.getPath());
+            try {
+                if (journal.size() < threshold) {
+                    return;
+                }
+                Path segment = journal.rotate();
+                if (segment == null) {
+                    return;
+                }
+                this.compaction = executor.submit(() -> {
+                    ScoreProducer model = ScoreProducer.genericLoad(absolute);
+                    if (model == null) {
+                        throw new IOException("Model of %s is missing, compaction aborted".formatted(absolute));
+                    }
+                    if (model instanceof OverlayDictionModel overlay && base != null) {
+                        overlay.setBases(List.of(base));
+                    }
+                    UpdateJournal.replay(segment, model);
+                    journal.fold(model, false);
+                    return null;
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Wait for the running compaction of the node, if any.
+         */
+        public void awaitCompaction() {
+            Future<?> compaction = this.compaction;
+            if (compaction == null) {
+                return;
+            }
+            try {
+                compaction.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                this.compaction = null;
+            }
+        }
+
+        /**
+         * Load the node from file system, then replay the selections in its update journal.
          *
          * @param root Absolute path to the root node of the SceneTree.
+         * @param base Model to attach if the node holds an overlay, see {@code OverlayDictionModel::setBases}.
          */
-        public void load(@NotNull Path root) {
-            this.setProducer(ScoreProducer.genericLoad(root.resolve(this.getPath())));
+        public void load(@NotNull Path root, @Nullable ScoreProducer base) {
+            try {
+                this.getJournal(root).recover();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            ScoreProducer producer = ScoreProducer.genericLoad(root.resolve(this.getPath()));
+            if (producer != null && producer.isReadOnly()) {
+                throw new RuntimeException(("Model %s of scene %s is read-only and can not learn selections, " +
+                    "pass it as the lexicon of the SceneTree instead").formatted(producer.getIdentifier(), this.getPath()));
+            }
+            this.persisted = producer != null;
+            if (producer instanceof OverlayDictionModel overlay && base != null) {
+                overlay.setBases(List.of(base));
+            }
+            if (producer != null) {
+                try {
+                    this.getJournal(root).replay(producer);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            this.setProducer(producer);
+            this.loaded = true;
         }
 
         /**
-         * Whether the producer is dirty and should be dumped in proper situations.
+         * Whether the model has been loaded, or the node is new.
          */
-        private boolean isProducerDirty() {
-            return this.producer != null && this.producer.isDirty();
+        public boolean isLoaded() {
+            return this.loaded;
+        }
+
+        /**
+         * Drop the model from memory, only for clean nodes, it is loaded again on next use.
+         */
+        public void unload() {
+            this.producer = null;
+            this.journal = null;
+            this.loaded = false;
+        }
+
+        /**
+         * Estimated heap usage of the model, see {@code ScoreProducer::estimateBytes}.
+         */
+        public long estimateBytes() {
+            Lock lock = this.lock.readLock();
+            lock.lock();
+            try {
+                return this.producer == null ? 0 : this.producer.estimateBytes();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private UpdateJournal getJournal(@NotNull Path root) {
+            if (this.journal == null) {
+                this.journal = new UpdateJournal(root.resolve(this.getPath()));
+            }
+            return this.journal;
         }
 
         @Override
@@ -369,4 +1557,4 @@ public class SceneTree {
             return Objects.hash(path);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,155 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of a SceneTree, exposed as an MBean by {@code SceneTree::registerMBean}.<br/>
+ * Recording only touches atomics, so the query path is never slowed down by allocation.
+ * Gauges such as the node count are read from the tree when they are queried.
+ */
+public class SceneTreeMetrics implements SceneTreeMetricsMBean {
+    private final @NotNull SceneTree tree;
+    final LatencyHistogram query = new LatencyHistogram();
+    final LatencyHistogram update = new LatencyHistogram();
+    final LatencyHistogram dump = new LatencyHistogram();
+    final LatencyHistogram load = new LatencyHistogram();
+    final AtomicLong bytesWritten = new AtomicLong();
+    final AtomicLong sceneSwitches = new AtomicLong();
+
+    SceneTreeMetrics(@NotNull SceneTree tree) {
+        this.tree = tree;
+    }
+
+    @Override
+    public long getQueryCount() {
+        return this.query.getCount();
+    }
+
+    @Override
+    public double getQueryLatencyMean() {
+        return this.query.getMean();
+    }
+
+    @Override
+    public long getQueryLatencyP50() {
+        return this.query.getPercentile(0.5);
+    }
+
+    @Override
+    public long getQueryLatencyP99() {
+        return this.query.getPercentile(0.99);
+    }
+
+    @Override
+    public long getQueryLatencyP999() {
+        return this.query.getPercentile(0.999);
+    }
+
+    @Override
+    public long getQueryLatencyMax() {
+        return this.query.getMax();
+    }
+
+    @Override
+    public long getUpdateCount() {
+        return this.update.getCount();
+    }
+
+    @Override
+    public double getUpdateLatencyMean() {
+        return this.update.getMean();
+    }
+
+    @Override
+    public long getUpdateLatencyP50() {
+        return this.update.getPercentile(0.5);
+    }
+
+    @Override
+    public long getUpdateLatencyP99() {
+        return this.update.getPercentile(0.99);
+    }
+
+    @Override
+    public long getUpdateLatencyP999() {
+        return this.update.getPercentile(0.999);
+    }
+
+    @Override
+    public long getUpdateLatencyMax() {
+        return this.update.getMax();
+    }
+
+    @Override
+    public long getDumpCount() {
+        return this.dump.getCount();
+    }
+
+    @Override
+    public double getDumpDurationMean() {
+        return this.dump.getMean();
+    }
+
+    @Override
+    public long getDumpDurationP99() {
+        return this.dump.getPercentile(0.99);
+    }
+
+    @Override
+    public long getDumpDurationMax() {
+        return this.dump.getMax();
+    }
+
+    /**
+     * Bytes of model files and journals written by dumps.
+     */
+    @Override
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    @Override
+    public long getModelLoadCount() {
+        return this.load.getCount();
+    }
+
+    @Override
+    public double getModelLoadTimeMean() {
+        return this.load.getMean();
+    }
+
+    @Override
+    public long getModelLoadTimeP99() {
+        return this.load.getPercentile(0.99);
+    }
+
+    @Override
+    public long getModelLoadTimeMax() {
+        return this.load.getMax();
+    }
+
+    @Override
+    public long getSceneSwitches() {
+        return this.sceneSwitches.get();
+    }
+
+    @Override
+    public int getNodeCount() {
+        return this.tree.countNodes();
+    }
+
+    /**
+     * Loaded models including the root one.
+     */
+    @Override
+    public int getLoadedModelCount() {
+        return this.tree.countLoaded() + 1;
+    }
+
+    @Override
+    public long getEstimatedModelBytes() {
+        return this.tree.estimateBytes();
+    }
+}
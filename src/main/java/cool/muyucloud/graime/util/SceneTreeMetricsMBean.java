@@ -0,0 +1,56 @@
+package cool.muyucloud.graime.util;
+
+/**
+ * JMX view of {@code SceneTreeMetrics}, latencies are in nanoseconds.
+ */
+public interface SceneTreeMetricsMBean {
+    long getQueryCount();
+
+    double getQueryLatencyMean();
+
+    long getQueryLatencyP50();
+
+    long getQueryLatencyP99();
+
+    long getQueryLatencyP999();
+
+    long getQueryLatencyMax();
+
+    long getUpdateCount();
+
+    double getUpdateLatencyMean();
+
+    long getUpdateLatencyP50();
+
+    long getUpdateLatencyP99();
+
+    long getUpdateLatencyP999();
+
+    long getUpdateLatencyMax();
+
+    long getDumpCount();
+
+    double getDumpDurationMean();
+
+    long getDumpDurationP99();
+
+    long getDumpDurationMax();
+
+    long getBytesWritten();
+
+    long getModelLoadCount();
+
+    double getModelLoadTimeMean();
+
+    long getModelLoadTimeP99();
+
+    long getModelLoadTimeMax();
+
+    long getSceneSwitches();
+
+    int getNodeCount();
+
+    int getLoadedModelCount();
+
+    long getEstimatedModelBytes();
+}
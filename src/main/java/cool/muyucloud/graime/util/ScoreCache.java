@@ -0,0 +1,255 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Bounded LRU cache of the scores queried in a pair of scenes, keyed by (current scene, old scene, context, pinyin),
+ * where the context is the previous word for context-aware models, see {@code ContextAware}.<br/>
+ * The scores of both scenes are kept apart, so a hit is blended again with the weight of the moment
+ * instead of querying the models. An update of a pinyin drops its entries of every scene pair,
+ * since scene models read through to the root model, which is updated by every selection.
+ * Entries older than {@code maxAge} are dropped as well, since scores fade with time.
+ * <p>
+ * Thread-safe, methods never lock anything but the cache itself.
+ */
+public class ScoreCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_MAX_AGE = 60000;
+
+    private int capacity;
+    private final long maxAge;
+    private final @NotNull LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    /* keys of the entries of every pinyin, to invalidate a pinyin without scanning */
+    private final @NotNull Map<String, Set<Key>> byPinyin = new HashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    public ScoreCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param capacity Maximum amount of entries, {@code 0} to disable the cache.
+     * @param maxAge   Milliseconds for an entry to live.
+     */
+    public ScoreCache(int capacity, long maxAge) {
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Look up the scores of a pinyin in a pair of scenes, which counts as a hit or a miss.
+     *
+     * @param current Key of the current scene.
+     * @param old     Key of the old scene, {@code null} if there is none.
+     * @return Cached scores, {@code null} if absent or expired.
+     */
+    public @Nullable Entry get(@NotNull Object current, @Nullable Object old, @NotNull String pinyin) {
+        return this.get(current, old, null, pinyin);
+    }
+
+    /**
+     * Look up the scores of a pinyin in a pair of scenes queried in a context, which counts as a hit or a miss.
+     *
+     * @param current Key of the current scene.
+     * @param old     Key of the old scene, {@code null} if there is none.
+     * @param context Context the scores depend on, compared by {@code equals}, {@code null} for none.
+     * @return Cached scores, {@code null} if absent or expired.
+     */
+    public synchronized @Nullable Entry get(@NotNull Object current, @Nullable Object old, @Nullable Object context,
+                                            @NotNull String pinyin) {
+        Key key = new Key(current, old, context, pinyin);
+        Entry entry = this.entries.get(key);
+        if (entry != null && Clock.getTime() - entry.time > this.maxAge) {
+            this.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            ++this.misses;
+        } else {
+            ++this.hits;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache the scores of a pinyin in a pair of scenes.<br/>
+     * Called while the models of both scenes are locked for reading,
+     * so that an update of the models can not be missed by the entry.
+     *
+     * @param currentScores Scores of the current scene, kept as is and never modified.
+     * @param oldScores     Scores of the old scene, {@code null} if there is no old scene.
+     * @return The cached entry.
+     */
+    public @NotNull Entry put(@NotNull Object current, @Nullable Object old, @NotNull String pinyin,
+                              @NotNull Map<String, Float> currentScores, @Nullable Map<String, Float> oldScores) {
+        return this.put(current, old, null, pinyin, currentScores, oldScores);
+    }
+
+    /**
+     * Cache the scores of a pinyin in a pair of scenes queried in a context, see {@code ScoreCache::put}.
+     *
+     * @param context Context the scores depend on, compared by {@code equals}, {@code null} for none.
+     */
+    public synchronized @NotNull Entry put(@NotNull Object current, @Nullable Object old, @Nullable Object context,
+                                           @NotNull String pinyin, @NotNull Map<String, Float> currentScores,
+                                           @Nullable Map<String, Float> oldScores) {
+        Entry entry = new Entry(currentScores, oldScores, Clock.getTime());
+        if (this.capacity <= 0) {
+            return entry;
+        }
+        Key key = new Key(current, old, context, pinyin);
+        this.entries.put(key, entry);
+        this.byPinyin.computeIfAbsent(pinyin, k -> new HashSet<>()).add(key);
+        Iterator<Key> iterator = this.entries.keySet().iterator();
+        while (this.entries.size() > this.capacity) {
+            Key eldest = iterator.next();
+            iterator.remove();
+            this.unindex(eldest);
+        }
+        return entry;
+    }
+
+    /**
+     * Drop the entries of a pinyin in every scene pair, called once the pinyin is updated in any scene.
+     */
+    public synchronized void invalidate(@NotNull String pinyin) {
+        Set<Key> keys = this.byPinyin.remove(pinyin);
+        if (keys == null) {
+            return;
+        }
+        for (Key key : keys) {
+            this.entries.remove(key);
+        }
+        this.invalidations += keys.size();
+    }
+
+    /**
+     * Drop every entry, statistics are kept.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.byPinyin.clear();
+    }
+
+    /**
+     * @param capacity Maximum amount of entries, {@code 0} to disable the cache.
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        Iterator<Key> iterator = this.entries.keySet().iterator();
+        while (this.entries.size() > Math.max(capacity, 0)) {
+            Key eldest = iterator.next();
+            iterator.remove();
+            this.unindex(eldest);
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return this.hits;
+    }
+
+    public synchronized long getMissCount() {
+        return this.misses;
+    }
+
+    /**
+     * Amount of entries dropped by updates.
+     */
+    public synchronized long getInvalidationCount() {
+        return this.invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long total = this.hits + this.misses;
+        return total == 0 ? 0 : (double) this.hits / total;
+    }
+
+    private void remove(Key key) {
+        this.entries.remove(key);
+        this.unindex(key);
+    }
+
+    private void unindex(Key key) {
+        Set<Key> keys = this.byPinyin.get(key.pinyin);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                this.byPinyin.remove(key.pinyin);
+            }
+        }
+    }
+
+    /**
+     * Scores of both scenes at the time of caching, blend them with {@code Entry::blend}.
+     */
+    public static class Entry {
+        private final @NotNull Map<String, Float> current;
+        private final @Nullable Map<String, Float> old;
+        private final long time;
+
+        private Entry(@NotNull Map<String, Float> current, @Nullable Map<String, Float> old, long time) {
+            this.current = current;
+            this.old = old;
+            this.time = time;
+        }
+
+        /**
+         * Blend the scores of both scenes.
+         *
+         * @param weight Weight of the old scene, ignored if there is no old scene.
+         * @return A new map of blended scores.
+         */
+        public @NotNull Map<String, Float> blend(float weight) {
+            if (this.old == null) {
+                return new HashMap<>(this.current);
+            }
+            Map<String, Float> integrated = new HashMap<>();
+            for (Map.Entry<String, Float> entry : this.current.entrySet()) {
+                integrated.put(entry.getKey(), entry.getValue() * (1 - weight));
+            }
+            for (Map.Entry<String, Float> entry : this.old.entrySet()) {
+                integrated.merge(entry.getKey(), entry.getValue() * weight, Float::sum);
+            }
+            return integrated;
+        }
+    }
+
+    private static class Key {
+        private final @NotNull Object current;
+        private final @Nullable Object old;
+        private final @Nullable Object context;
+        private final @NotNull String pinyin;
+
+        private Key(@NotNull Object current, @Nullable Object old, @Nullable Object context, @NotNull String pinyin) {
+            this.current = current;
+            this.old = old;
+            this.context = context;
+            this.pinyin = pinyin;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return current == key.current && old == key.old && Objects.equals(context, key.context)
+                && pinyin.equals(key.pinyin);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(current) * 31 + System.identityHashCode(old);
+            return (hash * 31 + Objects.hashCode(context)) * 31 + pinyin.hashCode();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package cool.muyucloud.graime.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A dense string table that maps every distinct symbol to an int id.<br/>
+ * Ids are assigned from 0 in interning order and never change.
+ * <p>
+ * Interning is synchronized, while lookups never lock and may run along with an intern,
+ * so a table can be shared by models that are locked apart, see {@code SceneTree::getCandidateSymbols}.
+ * The arrays are published along with the size through a single volatile holder, swapped after each intern.
+ * An intern writes the next entry into the arrays in place before the swap, which a lookup holding an older holder
+ * never reads, since it ignores every id beyond the size of its holder.
+ */
+public class SymbolTable {
+    private static final int EMPTY = 0;
+
+    private volatile @NotNull Entries entries = new Entries(new String[16], new int[16], new int[32], 0);
+
+    /**
+     * Snapshot of the table, its arrays hold every entry below its size.
+     */
+    private static class Entries {
+        private final String[] symbols;
+        private final int[] hashes;
+        /* slot value is id + 1, 0 for empty */
+        private final int[] slots;
+        private final int size;
+
+        private Entries(String[] symbols, int[] hashes, int[] slots, int size) {
+            this.symbols = symbols;
+            this.hashes = hashes;
+            this.slots = slots;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Get the id of a symbol, assign a new one if absent.
+     *
+     * @param symbol Symbol to intern.
+     * @return Id of the symbol.
+     */
+    public synchronized int intern(@NotNull String symbol) {
+        Entries entries = this.entries;
+        int hash = mix(symbol.hashCode());
+        int mask = entries.slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = entries.slots[i];
+            if (slot == EMPTY) {
+                int id = entries.size;
+                String[] symbols = entries.symbols;
+                int[] hashes = entries.hashes;
+                if (id == symbols.length) {
+                    symbols = Arrays.copyOf(symbols, id * 2);
+                    hashes = Arrays.copyOf(hashes, id * 2);
+                }
+                symbols[id] = symbol;
+                hashes[id] = hash;
+                int[] slots = entries.slots;
+                slots[i] = id + 1;
+                if ((id + 1) * 2 > slots.length) {
+                    slots = rehash(hashes, slots.length * 2, id + 1);
+                }
+                // publish the entry
+                this.entries = new Entries(symbols, hashes, slots, id + 1);
+                return id;
+            }
+            int id = slot - 1;
+            if (entries.hashes[id] == hash && entries.symbols[id].equals(symbol)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Get the id of a symbol without interning.
+     *
+     * @param symbol Symbol to look up.
+     * @return Id of the symbol, {@code -1} if absent.
+     */
+    public int find(@NotNull String symbol) {
+        Entries entries = this.entries;
+        int hash = mix(symbol.hashCode());
+        int mask = entries.slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = entries.slots[i];
+            if (slot == EMPTY) {
+                return -1;
+            }
+            int id = slot - 1;
+            // an id beyond the size is being interned, it never matches an entry of the snapshot
+            if (id < entries.size && entries.hashes[id] == hash && symbol.equals(entries.symbols[id])) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Get the symbol of an id.
+     *
+     * @param id Id assigned by {@code SymbolTable::intern}.
+     * @return The symbol, {@code null} if the id is out of range.
+     */
+    public @Nullable String get(int id) {
+        Entries entries = this.entries;
+        return id >= 0 && id < entries.size ? entries.symbols[id] : null;
+    }
+
+    /**
+     * Amount of interned symbols, also the next id to be assigned.
+     */
+    public int size() {
+        return this.entries.size;
+    }
+
+    /**
+     * Fully copy the table, ids are kept the same.
+     *
+     * @return A copied table that would no longer bring changes on the original one.
+     */
+    public synchronized @NotNull SymbolTable copy() {
+        Entries entries = this.entries;
+        SymbolTable copied = new SymbolTable();
+        copied.entries = new Entries(entries.symbols.clone(), entries.hashes.clone(), entries.slots.clone(),
+            entries.size);
+        return copied;
+    }
+
+    /**
+     * Estimated heap usage of the table itself, symbol strings excluded.
+     */
+    public long estimateBytes() {
+        Entries entries = this.entries;
+        return 16L + 4L * entries.symbols.length + 4L * entries.hashes.length + 4L * entries.slots.length;
+    }
+
+    private static int[] rehash(int[] hashes, int capacity, int count) {
+        int[] slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < count; ++id) {
+            int i = hashes[id] & mask;
+            while (slots[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+        return slots;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
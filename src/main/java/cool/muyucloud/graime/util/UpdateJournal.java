@@ -0,0 +1,341 @@
+package cool.muyucloud.graime.util;
+
+import cool.muyucloud.graime.model.ContextAware;
+import cool.muyucloud.graime.model.OverlayDictionModel;
+import cool.muyucloud.graime.model.ScoreProducer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.DirectoryStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only journal of the selections applied to the producer model of a scene node.<br/>
+ * Selections are buffered in memory and appended to {@code update.journal} on flush,
+ * so persisting a selection costs a few bytes of sequential I/O instead of rewriting the model.<br/>
+ * On compaction the journal is rotated into {@code update.journal.compacting},
+ * which is replayed onto the model file and folded into it, see {@code UpdateJournal::fold}.
+ * <p>
+ * Record layout: {@code short length, UTF-8 pinyin, short length, UTF-8 selection, long time}.
+ * A selection made after a word, see {@code ContextAware::update}, sets the top bit of the pinyin length
+ * and has {@code short length, UTF-8 previous word} before the time, of length 0 for none.
+ * A score copied from the bases of an overlay, see {@code OverlayDictionModel::setSeedListener},
+ * sets the second bit instead and is laid out as {@code short length, UTF-8 pinyin, short length, UTF-8 candidate,
+ * float score, long time}, so replaying never reads the bases as they are at that later moment.
+ * A record torn by a crash is dropped on replay.
+ */
+public class UpdateJournal {
+    public static final String FILE_NAME = "update.journal";
+    public static final String COMPACTING_POST_FIX = ".compacting";
+    public static final String FOLD_FILE_NAME = "update.journal.fold";
+    public static final String FOLDED_POST_FIX = ".folded";
+    /* flag on the pinyin length of a record with a previous word */
+    private static final int CONTEXTUAL = 0x8000;
+    /* flag on the pinyin length of a score copied from the bases of an overlay */
+    private static final int SEED = 0x4000;
+    private static final int MAX_LENGTH = 0x3FFF;
+
+    private final @NotNull Path dir;
+    private final @NotNull Path file;
+    private final @NotNull Path compacting;
+    private final @NotNull Path marker;
+    private byte[] pending = new byte[256];
+    private int pendingSize = 0;
+
+    /**
+     * @param dir Directory of the scene node.
+     */
+    public UpdateJournal(@NotNull Path dir) {
+        this.dir = dir;
+        this.file = dir.resolve(FILE_NAME);
+        this.compacting = dir.resolve(FILE_NAME + COMPACTING_POST_FIX);
+        this.marker = dir.resolve(FOLD_FILE_NAME);
+    }
+
+    /**
+     * Buffer a selection, it is persisted on the next flush.
+     */
+    public void append(@NotNull String pinyin, @NotNull String selection, long time) {
+        this.append(pinyin, selection, null, false, time);
+    }
+
+    /**
+     * Buffer a selection made after a word, it is replayed with {@code ContextAware::update}.
+     *
+     * @param previous Word selected before, {@code null} for none.
+     */
+    public void append(@NotNull String pinyin, @NotNull String selection, @Nullable String previous, long time) {
+        this.append(pinyin, selection, previous, true, time);
+    }
+
+    private void append(@NotNull String pinyin, @NotNull String selection, @Nullable String previous,
+                        boolean contextual, long time) {
+        byte[] pinyinBytes = encode(pinyin);
+        byte[] selectionBytes = encode(selection);
+        byte[] previousBytes = previous == null ? new byte[0] : encode(previous);
+        int size = 2 + pinyinBytes.length + 2 + selectionBytes.length + 8;
+        if (contextual) {
+            size += 2 + previousBytes.length;
+        }
+        ByteBuffer buffer = this.reserve(size);
+        buffer.putShort((short) (contextual ? pinyinBytes.length | CONTEXTUAL : pinyinBytes.length)).put(pinyinBytes);
+        buffer.putShort((short) selectionBytes.length).put(selectionBytes);
+        if (contextual) {
+            buffer.putShort((short) previousBytes.length).put(previousBytes);
+        }
+        buffer.putLong(time);
+    }
+
+    /**
+     * Buffer a score copied from the bases of an overlay, it is restored as is on replay.
+     */
+    public void appendSeed(@NotNull String pinyin, @NotNull String candidate, float score, long time) {
+        byte[] pinyinBytes = encode(pinyin);
+        byte[] candidateBytes = encode(candidate);
+        ByteBuffer buffer = this.reserve(2 + pinyinBytes.length + 2 + candidateBytes.length + 4 + 8);
+        buffer.putShort((short) (pinyinBytes.length | SEED)).put(pinyinBytes);
+        buffer.putShort((short) candidateBytes.length).put(candidateBytes);
+        buffer.putFloat(score).putLong(time);
+    }
+
+    private ByteBuffer reserve(int size) {
+        if (this.pendingSize + size > this.pending.length) {
+            this.pending = Arrays.copyOf(this.pending, Math.max(this.pending.length * 2, this.pendingSize + size));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(this.pending, this.pendingSize, size);
+        this.pendingSize += size;
+        return buffer;
+    }
+
+    /**
+     * Whether some selections are buffered but not persisted yet.
+     */
+    public boolean hasPending() {
+        return this.pendingSize > 0;
+    }
+
+    /**
+     * Append the buffered selections to the journal file and force them to the storage.
+     */
+    public void flush() throws IOException {
+        this.write(this.drain());
+    }
+
+    /**
+     * Take the buffered selections out, so they can be written later without holding up further appends.
+     *
+     * @return Encoded selections, empty if nothing is buffered.
+     */
+    public byte @NotNull [] drain() {
+        byte[] drained = Arrays.copyOf(this.pending, this.pendingSize);
+        this.pendingSize = 0;
+        return drained;
+    }
+
+    /**
+     * Append selections taken by {@code UpdateJournal::drain} to the journal file and force them to the storage.
+     */
+    public void write(byte @NotNull [] drained) throws IOException {
+        if (drained.length == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(this.file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(drained);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Size of the active journal file, including the buffered selections.
+     */
+    public long size() throws IOException {
+        long size = Files.exists(this.file) ? Files.size(this.file) : 0;
+        return size + this.pendingSize;
+    }
+
+    /**
+     * Replay every persisted selection onto a producer, the compacting segment goes first.<br/>
+     * A torn record at the end of the active journal is truncated, so later appends stay readable.
+     *
+     * @param producer Producer loaded from the model file of the scene node.
+     * @return Amount of replayed selections.
+     */
+    public int replay(@NotNull ScoreProducer producer) throws IOException {
+        return replay(this.compacting, producer) + replay(this.file, producer);
+    }
+
+    /**
+     * Move the active journal file aside to be compacted, buffered selections stay buffered.
+     *
+     * @return The segment to compact, {@code null} if the former segment is still being compacted.
+     */
+    public @Nullable Path rotate() throws IOException {
+        if (Files.exists(this.compacting) || !Files.exists(this.file)) {
+            return null;
+        }
+        Files.move(this.file, this.compacting, StandardCopyOption.ATOMIC_MOVE);
+        return this.compacting;
+    }
+
+    /**
+     * Replace the model file of the scene node with a model covering persisted selections, exactly once.<br/>
+     * The model is written beside the model file, then the fold is committed by atomically writing
+     * {@code update.journal.fold}, which names the journal files covered by the model.
+     * A crash before that leaves the journal files to be replayed onto the former model,
+     * a crash after that is finished by {@code UpdateJournal::recover}, and the covered files are never replayed.
+     *
+     * @param model Model to write, its identifier names the model file.
+     * @param all   Whether the model covers the active journal file as well, otherwise only the compacting segment.
+     */
+    public void fold(@NotNull ScoreProducer model, boolean all) throws IOException {
+        String name = model.getIdentifier() + ScoreProducer.POST_FIX;
+        model.dump(this.dir.resolve(name + FOLDED_POST_FIX).toFile());
+        List<String> lines = new ArrayList<>(List.of(name, this.compacting.getFileName().toString()));
+        if (all) {
+            lines.add(this.file.getFileName().toString());
+        }
+        byte[] content = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+        AtomicFile.write(this.marker.toFile(), out -> out.write(content));
+        this.recover();
+    }
+
+    /**
+     * Finish a fold interrupted by a crash before the model file is loaded, see {@code UpdateJournal::fold}.<br/>
+     * A committed fold installs its model and drops the journal files covered by it,
+     * otherwise the model written by the fold is discarded.
+     */
+    public void recover() throws IOException {
+        if (!Files.exists(this.marker)) {
+            if (!Files.isDirectory(this.dir)) {
+                return;
+            }
+            try (DirectoryStream<Path> folded = Files.newDirectoryStream(this.dir, "*" + FOLDED_POST_FIX)) {
+                for (Path path : folded) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            return;
+        }
+        List<String> lines = Files.readAllLines(this.marker, StandardCharsets.UTF_8);
+        Path folded = this.dir.resolve(lines.get(0) + FOLDED_POST_FIX);
+        if (Files.exists(folded)) {
+            AtomicFile.move(folded, this.dir.resolve(lines.get(0)));
+        }
+        for (String name : lines.subList(1, lines.size())) {
+            Files.deleteIfExists(this.dir.resolve(name));
+        }
+        Files.delete(this.marker);
+    }
+
+    /**
+     * Drop both the buffered and the persisted selections, used once the model file covers all of them.
+     */
+    public void clear() throws IOException {
+        this.pendingSize = 0;
+        this.delete();
+    }
+
+    /**
+     * Drop the persisted selections only, used once a snapshot of the model covering them is written.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(this.compacting);
+    }
+
+    /**
+     * Replay the selections of a journal file onto a producer.<br/>
+     * An overlay does not copy scores from its bases meanwhile, the journaled copies are restored instead.
+     *
+     * @param file     Journal file, no effect if absent.
+     * @param producer Producer to update.
+     * @return Amount of replayed selections.
+     */
+    public static int replay(@NotNull Path file, @NotNull ScoreProducer producer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        OverlayDictionModel overlay = producer instanceof OverlayDictionModel o ? o : null;
+        boolean seeding = overlay != null && overlay.isSeeding();
+        if (overlay != null) {
+            overlay.setSeeding(false);
+        }
+        int count = 0;
+        int valid = 0;
+        try {
+            while (buffer.remaining() >= 2) {
+                int flags = buffer.getShort(buffer.position()) & (CONTEXTUAL | SEED);
+                boolean contextual = flags == CONTEXTUAL;
+                String pinyin = decode(buffer);
+                String selection = pinyin == null ? null : decode(buffer);
+                String previous = selection == null || !contextual ? null : decode(buffer);
+                if (selection == null || (contextual && previous == null)
+                    || buffer.remaining() < (flags == SEED ? 12 : 8)) {
+                    break;
+                }
+                if (flags == SEED) {
+                    float score = buffer.getFloat();
+                    long time = buffer.getLong();
+                    if (overlay != null) {
+                        overlay.seed(pinyin, selection, score, time);
+                    }
+                } else {
+                    long time = buffer.getLong();
+                    if (contextual && producer instanceof ContextAware aware) {
+                        aware.update(pinyin, selection, previous.isEmpty() ? null : previous, time);
+                    } else {
+                        producer.update(pinyin, selection, time);
+                    }
+                    ++count;
+                }
+                valid = buffer.position();
+            }
+        } finally {
+            if (overlay != null) {
+                overlay.setSeeding(seeding);
+            }
+        }
+        if (valid < buffer.limit()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return count;
+    }
+
+    private static byte[] encode(String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("%s is too long to be journaled".formatted(string));
+        }
+        return bytes;
+    }
+
+    private static @Nullable String decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 2) {
+            return null;
+        }
+        int length = buffer.getShort() & MAX_LENGTH;
+        if (buffer.remaining() < length) {
+            return null;
+        }
+        String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+}
@@ -0,0 +1,93 @@
+package cool.muyucloud.graime.annotation;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index classes annotated with {@code @ImplementedProducer} at build time.<br/>
+ * The index is emitted as {@code META-INF/services/cool.muyucloud.graime.model.ScoreProducer},
+ * which the registry of {@code ScoreProducer} reads through {@code ServiceLoader} instead of scanning the classpath.
+ */
+@SupportedAnnotationTypes(ImplementedProducerProcessor.ANNOTATION)
+public class ImplementedProducerProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "cool.muyucloud.graime.annotation.ImplementedProducer";
+    static final String SERVICE = "cool.muyucloud.graime.model.ScoreProducer";
+
+    /* binary class name to its element, sorted to keep the generated file stable */
+    private final Map<String, TypeElement> producers = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        TypeElement annotation = this.processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation != null) {
+            for (TypeElement type : ElementFilter.typesIn(round.getElementsAnnotatedWith(annotation))) {
+                if (this.check(type)) {
+                    String name = this.processingEnv.getElementUtils().getBinaryName(type).toString();
+                    this.producers.put(name, type);
+                }
+            }
+        }
+        if (round.processingOver() && !this.producers.isEmpty()) {
+            this.write();
+        }
+        return false;
+    }
+
+    private boolean check(TypeElement type) {
+        TypeElement service = this.processingEnv.getElementUtils().getTypeElement(SERVICE);
+        TypeMirror erased = service == null ? null : this.processingEnv.getTypeUtils().erasure(service.asType());
+        if (erased == null || !this.processingEnv.getTypeUtils().isAssignable(type.asType(), erased)) {
+            this.error(type, "@ImplementedProducer class %s does not extend %s".formatted(type, SERVICE));
+            return false;
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT) || !type.getModifiers().contains(Modifier.PUBLIC)) {
+            this.error(type, "@ImplementedProducer class %s must be public and concrete".formatted(type));
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        this.error(type, "@ImplementedProducer class %s must have a public constructor without parameters".formatted(type));
+        return false;
+    }
+
+    private void write() {
+        try {
+            FileObject file = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                "META-INF/services/" + SERVICE, this.producers.values().toArray(new Element[0]));
+            try (Writer writer = file.openWriter()) {
+                for (String name : this.producers.keySet()) {
+                    writer.write(name);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "Failed to write the producer index: %s".formatted(e.getMessage()));
+        }
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
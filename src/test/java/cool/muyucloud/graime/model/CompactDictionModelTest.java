@@ -0,0 +1,90 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.util.Clock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactDictionModelTest {
+    private static final long NOW = 1_760_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void freeze() {
+        Clock.freeze(NOW);
+    }
+
+    @AfterEach
+    void reset() {
+        Clock.reset();
+    }
+
+    private CompactDictionModel reload(CompactDictionModel model) {
+        model.dump(this.dir);
+        return new CompactDictionModel(this.dir);
+    }
+
+    @Test
+    void dumpThenLoadKeepsEveryRecord() {
+        Random random = new Random(1);
+        CompactDictionModel model = new CompactDictionModel();
+        List<UpdateEvent> events = new ArrayList<>();
+        long time = NOW - 30L * 86_400_000L;
+        for (int i = 0; i < 30000; ++i) {
+            time += random.nextInt(60_000);
+            // enough pinyin and candidates for string ids of one, two and three varint bytes
+            events.add(new UpdateEvent("p" + random.nextInt(600), "候选" + random.nextInt(20000), time));
+        }
+        model.updateBatch(events);
+        assertTrue(model.isDirty());
+
+        CompactDictionModel loaded = this.reload(model);
+        assertFalse(loaded.isDirty());
+        assertTrue(loaded.isCompact());
+        assertEquals(model.getLexicon(), loaded.getLexicon());
+        for (String pinyin : model.getPinyins()) {
+            assertEquals(model.topK(pinyin, 5), loaded.topK(pinyin, 5));
+        }
+        // a loaded model writes the same records again
+        assertEquals(model.getLexicon(), this.reload(loaded).getLexicon());
+    }
+
+    @Test
+    void loadedModelKeepsLearning() {
+        CompactDictionModel model = new CompactDictionModel();
+        model.update("ni'hao", "你好", NOW - 3_600_000L);
+        model.update("ni'hao", "拟好", NOW - 60_000L);
+        CompactDictionModel loaded = this.reload(model);
+
+        model.update("ni'hao", "你好", NOW);
+        loaded.update("ni'hao", "你好", NOW);
+        assertEquals(model.getScores("ni'hao"), loaded.getScores("ni'hao"));
+        assertEquals(model.topK("ni'hao", 2), loaded.topK("ni'hao", 2));
+    }
+
+    @Test
+    void emptyModelRoundTrips() {
+        CompactDictionModel loaded = this.reload(new CompactDictionModel());
+        assertTrue(loaded.getPinyins().isEmpty());
+        assertTrue(loaded.getScores("a").isEmpty());
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        Path file = this.dir.resolve("compact.model");
+        Files.writeString(file, "{}");
+        assertThrows(RuntimeException.class, () -> new CompactDictionModel(file.toFile()));
+    }
+}
@@ -0,0 +1,139 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.util.BiType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticDictionModelTest {
+    @TempDir
+    Path dir;
+
+    private static Map<String, Map<String, Float>> lexicon(int pinyins, long seed) {
+        Random random = new Random(seed);
+        Map<String, Map<String, Float>> lexicon = new HashMap<>();
+        for (int p = 0; p < pinyins; ++p) {
+            Map<String, Float> candidates = new HashMap<>();
+            int count = 1 + random.nextInt(8);
+            for (int c = 0; c < count; ++c) {
+                candidates.put("词" + p + "_" + c, 0.01F + random.nextFloat());
+            }
+            lexicon.put("py" + p + "'" + Integer.toString(p * 31, 36), candidates);
+        }
+        return lexicon;
+    }
+
+    private StaticDictionModel write(Map<String, Map<String, Float>> lexicon) throws IOException {
+        File file = this.dir.resolve("static.model").toFile();
+        StaticDictionModel.write(file, lexicon);
+        return new StaticDictionModel(file);
+    }
+
+    @Test
+    void everyKeyRoundTrips() throws IOException {
+        Map<String, Map<String, Float>> lexicon = lexicon(5000, 1);
+        StaticDictionModel model = this.write(lexicon);
+
+        assertEquals(lexicon.keySet(), model.getPinyins());
+        for (Map.Entry<String, Map<String, Float>> entry : lexicon.entrySet()) {
+            String pinyin = entry.getKey();
+            assertEquals(entry.getValue(), model.getScores(pinyin));
+            for (Map.Entry<String, Float> candidate : entry.getValue().entrySet()) {
+                assertEquals(candidate.getValue(), model.getScore(pinyin, candidate.getKey()));
+            }
+            List<BiType<String, Float>> top = model.topK(pinyin, 3);
+            List<Float> scores = new ArrayList<>(entry.getValue().values());
+            scores.sort(Comparator.reverseOrder());
+            assertEquals(Math.min(3, scores.size()), top.size());
+            for (int i = 0; i < top.size(); ++i) {
+                assertEquals(scores.get(i), top.get(i).getB());
+            }
+        }
+        assertEquals(lexicon, model.getLexicon());
+    }
+
+    @Test
+    void missesAreRejected() throws IOException {
+        Map<String, Map<String, Float>> lexicon = lexicon(2000, 2);
+        StaticDictionModel model = this.write(lexicon);
+
+        for (int p = 0; p < 5000; ++p) {
+            String pinyin = "miss" + p;
+            assertTrue(model.getScores(pinyin).isEmpty());
+            assertTrue(model.topK(pinyin, 5).isEmpty());
+            assertEquals(0F, model.getScore(pinyin, "词0_0"));
+        }
+        // a known pinyin with a prefix or suffix of it lands in some slot, whose pinyin does not match
+        assertTrue(model.getScores("py1").isEmpty());
+        assertTrue(model.getScores("py1'v'").isEmpty());
+        assertTrue(model.getScores("").isEmpty());
+        assertEquals(0F, model.getScore("py1'v", "absent"));
+    }
+
+    @Test
+    void singleKeyBucketsNameTheirSlot() throws IOException {
+        Map<String, Map<String, Float>> lexicon = lexicon(3000, 3);
+        StaticDictionModel model = this.write(lexicon);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(this.dir.resolve("static.model")));
+
+        assertEquals(StaticDictionModel.MAGIC, buffer.getInt(0));
+        int pinyinCount = buffer.getInt(12);
+        int bucketCount = buffer.getInt(16);
+        int bucketsPosition = (int) buffer.getLong(32);
+        Set<Integer> named = new HashSet<>();
+        for (int b = 0; b < bucketCount; ++b) {
+            int displacement = buffer.getInt(bucketsPosition + 4 * b);
+            if (displacement < 0) {
+                int slot = -displacement - 1;
+                assertTrue(slot < pinyinCount);
+                // no two buckets name the same slot
+                assertTrue(named.add(slot));
+            }
+        }
+        assertFalse(named.isEmpty());
+        // the pinyin of every slot is found again, those of single-key buckets included
+        for (String pinyin : lexicon.keySet()) {
+            assertFalse(model.getScores(pinyin).isEmpty());
+        }
+    }
+
+    @Test
+    void tinyLexicons() throws IOException {
+        StaticDictionModel empty = this.write(Map.of());
+        assertTrue(empty.getPinyins().isEmpty());
+        assertTrue(empty.getScores("a").isEmpty());
+        assertTrue(empty.topK("a", 3).isEmpty());
+
+        StaticDictionModel single = this.write(Map.of("a", Map.of("啊", 0.5F)));
+        assertEquals(Map.of("啊", 0.5F), single.getScores("a"));
+        assertTrue(single.getScores("b").isEmpty());
+    }
+
+    @Test
+    void nonPositiveScoresAreDropped() throws IOException {
+        Map<String, Float> candidates = new HashMap<>();
+        candidates.put("有", 0.5F);
+        candidates.put("零", 0F);
+        candidates.put("负", -1F);
+        StaticDictionModel model = this.write(Map.of("a", candidates));
+
+        assertEquals(Map.of("有", 0.5F), model.getScores("a"));
+        assertEquals(0F, model.getScore("a", "零"));
+    }
+
+    @Test
+    void readOnly() throws IOException {
+        StaticDictionModel model = this.write(lexicon(10, 4));
+        assertTrue(model.isReadOnly());
+        assertSame(model, model.copy());
+        assertThrows(UnsupportedOperationException.class, () -> model.update("a", "b", 0));
+    }
+}
@@ -0,0 +1,118 @@
+package cool.muyucloud.graime.model;
+
+import cool.muyucloud.graime.util.Clock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeWeightedDictionModelTest {
+    private static final long NOW = 1_760_000_000_000L;
+
+    @BeforeEach
+    void freeze() {
+        Clock.freeze(NOW);
+    }
+
+    @AfterEach
+    void reset() {
+        Clock.reset();
+    }
+
+    /**
+     * Selections over a few pinyin, repeated candidates and increasing times, so groups interleave.
+     */
+    private static List<UpdateEvent> events(int count, long seed) {
+        Random random = new Random(seed);
+        List<UpdateEvent> events = new ArrayList<>(count);
+        long time = NOW - 86_400_000L;
+        for (int i = 0; i < count; ++i) {
+            time += random.nextInt(600_000);
+            events.add(new UpdateEvent("p" + random.nextInt(12), "w" + random.nextInt(30), time));
+        }
+        return events;
+    }
+
+    private static void updateOneByOne(ScoreProducer producer, List<UpdateEvent> events) {
+        for (UpdateEvent event : events) {
+            producer.update(event.getPinyin(), event.getSelection(), event.getTime());
+        }
+    }
+
+    @Test
+    void updateBatchMatchesSequentialUpdates() {
+        List<UpdateEvent> events = events(5000, 1);
+        TimeWeightedDictionModel sequential = new TimeWeightedDictionModel();
+        updateOneByOne(sequential, events);
+        TimeWeightedDictionModel batched = new TimeWeightedDictionModel();
+        batched.updateBatch(events, false);
+
+        assertEquals(sequential.getLexicon(), batched.getLexicon());
+        for (String pinyin : sequential.getPinyins()) {
+            assertEquals(sequential.topK(pinyin, 10), batched.topK(pinyin, 10));
+        }
+    }
+
+    @Test
+    void parallelUpdateBatchMatchesSequentialUpdates() {
+        List<UpdateEvent> events = events(20000, 2);
+        TimeWeightedDictionModel sequential = new TimeWeightedDictionModel();
+        updateOneByOne(sequential, events);
+        TimeWeightedDictionModel batched = new TimeWeightedDictionModel();
+        batched.updateBatch(events, true);
+
+        assertEquals(sequential.getLexicon(), batched.getLexicon());
+    }
+
+    @Test
+    void updateBatchAfterSequentialUpdates() {
+        List<UpdateEvent> events = events(3000, 3);
+        TimeWeightedDictionModel sequential = new TimeWeightedDictionModel();
+        updateOneByOne(sequential, events);
+        TimeWeightedDictionModel batched = new TimeWeightedDictionModel();
+        updateOneByOne(batched, events.subList(0, 1000));
+        batched.updateBatch(events.subList(1000, 2000), true);
+        batched.updateBatch(events.subList(2000, 3000), false);
+
+        assertEquals(sequential.getLexicon(), batched.getLexicon());
+    }
+
+    @Test
+    void overlayUpdateBatchSeedsLikeSequentialUpdates() {
+        TimeWeightedDictionModel base = new TimeWeightedDictionModel();
+        base.updateBatch(events(3000, 4));
+        List<UpdateEvent> events = events(2000, 5);
+        List<String> sequentialSeeds = new ArrayList<>();
+        List<String> batchedSeeds = new ArrayList<>();
+
+        OverlayDictionModel sequential = new OverlayDictionModel();
+        sequential.setBases(List.of(base));
+        sequential.setSeedListener((pinyin, candidate, score, time) ->
+            sequentialSeeds.add(pinyin + "/" + candidate + "/" + score + "/" + time));
+        updateOneByOne(sequential, events);
+        for (boolean parallel : new boolean[]{false, true}) {
+            batchedSeeds.clear();
+            OverlayDictionModel batched = new OverlayDictionModel();
+            batched.setBases(List.of(base));
+            batched.setSeedListener((pinyin, candidate, score, time) ->
+                batchedSeeds.add(pinyin + "/" + candidate + "/" + score + "/" + time));
+            batched.updateBatch(events, parallel);
+
+            // every seed is copied at the time of the selection it is made for, whichever comes first
+            assertEquals(sequentialSeeds, batchedSeeds);
+            for (String pinyin : sequential.getPinyins()) {
+                assertEquals(sequential.getScores(pinyin), batched.getScores(pinyin));
+            }
+            // learned records alone, without reading through the base
+            batched.setBases(List.of());
+            OverlayDictionModel learned = (OverlayDictionModel) sequential.copy();
+            learned.setBases(List.of());
+            assertEquals(learned.getLexicon(), batched.getLexicon());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package cool.muyucloud.graime.util;
+
+import cool.muyucloud.graime.model.OverlayDictionModel;
+import cool.muyucloud.graime.model.ScoreProducer;
+import cool.muyucloud.graime.model.TimeWeightedDictionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpdateJournalTest {
+    private static final long NOW = 1_760_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void freeze() {
+        Clock.freeze(NOW);
+    }
+
+    @AfterEach
+    void reset() {
+        Clock.reset();
+    }
+
+    private Path journalFile() {
+        return this.dir.resolve(UpdateJournal.FILE_NAME);
+    }
+
+    private Path compactingFile() {
+        return this.dir.resolve(UpdateJournal.FILE_NAME + UpdateJournal.COMPACTING_POST_FIX);
+    }
+
+    @Test
+    void replayAppliesSelectionsInOrder() throws IOException {
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        TimeWeightedDictionModel expected = new TimeWeightedDictionModel();
+        for (int i = 0; i < 50; ++i) {
+            journal.append("ni'hao", "w" + i % 7, NOW + i * 1000L);
+            expected.update("ni'hao", "w" + i % 7, NOW + i * 1000L);
+        }
+        assertTrue(journal.hasPending());
+        journal.flush();
+        assertFalse(journal.hasPending());
+
+        TimeWeightedDictionModel replayed = new TimeWeightedDictionModel();
+        assertEquals(50, new UpdateJournal(this.dir).replay(replayed));
+        assertEquals(expected.getLexicon(), replayed.getLexicon());
+    }
+
+    @Test
+    void tornTailIsDroppedAndTruncated() throws IOException {
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        journal.append("a", "x", NOW);
+        journal.append("a", "y", NOW + 1000);
+        journal.flush();
+        long valid = Files.size(this.journalFile());
+        journal.append("a", "z", NOW + 2000);
+        journal.flush();
+        // a crash in the middle of the last record
+        try (FileChannel channel = FileChannel.open(this.journalFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(this.journalFile()) - 3);
+        }
+
+        TimeWeightedDictionModel replayed = new TimeWeightedDictionModel();
+        assertEquals(2, new UpdateJournal(this.dir).replay(replayed));
+        assertEquals(valid, Files.size(this.journalFile()));
+        assertEquals(0F, replayed.getScore("a", "z"));
+
+        // records appended after the truncation stay readable
+        UpdateJournal reopened = new UpdateJournal(this.dir);
+        reopened.append("b", "w", NOW + 3000);
+        reopened.flush();
+        TimeWeightedDictionModel again = new TimeWeightedDictionModel();
+        assertEquals(3, new UpdateJournal(this.dir).replay(again));
+        assertTrue(again.getScore("b", "w") > 0);
+    }
+
+    @Test
+    void tornLengthPrefixIsDropped() throws IOException {
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        journal.append("a", "x", NOW);
+        journal.flush();
+        long valid = Files.size(this.journalFile());
+        Files.write(this.journalFile(), new byte[]{0}, StandardOpenOption.APPEND);
+
+        assertEquals(1, new UpdateJournal(this.dir).replay(new TimeWeightedDictionModel()));
+        assertEquals(valid, Files.size(this.journalFile()));
+    }
+
+    @Test
+    void rotationReplaysTheCompactingSegmentFirst() throws IOException {
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        journal.append("a", "x", NOW);
+        journal.append("a", "y", NOW + 1000);
+        journal.flush();
+        assertEquals(this.compactingFile(), journal.rotate());
+        assertFalse(Files.exists(this.journalFile()));
+        // selections made meanwhile go to a new active file
+        journal.append("a", "x", NOW + 2000);
+        journal.flush();
+        // the former segment is still being compacted
+        assertNull(journal.rotate());
+
+        TimeWeightedDictionModel expected = new TimeWeightedDictionModel();
+        expected.update("a", "x", NOW);
+        expected.update("a", "y", NOW + 1000);
+        expected.update("a", "x", NOW + 2000);
+        TimeWeightedDictionModel replayed = new TimeWeightedDictionModel();
+        assertEquals(3, new UpdateJournal(this.dir).replay(replayed));
+        assertEquals(expected.getLexicon(), replayed.getLexicon());
+    }
+
+    @Test
+    void foldReplacesTheModelAndDropsTheSegment() throws IOException {
+        TimeWeightedDictionModel model = new TimeWeightedDictionModel();
+        model.update("a", "x", NOW);
+        model.dump(this.dir);
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        journal.append("a", "y", NOW + 1000);
+        journal.flush();
+        journal.rotate();
+        journal.append("a", "z", NOW + 2000);
+        journal.flush();
+
+        ScoreProducer folded = ScoreProducer.genericLoad(this.dir);
+        UpdateJournal.replay(this.compactingFile(), folded);
+        journal.fold(folded, false);
+        assertFalse(Files.exists(this.compactingFile()));
+        assertFalse(Files.exists(this.dir.resolve(UpdateJournal.FOLD_FILE_NAME)));
+        assertTrue(Files.exists(this.journalFile()));
+
+        TimeWeightedDictionModel expected = new TimeWeightedDictionModel();
+        expected.update("a", "x", NOW);
+        expected.update("a", "y", NOW + 1000);
+        expected.update("a", "z", NOW + 2000);
+        ScoreProducer loaded = ScoreProducer.genericLoad(this.dir);
+        assertEquals(1, new UpdateJournal(this.dir).replay(loaded));
+        assertEquals(expected.getScores("a"), loaded.getScores("a"));
+    }
+
+    @Test
+    void recoverFinishesACommittedFold() throws IOException {
+        TimeWeightedDictionModel model = new TimeWeightedDictionModel();
+        model.update("a", "x", NOW);
+        model.dump(this.dir);
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        journal.append("a", "y", NOW + 1000);
+        journal.flush();
+        journal.rotate();
+        TimeWeightedDictionModel folded = (TimeWeightedDictionModel) ScoreProducer.genericLoad(this.dir);
+        UpdateJournal.replay(this.compactingFile(), folded);
+        // a crash right after the fold is committed, before the model is installed
+        String name = folded.getIdentifier() + ScoreProducer.POST_FIX;
+        folded.dump(this.dir.resolve(name + UpdateJournal.FOLDED_POST_FIX).toFile());
+        Files.writeString(this.dir.resolve(UpdateJournal.FOLD_FILE_NAME),
+            name + "\n" + this.compactingFile().getFileName());
+
+        UpdateJournal recovered = new UpdateJournal(this.dir);
+        recovered.recover();
+        assertFalse(Files.exists(this.compactingFile()));
+        assertFalse(Files.exists(this.dir.resolve(name + UpdateJournal.FOLDED_POST_FIX)));
+        ScoreProducer loaded = ScoreProducer.genericLoad(this.dir);
+        assertEquals(0, recovered.replay(loaded));
+        assertEquals(folded.getScores("a"), loaded.getScores("a"));
+    }
+
+    @Test
+    void recoverDiscardsAnUncommittedFold() throws IOException {
+        TimeWeightedDictionModel model = new TimeWeightedDictionModel();
+        model.update("a", "x", NOW);
+        model.dump(this.dir);
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        journal.append("a", "y", NOW + 1000);
+        journal.flush();
+        journal.rotate();
+        TimeWeightedDictionModel folded = (TimeWeightedDictionModel) ScoreProducer.genericLoad(this.dir);
+        UpdateJournal.replay(this.compactingFile(), folded);
+        // a crash before the fold is committed
+        String name = folded.getIdentifier() + ScoreProducer.POST_FIX;
+        folded.dump(this.dir.resolve(name + UpdateJournal.FOLDED_POST_FIX).toFile());
+
+        UpdateJournal recovered = new UpdateJournal(this.dir);
+        recovered.recover();
+        assertTrue(Files.exists(this.compactingFile()));
+        assertFalse(Files.exists(this.dir.resolve(name + UpdateJournal.FOLDED_POST_FIX)));
+        ScoreProducer loaded = ScoreProducer.genericLoad(this.dir);
+        assertEquals(1, recovered.replay(loaded));
+        assertEquals(folded.getScores("a"), loaded.getScores("a"));
+    }
+
+    @Test
+    void replayRestoresJournaledSeedsInsteadOfReadingTheBases() throws IOException {
+        TimeWeightedDictionModel base = new TimeWeightedDictionModel();
+        for (int i = 0; i < 15; ++i) {
+            base.update("ma", "m" + i, NOW - 60_000L * i);
+        }
+        UpdateJournal journal = new UpdateJournal(this.dir);
+        OverlayDictionModel live = new OverlayDictionModel();
+        live.setBases(List.of(base));
+        live.setSeedListener(journal::appendSeed);
+        live.update("ma", "m3", NOW);
+        journal.append("ma", "m3", NOW);
+        live.update("ma", "other", NOW + 1000);
+        journal.append("ma", "other", NOW + 1000);
+        journal.flush();
+
+        // the base has moved on by the time the journal is replayed
+        for (int i = 0; i < 20; ++i) {
+            base.update("ma", "m9", NOW + 2000);
+        }
+        OverlayDictionModel replayed = new OverlayDictionModel();
+        replayed.setBases(List.of(base));
+        assertEquals(2, new UpdateJournal(this.dir).replay(replayed));
+        assertTrue(replayed.isSeeding());
+
+        live.setBases(List.of());
+        replayed.setBases(List.of());
+        assertEquals(live.getScores("ma"), replayed.getScores("ma"));
+        assertEquals(OverlayDictionModel.SEED_DEPTH + 1, replayed.getScores("ma").size());
+    }
+}